@@ -0,0 +1,82 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import com.steviecodesit.ourhomedev.user.InMemoryUserRepository;
+import com.steviecodesit.ourhomedev.user.PresenceTracker;
+import com.steviecodesit.ourhomedev.user.UserSearchIndex;
+import com.steviecodesit.ourhomedev.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Owner and membership checks each load the household and look the user up in its membership index. The
+// owner sits last and the missing user is absent, which were the worst cases for the old linear scans;
+// what still grows with the household is loading (copying and indexing) it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HouseholdMembershipBenchmark {
+
+    private static final String HOUSEHOLD_ID = "household";
+    private static final String OWNER_ID = "owner";
+
+    @Param({"10", "100", "1000", "10000"})
+    private int members;
+
+    private HouseholdService householdService;
+
+    @Setup
+    public void setUp() {
+        SimulatedLatency noLatency = new SimulatedLatency(0, 0);
+        InMemoryUserRepository userRepository = new InMemoryUserRepository(noLatency);
+        InMemoryHouseholdRepository householdRepository = new InMemoryHouseholdRepository(noLatency, userRepository);
+        UserService userService = new UserService(userRepository, new IdTokenVerifier(null, 1, new DownstreamMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry()), new UserSearchIndex(),
+                new PresenceTracker(userRepository, new SimpleMeterRegistry(), 1000, 1000, 60));
+        householdService = new HouseholdService(householdRepository, new InMemoryInviteRepository(householdRepository), userRepository, userService);
+
+        List<HouseholdMembership> memberships = new ArrayList<>();
+        for (int i = 0; i < members - 1; i++) {
+            memberships.add(membership("member" + i, HouseholdRole.MEMBER));
+        }
+        HouseholdMembership owner = membership(OWNER_ID, HouseholdRole.OWNER);
+        memberships.add(owner);
+
+        Household household = new Household();
+        household.setId(HOUSEHOLD_ID);
+        household.setHouseholdName("Benchmark household");
+        household.setMembers(memberships);
+        householdRepository.create(household, owner).join();
+    }
+
+    private static HouseholdMembership membership(String userId, HouseholdRole role) {
+        return HouseholdMembership.builder()
+                .householdId(HOUSEHOLD_ID)
+                .userId(userId)
+                .householdRole(role)
+                .memberStatus(HouseholdMembershipStatus.ACCEPTED)
+                .build();
+    }
+
+    @Benchmark
+    public boolean isOwnerOfHousehold() {
+        return householdService.isOwnerOfHousehold(OWNER_ID, HOUSEHOLD_ID).join();
+    }
+
+    @Benchmark
+    public boolean isAlreadyAMember_Member() {
+        return householdService.isAlreadyAMember(OWNER_ID, HOUSEHOLD_ID).join();
+    }
+
+    @Benchmark
+    public boolean isAlreadyAMember_NotMember() {
+        return householdService.isAlreadyAMember("stranger", HOUSEHOLD_ID).join();
+    }
+}
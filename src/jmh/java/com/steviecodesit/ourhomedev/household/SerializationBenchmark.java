@@ -0,0 +1,74 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.steviecodesit.ourhomedev.user.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Jackson round-trips of the response bodies the controllers return
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"10", "1000"})
+    private int members;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Household household;
+    private String householdJson;
+    private User user;
+    private String userJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        List<HouseholdMembership> memberships = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            memberships.add(HouseholdMembership.builder()
+                    .householdId("household")
+                    .userId("member" + i)
+                    .householdRole(i == 0 ? HouseholdRole.OWNER : HouseholdRole.MEMBER)
+                    .memberStatus(HouseholdMembershipStatus.ACCEPTED)
+                    .build());
+        }
+        household = new Household();
+        household.setId("household");
+        household.setHouseholdName("Benchmark household");
+        household.setMembers(memberships);
+        householdJson = objectMapper.writeValueAsString(household);
+
+        user = User.builder()
+                .displayName("user")
+                .email("user@example.com")
+                .householdMembership(memberships.get(0))
+                .build();
+        userJson = objectMapper.writeValueAsString(user);
+    }
+
+    @Benchmark
+    public String serializeHousehold() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(household);
+    }
+
+    @Benchmark
+    public Household deserializeHousehold() throws JsonProcessingException {
+        return objectMapper.readValue(householdJson, Household.class);
+    }
+
+    @Benchmark
+    public String serializeUser() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(user);
+    }
+
+    @Benchmark
+    public User deserializeUser() throws JsonProcessingException {
+        return objectMapper.readValue(userJson, User.class);
+    }
+}
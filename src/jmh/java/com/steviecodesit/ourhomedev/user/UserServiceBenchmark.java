@@ -0,0 +1,64 @@
+package com.steviecodesit.ourhomedev.user;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Passwords {
+
+        @Param({"Password1!", "password", "Aa1!Aa1!Aa1!Aa1!Aa1!Aa1!Aa1!Aa1!"})
+        private String password;
+
+        private final UserService userService = new UserService(null, null, null, null);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Users {
+
+        @Param({"1000", "10000"})
+        private int users;
+
+        private UserService userService;
+
+        @Setup
+        public void setUp() {
+            InMemoryUserRepository userRepository = new InMemoryUserRepository(new SimulatedLatency(0, 0));
+            userService = new UserService(userRepository, new IdTokenVerifier(null, 1, new DownstreamMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry()), new UserSearchIndex(),
+                    new PresenceTracker(userRepository, new SimpleMeterRegistry(), 1000, 1000, 60));
+            for (int i = 0; i < users; i++) {
+                userRepository.save("uid" + i, User.builder()
+                        .displayName("user" + i)
+                        .email("user" + i + "@example.com")
+                        .build()).join();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean isValidPassword(Passwords state) {
+        return state.userService.isValidPassword(state.password);
+    }
+
+    @Benchmark
+    public List<User> findUserByEmailOrUsername_Email(Users state) {
+        return state.userService.findUserByEmailOrUsername("user" + (state.users / 2) + "@example.com").join();
+    }
+
+    @Benchmark
+    public List<User> findUserByEmailOrUsername_NoMatch(Users state) {
+        return state.userService.findUserByEmailOrUsername("nobody").join();
+    }
+}
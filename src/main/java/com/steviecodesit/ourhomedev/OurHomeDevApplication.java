@@ -1,12 +1,20 @@
 package com.steviecodesit.ourhomedev;
 
+import com.steviecodesit.ourhomedev.config.FirebaseBootstrap;
+import com.steviecodesit.ourhomedev.config.NativeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(NativeHints.class)
 public class OurHomeDevApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(OurHomeDevApplication.class, args);
+		// Starts reading the Firebase credentials while Spring is still starting up
+		FirebaseBootstrap firebaseBootstrap = new FirebaseBootstrap();
+		SpringApplication application = new SpringApplication(OurHomeDevApplication.class);
+		application.addInitializers(context -> context.getBeanFactory().registerSingleton("firebaseBootstrap", firebaseBootstrap));
+		application.run(args);
 	}
 }
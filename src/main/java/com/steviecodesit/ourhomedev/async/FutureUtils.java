@@ -0,0 +1,64 @@
+package com.steviecodesit.ourhomedev.async;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.steviecodesit.ourhomedev.metrics.RequestTimings;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+public final class FutureUtils {
+
+    private FutureUtils() {
+    }
+
+    // Completes on the thread that completes the ApiFuture, so no thread ever parks waiting on Firestore.
+    // The caller's request timings stay current while dependent stages run on that thread.
+    public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        RequestTimings timings = RequestTimings.current();
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(T result) {
+                RequestTimings previous = RequestTimings.set(timings);
+                try {
+                    future.complete(result);
+                } finally {
+                    RequestTimings.restore(previous);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                RequestTimings previous = RequestTimings.set(timings);
+                try {
+                    future.completeExceptionally(unwrap(t));
+                } finally {
+                    RequestTimings.restore(previous);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    // Runs a future-producing call, turning anything it throws synchronously into a failed future
+    public static <T> CompletableFuture<T> call(Callable<CompletableFuture<T>> callable) {
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static Throwable unwrap(Throwable throwable) {
+        Throwable current = throwable;
+        while ((current instanceof CompletionException || current instanceof ExecutionException) && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+}
@@ -0,0 +1,56 @@
+package com.steviecodesit.ourhomedev.async;
+
+import com.steviecodesit.ourhomedev.metrics.RequestTimings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Stands in for a Firestore round-trip: the operation runs, and its future completes, only after the
+// configured latency plus up to jitter millis, on a pool thread as a gRPC callback would.
+@Component
+@Profile("in-memory")
+public class SimulatedLatency {
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+
+    public SimulatedLatency(@Value("${ourhome.repository.in-memory.latency-millis:0}") long latencyMillis,
+                            @Value("${ourhome.repository.in-memory.jitter-millis:0}") long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    public <T> CompletableFuture<T> apply(Supplier<T> operation) {
+        long delayMillis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delayMillis <= 0) {
+            return FutureUtils.call(() -> CompletableFuture.completedFuture(operation.get()));
+        }
+
+        // The wait counts as the request's downstream time, and the caller's timings stay current for the
+        // stages that run when the future completes
+        CompletableFuture<T> future = new CompletableFuture<>();
+        RequestTimings timings = RequestTimings.current();
+        if (timings != null) {
+            timings.downstreamStarted(System.nanoTime());
+        }
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (timings != null) {
+                timings.downstreamFinished(System.nanoTime());
+            }
+            RequestTimings previous = RequestTimings.set(timings);
+            try {
+                future.complete(operation.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                RequestTimings.restore(previous);
+            }
+        });
+        return future;
+    }
+}
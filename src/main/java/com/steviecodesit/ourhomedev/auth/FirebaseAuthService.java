@@ -1,8 +1,9 @@
 package com.steviecodesit.ourhomedev.auth;
 
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.UserRecord;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
 import com.steviecodesit.ourhomedev.user.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -10,6 +11,7 @@ import org.springframework.validation.annotation.Validated;
 
 import javax.validation.constraints.Email;
 import javax.validation.constraints.Size;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Validated
@@ -17,22 +19,27 @@ public class FirebaseAuthService {
 
     private final UserService userService;
     private final FirebaseAuth firebaseAuth;
+    private final DownstreamMetrics metrics;
 
     @Autowired
-    public FirebaseAuthService(FirebaseAuth firebaseAuth, UserService userService) {
+    public FirebaseAuthService(FirebaseAuth firebaseAuth, UserService userService, DownstreamMetrics metrics) {
         this.firebaseAuth = firebaseAuth;
         this.userService = userService;
+        this.metrics = metrics;
     }
 
-    public UserRecord registerUser(@Email String email, @Size(min = 6) String password, String displayName) throws FirebaseAuthException {
+    // Creates the Auth account for a uid whose name, email and user document were already reserved by
+    // UserService.reserveRegistration, and releases that reservation if Auth rejects the account
+    public CompletableFuture<UserRecord> registerUser(String userId, @Email String email, @Size(min = 6) String password, String displayName) {
         UserRecord.CreateRequest request = new UserRecord.CreateRequest()
+                .setUid(userId)
                 .setEmail(email)
                 .setPassword(password)
                 .setDisplayName(displayName);
 
-        UserRecord userRecord = firebaseAuth.createUser(request);
-        userService.saveUser(userRecord);
-
-        return userRecord;
+        return metrics.firebaseAuth("createUser", () -> FutureUtils.toCompletableFuture(firebaseAuth.createUserAsync(request)))
+                .exceptionallyCompose(e -> userService.releaseRegistration(userId, displayName, email)
+                        .handle((released, releaseError) -> null)
+                        .thenCompose(ignored -> CompletableFuture.failedFuture(e)));
     }
 }
@@ -0,0 +1,82 @@
+package com.steviecodesit.ourhomedev.auth;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseToken;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// Verifies Firebase ID tokens and remembers the result until the token's own exp claim,
+// so repeat requests with the same token skip the signature check.
+@Component
+public class IdTokenVerifier {
+
+    private final FirebaseAuth firebaseAuth;
+    private final ExpiringLruCache<String, FirebaseToken> cache;
+    private final DownstreamMetrics metrics;
+
+    @Autowired
+    public IdTokenVerifier(FirebaseAuth firebaseAuth, @Value("${ourhome.auth.token-cache.max-size:10000}") int maxSize, DownstreamMetrics metrics,
+                           MeterRegistry registry) {
+        this(firebaseAuth, new ExpiringLruCache<>(maxSize), metrics);
+        cache.bindTo(registry, "id-token");
+        Gauge.builder("cache.hit.ratio", cache, ExpiringLruCache::getHitRatio).tag("cache", "id-token").register(registry);
+    }
+
+    public IdTokenVerifier(FirebaseAuth firebaseAuth, ExpiringLruCache<String, FirebaseToken> cache, DownstreamMetrics metrics) {
+        this.firebaseAuth = firebaseAuth;
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+
+    public CompletableFuture<FirebaseToken> verify(String idToken) {
+        // Key by a digest so raw bearer tokens are never held in memory longer than the request
+        String key = hash(idToken);
+        FirebaseToken cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return metrics.firebaseAuth("verifyIdToken", () -> FutureUtils.toCompletableFuture(firebaseAuth.verifyIdTokenAsync(idToken)))
+                .thenApply(decodedToken -> {
+                    Object exp = decodedToken.getClaims().get("exp");
+                    if (exp instanceof Number expSeconds) {
+                        cache.put(key, decodedToken, expSeconds.longValue() * 1000);
+                    }
+                    return decodedToken;
+                });
+    }
+
+    // The user a token was already verified for, from the cache alone; empty if it has not been verified or has expired.
+    // Peeks, so the verify that follows for the same request is the only lookup counted.
+    public Optional<String> cachedUserId(String idToken) {
+        return Optional.ofNullable(cache.peek(hash(idToken))).map(FirebaseToken::getUid);
+    }
+
+    public ExpiringLruCache<String, FirebaseToken> getCache() {
+        return cache;
+    }
+
+    private static String hash(String idToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hashed = digest.digest(idToken.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hashed);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.steviecodesit.ourhomedev.config;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.cloud.FirestoreClient;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// Takes Firebase setup off the startup path. The service account key is read on a background thread from
+// the moment the bootstrap is created (in main, before Spring starts); once the FirebaseApp exists, the
+// Firestore client with its gRPC channel and FirebaseAuth's ID-token signing keys are warmed in parallel.
+// FirebaseHealthIndicator keeps readiness down until that is done. Each phase's duration is logged and
+// shown in the health details.
+@Log4j2
+public class FirebaseBootstrap {
+
+    private static final String SERVICE_ACCOUNT_KEY = "serviceAccountKey.json";
+    private static final String WARMUP_DOCUMENT = "startup-warmup";
+
+    private final long startNanos = System.nanoTime();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "firebase-bootstrap");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Long> phaseMillis = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final CompletableFuture<GoogleCredentials> credentials;
+    private final CompletableFuture<Firestore> firestore = new CompletableFuture<>();
+    private final CompletableFuture<Void> warm = new CompletableFuture<>();
+
+    public FirebaseBootstrap() {
+        credentials = CompletableFuture.supplyAsync(() -> timed("credentials", () -> {
+            ClassPathResource bundledKey = new ClassPathResource(SERVICE_ACCOUNT_KEY);
+            if (!bundledKey.exists()) {
+                // Builds without a bundled key (e.g. the native smoke test) use GOOGLE_APPLICATION_CREDENTIALS
+                return GoogleCredentials.getApplicationDefault();
+            }
+            try (InputStream key = bundledKey.getInputStream()) {
+                return GoogleCredentials.fromStream(key);
+            }
+        }), executor);
+    }
+
+    GoogleCredentials credentials() throws IOException {
+        try {
+            return credentials.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    // Initialises the app, then starts warming its clients; withFirestore is false when nothing uses Firestore
+    FirebaseApp initializeApp(FirebaseOptions options, boolean withFirestore) {
+        FirebaseApp app = timed("app", () -> FirebaseApp.initializeApp(options));
+        warmUp(app, withFirestore);
+        return app;
+    }
+
+    private void warmUp(FirebaseApp app, boolean withFirestore) {
+        CompletableFuture<Void> firestoreWarm = CompletableFuture.completedFuture(null);
+        if (withFirestore) {
+            CompletableFuture.supplyAsync(() -> timed("firestoreClient", () -> FirestoreClient.getFirestore(app)), executor)
+                    .whenComplete((client, error) -> {
+                        if (error != null) {
+                            firestore.completeExceptionally(error);
+                        } else {
+                            firestore.complete(client);
+                        }
+                    });
+            firestoreWarm = firestore.thenAcceptAsync(client -> timed("firestoreChannel", () -> {
+                // The first call opens the channel and fetches an access token; a missing document is all it reads
+                try {
+                    client.collection("users").document(WARMUP_DOCUMENT).get().get();
+                } catch (ExecutionException e) {
+                    log.warn("Firestore warm-up call failed, the first request will open the channel", e.getCause());
+                }
+                return null;
+            }), executor);
+        }
+        CompletableFuture<Void> authWarm = CompletableFuture.runAsync(() -> timed("authKeys", () -> {
+            fetchSigningKeys(app);
+            return null;
+        }), executor);
+
+        CompletableFuture.allOf(firestoreWarm, authWarm).whenComplete((ignored, error) -> {
+            executor.shutdown();
+            if (error != null) {
+                log.error("Firebase bootstrap failed after {} ms: {}", sinceStartMillis(), phaseMillis, error);
+                warm.completeExceptionally(error);
+                return;
+            }
+            log.info("Firebase ready {} ms after start: {}", sinceStartMillis(), phaseMillis);
+            warm.complete(null);
+        });
+    }
+
+    CompletableFuture<Firestore> firestore() {
+        return firestore;
+    }
+
+    public boolean isWarm() {
+        return warm.isDone() && !warm.isCompletedExceptionally();
+    }
+
+    public boolean hasFailed() {
+        return warm.isCompletedExceptionally();
+    }
+
+    // Milliseconds each phase took, in the order they finished
+    public Map<String, Long> getPhaseMillis() {
+        synchronized (phaseMillis) {
+            return new LinkedHashMap<>(phaseMillis);
+        }
+    }
+
+    // A Firestore whose calls wait for the client being built in the background, so injecting it costs nothing
+    static Firestore deferred(CompletableFuture<Firestore> client) {
+        return (Firestore) Proxy.newProxyInstance(Firestore.class.getClassLoader(), new Class<?>[]{Firestore.class}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> "Deferred Firestore client";
+                };
+            }
+            try {
+                return method.invoke(client.join(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    // FirebaseAuth downloads Google's token signing keys on the first verification. Verifying an unsigned
+    // token for this project gets through the claim checks to that download, then fails on the signature.
+    private void fetchSigningKeys(FirebaseApp app) {
+        String projectId = app.getOptions().getProjectId();
+        if (projectId == null && credentials.join() instanceof ServiceAccountCredentials serviceAccount) {
+            projectId = serviceAccount.getProjectId();
+        }
+        if (projectId == null) {
+            return;
+        }
+        long now = Instant.now().getEpochSecond();
+        String header = "{\"alg\":\"RS256\",\"kid\":\"warmup\",\"typ\":\"JWT\"}";
+        String payload = String.format("{\"aud\":\"%s\",\"iss\":\"https://securetoken.google.com/%s\",\"sub\":\"warmup\",\"iat\":%d,\"auth_time\":%d,\"exp\":%d}",
+                projectId, projectId, now - 60, now - 60, now + 3600);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String token = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".AA";
+        try {
+            FirebaseAuth.getInstance(app).verifyIdToken(token);
+        } catch (FirebaseAuthException | RuntimeException e) {
+            log.debug("Signing key warm-up ended with the expected rejection: {}", e.getMessage());
+        }
+    }
+
+    private <T> T timed(String phase, Callable<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.call();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            phaseMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private long sinceStartMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -1,37 +1,68 @@
 package com.steviecodesit.ourhomedev.config;
 
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 @Configuration
 public class FirebaseConfig {
 
+    // main registers its own bootstrap, started before Spring; this one covers contexts started any other way
     @Bean
-    public FirebaseApp firebaseApp() throws IOException {
-        FirebaseOptions options = FirebaseOptions.builder()
-                .setCredentials(GoogleCredentials.fromStream(new ClassPathResource("serviceAccountKey.json").getInputStream()))
-                .build();
+    @ConditionalOnMissingBean
+    public FirebaseBootstrap firebaseBootstrap() {
+        return new FirebaseBootstrap();
+    }
+
+    @Bean
+    public FirebaseApp firebaseApp(FirebaseBootstrap firebaseBootstrap, Environment environment,
+                                   @Qualifier("virtualThreadExecutor") ObjectProvider<ExecutorService> virtualThreadExecutor) throws IOException {
+        GoogleCredentials credentials = firebaseBootstrap.credentials();
+        FirebaseOptions.Builder options = FirebaseOptions.builder()
+                .setCredentials(credentials);
+
+        ExecutorService executor = virtualThreadExecutor.getIfAvailable();
+        if (executor != null) {
+            // Run FirebaseAuth async calls and Firestore gRPC callbacks on virtual threads
+            FirestoreOptions.Builder firestoreOptions = FirestoreOptions.newBuilder()
+                    .setChannelProvider(FirestoreOptions.getDefaultTransportChannelProviderBuilder().setExecutor(executor).build());
+            if (credentials instanceof ServiceAccountCredentials serviceAccount) {
+                firestoreOptions.setProjectId(serviceAccount.getProjectId());
+            }
+            options.setThreadManager(new SharedExecutorThreadManager(executor))
+                    .setFirestoreOptions(firestoreOptions.build());
+        }
 
-        return FirebaseApp.initializeApp(options);
+        return firebaseBootstrap.initializeApp(options.build(), !environment.acceptsProfiles(Profiles.of("in-memory")));
     }
 
+    // The in-memory profile replaces every Firestore repository, so it never opens a Firestore client.
+    // With lazy init the repositories get a handle right away and only their first call waits for the client.
     @Bean
-    public Firestore firestore() throws IOException {
-        FirebaseApp app = FirebaseApp.getInstance();
-        return FirestoreClient.getFirestore(app);
+    @Profile("!in-memory")
+    public Firestore firestore(FirebaseApp firebaseApp, FirebaseBootstrap firebaseBootstrap,
+                               @Value("${ourhome.firebase.lazy-init.enabled:false}") boolean lazyInit) {
+        return lazyInit ? FirebaseBootstrap.deferred(firebaseBootstrap.firestore()) : firebaseBootstrap.firestore().join();
     }
 
     @Bean
-    public FirebaseAuth firebaseAuth() throws IOException {
-        return FirebaseAuth.getInstance(firebaseApp());
+    public FirebaseAuth firebaseAuth(FirebaseApp firebaseApp) {
+        return FirebaseAuth.getInstance(firebaseApp);
     }
 }
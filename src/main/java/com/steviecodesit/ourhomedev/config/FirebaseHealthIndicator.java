@@ -0,0 +1,25 @@
+package com.steviecodesit.ourhomedev.config;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// Part of the readiness group (see application.properties): a pod takes no traffic until Firestore and
+// FirebaseAuth are warm, while liveness is unaffected.
+@Component
+public class FirebaseHealthIndicator implements HealthIndicator {
+
+    private final FirebaseBootstrap firebaseBootstrap;
+
+    public FirebaseHealthIndicator(FirebaseBootstrap firebaseBootstrap) {
+        this.firebaseBootstrap = firebaseBootstrap;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder health = firebaseBootstrap.isWarm() ? Health.up()
+                : firebaseBootstrap.hasFailed() ? Health.down()
+                : Health.outOfService();
+        return health.withDetail("phaseMillis", firebaseBootstrap.getPhaseMillis()).build();
+    }
+}
@@ -0,0 +1,52 @@
+package com.steviecodesit.ourhomedev.config;
+
+import com.google.cloud.firestore.Firestore;
+import com.steviecodesit.ourhomedev.household.*;
+import com.steviecodesit.ourhomedev.user.User;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import java.util.List;
+
+// What a native image cannot find out on its own. Spring's AOT pass covers controller request and response
+// bodies, but Firestore maps the stored models through reflection on their Lombok getters, setters and
+// fields, and the Firebase Auth client parses its REST responses into @Key-annotated classes.
+public class NativeHints implements RuntimeHintsRegistrar {
+
+    private static final List<Class<?>> MODELS = List.of(
+            User.class, Household.class, HouseholdMembership.class, HouseholdInvite.class, InboxInvite.class,
+            HouseholdRole.class, HouseholdMembershipStatus.class);
+
+    private static final List<String> FIREBASE_AUTH_TYPES = List.of(
+            "com.google.firebase.auth.internal.GetAccountInfoRequest",
+            "com.google.firebase.auth.internal.GetAccountInfoRequest$FederatedUserId",
+            "com.google.firebase.auth.internal.GetAccountInfoResponse",
+            "com.google.firebase.auth.internal.GetAccountInfoResponse$User",
+            "com.google.firebase.auth.internal.GetAccountInfoResponse$Provider",
+            "com.google.firebase.auth.internal.DownloadAccountResponse",
+            "com.google.firebase.auth.internal.DownloadAccountResponse$User",
+            "com.google.firebase.auth.internal.UploadAccountResponse",
+            "com.google.firebase.auth.internal.UploadAccountResponse$ErrorInfo",
+            "com.google.firebase.auth.internal.BatchDeleteResponse",
+            "com.google.firebase.auth.internal.BatchDeleteResponse$ErrorInfo",
+            "com.google.firebase.auth.internal.FirebaseCustomAuthToken$Payload",
+            "com.google.firebase.auth.internal.AuthErrorHandler$AuthServiceErrorResponse",
+            "com.google.firebase.auth.internal.AuthErrorHandler$AuthError",
+            "com.google.api.client.auth.openidconnect.IdToken$Payload",
+            "com.google.api.client.json.webtoken.JsonWebSignature$Header",
+            "com.google.api.client.json.webtoken.JsonWebToken$Header",
+            "com.google.api.client.json.webtoken.JsonWebToken$Payload");
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        MODELS.forEach(model -> hints.reflection().registerType(model, MemberCategory.values()));
+        FIREBASE_AUTH_TYPES.forEach(type -> hints.reflection().registerType(TypeReference.of(type),
+                MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS, MemberCategory.INVOKE_PUBLIC_METHODS));
+
+        // FirebaseBootstrap.deferred
+        hints.proxies().registerJdkProxy(Firestore.class);
+        hints.resources().registerPattern("serviceAccountKey.json");
+    }
+}
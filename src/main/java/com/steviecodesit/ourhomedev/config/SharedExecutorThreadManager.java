@@ -0,0 +1,35 @@
+package com.steviecodesit.ourhomedev.config;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.ThreadManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Hands FirebaseApp an executor owned by Spring, so FirebaseAuth's *Async calls run on it
+// and releasing the app never shuts it down.
+class SharedExecutorThreadManager extends ThreadManager {
+
+    private final ExecutorService executor;
+
+    SharedExecutorThreadManager(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    protected ExecutorService getExecutor(FirebaseApp app) {
+        return executor;
+    }
+
+    @Override
+    protected void releaseExecutor(FirebaseApp app, ExecutorService executor) {
+        // Lifecycle belongs to the Spring context
+    }
+
+    @Override
+    protected ThreadFactory getThreadFactory() {
+        // Long-lived background threads (e.g. token refresh) stay on platform threads
+        return Executors.defaultThreadFactory();
+    }
+}
@@ -0,0 +1,55 @@
+package com.steviecodesit.ourhomedev.etag;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+// Strong ETags over store versions, and the If-None-Match / If-Match checks made against them
+public final class ETags {
+
+    private ETags() {
+    }
+
+    public static String of(String version) {
+        return "\"" + version + "\"";
+    }
+
+    // 304 with just the ETag when If-None-Match names the current version, so the body is never serialised;
+    // otherwise 200 with the body and its ETag
+    public static <T> ResponseEntity<T> okOrNotModified(Versioned<T> versioned, String ifNoneMatch) {
+        if (versioned.version() == null) {
+            return ResponseEntity.ok(versioned.value());
+        }
+        String etag = of(versioned.version());
+        if (ifNoneMatch != null && matchesAny(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(versioned.value());
+    }
+
+    // The version an If-Match header requires, or null when it requires none (no header, or *). If-Match
+    // compares strongly, so a weak ETag is passed on as is and matches no version. Fails on anything but
+    // a single ETag.
+    public static String requiredVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String etag = ifMatch.trim();
+        boolean weak = etag.startsWith("W/");
+        String quoted = weak ? etag.substring(2) : etag;
+        if (quoted.length() < 2 || !quoted.startsWith("\"") || quoted.indexOf('"', 1) != quoted.length() - 1) {
+            throw new IllegalArgumentException("If-Match must be a single ETag");
+        }
+        return weak ? etag : quoted.substring(1, quoted.length() - 1);
+    }
+
+    // If-None-Match compares weakly: W/"v" matches "v"
+    private static boolean matchesAny(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,9 @@
+package com.steviecodesit.ourhomedev.etag;
+
+// A conditional write found the stored value at another version than the one it was made against
+public class VersionMismatchException extends Exception {
+
+    public VersionMismatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,5 @@
+package com.steviecodesit.ourhomedev.etag;
+
+// A value read from a store together with the version it was stored at; version is null when the store has none
+public record Versioned<T>(T value, String version) {
+}
@@ -0,0 +1,12 @@
+package com.steviecodesit.ourhomedev.household;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class BatchInviteRequest {
+    private List<String> inviteeUserIds;
+}
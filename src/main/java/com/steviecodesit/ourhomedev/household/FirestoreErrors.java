@@ -0,0 +1,23 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.FirestoreException;
+import io.grpc.Status;
+
+// Failed Firestore calls surface either as FirestoreException (transactions, preconditions) or as the
+// gax ApiException underneath, so status checks look at both
+public final class FirestoreErrors {
+
+    private FirestoreErrors() {
+    }
+
+    public static boolean hasStatus(Throwable error, Status.Code code) {
+        if (error instanceof FirestoreException firestoreException) {
+            return firestoreException.getStatus() != null && firestoreException.getStatus().getCode() == code;
+        }
+        if (error instanceof ApiException apiException) {
+            return apiException.getStatusCode().getCode().name().equals(code.name());
+        }
+        return false;
+    }
+}
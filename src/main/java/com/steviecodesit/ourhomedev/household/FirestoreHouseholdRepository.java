@@ -0,0 +1,260 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.etag.VersionMismatchException;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.grpc.Status;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+@Log4j2
+@Repository
+@Profile("!in-memory")
+public class FirestoreHouseholdRepository implements HouseholdRepository {
+
+    // A cached snapshot that has gone stale costs one failed precondition, after which the household is re-read
+    private static final int MEMBER_UPDATE_ATTEMPTS = 3;
+
+    private final Firestore firestore;
+    private final HouseholdCache householdCache;
+    private final DownstreamMetrics metrics;
+
+    public FirestoreHouseholdRepository(Firestore firestore, HouseholdCache householdCache, DownstreamMetrics metrics) {
+        this.firestore = firestore;
+        this.householdCache = householdCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String newId() {
+        return firestore.collection("households").document().getId();
+    }
+
+    @Override
+    public CompletableFuture<Optional<Household>> findById(String householdId) {
+        DocumentReference docRef = firestore.collection("households").document(householdId);
+        return householdCache.get(householdId, () -> metrics.firestore("households", "get", () -> FutureUtils.toCompletableFuture(docRef.get())))
+                .thenApply(documentSnapshot -> documentSnapshot.exists()
+                        ? Optional.ofNullable(toHousehold(documentSnapshot))
+                        : Optional.empty());
+    }
+
+    @Override
+    public CompletableFuture<Void> create(Household household, HouseholdMembership ownerMembership) {
+        CompletableFuture<WriteResult> householdWrite = metrics.firestore("households", "set",
+                () -> FutureUtils.toCompletableFuture(firestore.collection("households").document(household.getId()).set(household)));
+        CompletableFuture<WriteResult> membershipWrite = metrics.firestore("householdMemberships", "set",
+                () -> FutureUtils.toCompletableFuture(firestore.collection("householdMemberships")
+                        .document(HouseholdMembership.documentId(household.getId(), ownerMembership.getUserId())).set(ownerMembership)));
+        return householdWrite.thenCombine(membershipWrite, (householdResult, membershipResult) -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String householdId, Household household) {
+        return metrics.firestore("households", "set", () -> {
+            ApiFuture<WriteResult> write = firestore.collection("households").document(householdId).set(household);
+            householdCache.invalidateOnCompletion(householdId, write);
+            return FutureUtils.toCompletableFuture(write);
+        }).thenApply(writeResult -> null);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Household>> updateMembers(String householdId, String expectedVersion, Function<Household, MembershipChange> change) {
+        return updateMembers(householdId, expectedVersion, change, MEMBER_UPDATE_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Household>> leave(String householdId, String expectedVersion, Function<Household, MembershipChange> change) {
+        DocumentReference docRef = firestore.collection("households").document(householdId);
+        return metrics.firestore("households", "leave", () -> {
+            ApiFuture<Departure> transaction = firestore.runTransaction(tx -> {
+                DocumentSnapshot snapshot = tx.get(docRef).get();
+                if (!snapshot.exists()) {
+                    return new Departure(null, null, false);
+                }
+                if (expectedVersion != null && !expectedVersion.equals(FirestoreVersions.of(snapshot.getUpdateTime()))) {
+                    return new Departure(null, null, true);
+                }
+
+                Household household = toHousehold(snapshot);
+                MembershipChange membershipChange = change.apply(household);
+                if (membershipChange.getRejection() != null) {
+                    return new Departure(null, membershipChange.getRejection(), false);
+                }
+                membershipChange.applyTo(household);
+                household.stampVersion(null);
+
+                // The new membership for each affected user, null to clear it
+                Map<String, HouseholdMembership> userMemberships = new LinkedHashMap<>();
+                membershipChange.getRemovals().forEach(userId -> userMemberships.put(userId, null));
+                membershipChange.getPuts().forEach(membership -> userMemberships.put(membership.getUserId(), membership));
+                boolean archive = household.countWithStatus(HouseholdMembershipStatus.ACCEPTED) == 0;
+                if (archive) {
+                    household.getMembers().forEach(membership -> userMemberships.put(membership.getUserId(), null));
+                }
+
+                // Transactions read everything before they write
+                DocumentReference[] userRefs = userMemberships.keySet().stream()
+                        .map(userId -> firestore.collection("users").document(userId))
+                        .toArray(DocumentReference[]::new);
+                List<DocumentSnapshot> users = userRefs.length == 0 ? List.of() : tx.getAll(userRefs).get();
+
+                if (archive) {
+                    tx.set(firestore.collection("archivedHouseholds").document(householdId), archived(household));
+                    tx.delete(docRef);
+                } else {
+                    tx.update(docRef, "members", household.getMembers());
+                }
+                for (DocumentSnapshot user : users) {
+                    if (user.exists() && householdId.equals(user.getString("householdMembership.householdId"))) {
+                        tx.update(user.getReference(), "householdMembership", userMemberships.get(user.getId()));
+                    }
+                }
+                return new Departure(household, null, false);
+            });
+            householdCache.invalidateOnCompletion(householdId, transaction);
+            return FutureUtils.toCompletableFuture(transaction);
+        }).thenCompose(departure -> {
+            if (departure.stale()) {
+                return CompletableFuture.failedFuture(new VersionMismatchException("The household is no longer at version " + expectedVersion + "."));
+            }
+            if (departure.rejection() != null) {
+                return CompletableFuture.failedFuture(new Exception(departure.rejection()));
+            }
+            return CompletableFuture.completedFuture(Optional.ofNullable(departure.household()));
+        });
+    }
+
+    @Override
+    public Runnable listen(String householdId, ChangeListener listener) {
+        ListenerRegistration registration = firestore.collection("households").document(householdId).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                log.warn("Listener for household {} failed", householdId, error);
+                listener.onFailed(error);
+                return;
+            }
+            metrics.firestoreListenerChanges("households", 1);
+            // The listener sees writes from every instance, so it can also retire this instance's cached snapshot
+            householdCache.invalidate(householdId);
+            listener.onChanged(snapshot.exists() ? toHousehold(snapshot) : null);
+        });
+        return registration::remove;
+    }
+
+    // With an expected version the write's updatedAt precondition is exactly that version, as the snapshot has to be at it
+    private CompletableFuture<Optional<Household>> updateMembers(String householdId, String expectedVersion, Function<Household, MembershipChange> change,
+                                                                 int attemptsLeft) {
+        DocumentReference docRef = firestore.collection("households").document(householdId);
+        return householdCache.get(householdId, () -> metrics.firestore("households", "get", () -> FutureUtils.toCompletableFuture(docRef.get())))
+                .thenCompose(snapshot -> {
+                    if (!snapshot.exists()) {
+                        return CompletableFuture.completedFuture(Optional.<Household>empty());
+                    }
+
+                    if (expectedVersion != null && !expectedVersion.equals(FirestoreVersions.of(snapshot.getUpdateTime()))) {
+                        // A cached snapshot may only be behind; a fresh read decides
+                        if (attemptsLeft > 1) {
+                            householdCache.invalidate(householdId);
+                            return updateMembers(householdId, expectedVersion, change, attemptsLeft - 1);
+                        }
+                        return CompletableFuture.failedFuture(new VersionMismatchException("The household is no longer at version " + expectedVersion + "."));
+                    }
+
+                    Household household = toHousehold(snapshot);
+                    MembershipChange membershipChange = change.apply(household);
+                    if (membershipChange.getRejection() != null) {
+                        return CompletableFuture.failedFuture(new Exception(membershipChange.getRejection()));
+                    }
+                    if (membershipChange.isEmpty()) {
+                        return CompletableFuture.completedFuture(Optional.of(household));
+                    }
+
+                    return metrics.firestore("households", "updateMembers", () -> {
+                        ApiFuture<List<WriteResult>> write = memberWrites(docRef, snapshot, membershipChange).commit();
+                        householdCache.invalidateOnCompletion(householdId, write);
+                        return FutureUtils.toCompletableFuture(write);
+                    }).thenApply(writeResults -> {
+                        membershipChange.applyTo(household);
+                        household.stampVersion(writeResults.isEmpty() ? null : FirestoreVersions.of(writeResults.get(0).getUpdateTime()));
+                        return Optional.of(household);
+                    }).exceptionallyCompose(e -> {
+                        if (!FirestoreErrors.hasStatus(FutureUtils.unwrap(e), Status.Code.FAILED_PRECONDITION)) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        if (expectedVersion != null) {
+                            return CompletableFuture.failedFuture(new VersionMismatchException("The household is no longer at version " + expectedVersion + "."));
+                        }
+                        // Someone else wrote the household after the snapshot was taken; decide again on a fresh read
+                        if (attemptsLeft > 1) {
+                            return updateMembers(householdId, null, change, attemptsLeft - 1);
+                        }
+                        return CompletableFuture.failedFuture(new Exception("The household changed while updating its members, please try again."));
+                    });
+                });
+    }
+
+    // Archived households keep their last members for the record; archivedAt is the commit's own time
+    private static Map<String, Object> archived(Household household) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", household.getId());
+        fields.put("householdName", household.getHouseholdName());
+        fields.put("members", household.getMembers());
+        fields.put("archivedAt", FieldValue.serverTimestamp());
+        return fields;
+    }
+
+    private static Household toHousehold(DocumentSnapshot snapshot) {
+        Household household = snapshot.toObject(Household.class);
+        if (household != null) {
+            household.stampVersion(FirestoreVersions.of(snapshot.getUpdateTime()));
+        }
+        return household;
+    }
+
+    // Removes the replaced entries exactly as they are stored and appends the new ones. Both updates only
+    // apply if the household is unchanged since the snapshot, which arrayRemove alone could not guarantee.
+    private WriteBatch memberWrites(DocumentReference docRef, DocumentSnapshot snapshot, MembershipChange change) {
+        Precondition unchanged = Precondition.updatedAt(snapshot.getUpdateTime());
+        List<Object> replacedEntries = storedEntries(snapshot, change.getReplacedUserIds());
+        WriteBatch batch = firestore.batch();
+        if (!replacedEntries.isEmpty()) {
+            batch.update(docRef, unchanged, "members", FieldValue.arrayRemove(replacedEntries.toArray()));
+        }
+        if (!change.getPuts().isEmpty() && replacedEntries.isEmpty()) {
+            batch.update(docRef, unchanged, "members", FieldValue.arrayUnion(change.getPuts().toArray()));
+        } else if (!change.getPuts().isEmpty()) {
+            // The batch is atomic, so the precondition on the removal already covers this write
+            batch.update(docRef, "members", FieldValue.arrayUnion(change.getPuts().toArray()));
+        }
+        return batch;
+    }
+
+    private static List<Object> storedEntries(DocumentSnapshot snapshot, Set<String> userIds) {
+        List<Object> entries = new ArrayList<>();
+        if (snapshot.get("members") instanceof List<?> members) {
+            for (Object member : members) {
+                if (member instanceof Map<?, ?> fields && userIds.contains(fields.get("userId"))) {
+                    entries.add(member);
+                }
+            }
+        }
+        return entries;
+    }
+
+    // How a leave transaction ended: the household as left, or why nothing was written
+    private record Departure(Household household, String rejection, boolean stale) {
+    }
+}
@@ -0,0 +1,225 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.grpc.Status;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+@Log4j2
+@Repository
+@Profile("!in-memory")
+public class FirestoreInviteRepository implements InviteRepository {
+
+    // A write batch holds at most 500 operations: the household's member update plus an invite and an inbox entry per invitee
+    private static final int INVITES_PER_BATCH = 249;
+    private static final int BATCH_ATTEMPTS = 3;
+
+    private final Firestore firestore;
+    private final HouseholdCache householdCache;
+    private final DownstreamMetrics metrics;
+
+    public FirestoreInviteRepository(Firestore firestore, HouseholdCache householdCache, DownstreamMetrics metrics) {
+        this.firestore = firestore;
+        this.householdCache = householdCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletableFuture<InviteResult> create(HouseholdInvite invite, Function<Household, InviteResult> admit) {
+        DocumentReference householdRef = firestore.collection("households").document(invite.getHouseholdId());
+        DocumentReference inviteRef = firestore.collection("householdInvites").document();
+
+        // Read the household once, validate in memory, then commit the changed members and the invite together
+        return metrics.firestore("householdInvites", "create", () -> {
+            ApiFuture<InviteResult> transaction = firestore.runTransaction(tx -> {
+                DocumentSnapshot snapshot = tx.get(householdRef).get();
+                if (!snapshot.exists()) {
+                    return InviteResult.HOUSEHOLD_NOT_FOUND;
+                }
+
+                Household household = snapshot.toObject(Household.class);
+                InviteResult result = admit.apply(household);
+                if (result == InviteResult.SENT) {
+                    tx.update(householdRef, "members", household.getMembers());
+                    tx.create(inviteRef, invite);
+                    tx.set(inboxRef(invite.getInviteeUserId(), invite.getHouseholdId()), InboxInvite.pending(invite, System.currentTimeMillis()));
+                }
+                return result;
+            });
+            householdCache.invalidateOnCompletion(invite.getHouseholdId(), transaction);
+            return FutureUtils.toCompletableFuture(transaction);
+        }).exceptionallyCompose(e -> {
+            // Firestore gives up on a transaction with ABORTED once its retries keep losing to concurrent writers
+            if (FirestoreErrors.hasStatus(FutureUtils.unwrap(e), Status.Code.ABORTED)) {
+                return CompletableFuture.completedFuture(InviteResult.CONFLICT);
+            }
+            return CompletableFuture.failedFuture(e);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, InviteResult>> createAll(String householdId, List<HouseholdInvite> invites, BiFunction<Household, HouseholdInvite, InviteResult> admit) {
+        return createAll(householdId, invites, admit, BATCH_ATTEMPTS);
+    }
+
+    private CompletableFuture<Map<String, InviteResult>> createAll(String householdId, List<HouseholdInvite> invites,
+                                                                   BiFunction<Household, HouseholdInvite, InviteResult> admit, int attemptsLeft) {
+        DocumentReference householdRef = firestore.collection("households").document(householdId);
+        return householdCache.get(householdId, () -> metrics.firestore("households", "get", () -> FutureUtils.toCompletableFuture(householdRef.get())))
+                .thenCompose(snapshot -> {
+                    Map<String, InviteResult> results = new LinkedHashMap<>();
+                    if (!snapshot.exists()) {
+                        invites.forEach(invite -> results.putIfAbsent(invite.getInviteeUserId(), InviteResult.HOUSEHOLD_NOT_FOUND));
+                        return CompletableFuture.completedFuture(results);
+                    }
+
+                    // Validate every invitee against the one read, which admit keeps up to date with the members it adds
+                    Household household = snapshot.toObject(Household.class);
+                    List<HouseholdInvite> sent = new ArrayList<>();
+                    for (HouseholdInvite invite : invites) {
+                        if (!results.containsKey(invite.getInviteeUserId())) {
+                            InviteResult result = admit.apply(household, invite);
+                            results.put(invite.getInviteeUserId(), result);
+                            if (result == InviteResult.SENT) {
+                                sent.add(invite);
+                            }
+                        }
+                    }
+                    if (sent.isEmpty()) {
+                        return CompletableFuture.completedFuture(results);
+                    }
+
+                    // The first chunk only lands if the household is unchanged since the read; later chunks just append to it
+                    List<List<HouseholdInvite>> chunks = new ArrayList<>();
+                    for (int i = 0; i < sent.size(); i += INVITES_PER_BATCH) {
+                        chunks.add(sent.subList(i, Math.min(sent.size(), i + INVITES_PER_BATCH)));
+                    }
+                    Precondition unchanged = Precondition.updatedAt(snapshot.getUpdateTime());
+                    return commitChunk(householdId, household, chunks.get(0), unchanged).thenCompose(first -> {
+                        CompletableFuture<Void> rest = CompletableFuture.completedFuture(null);
+                        for (List<HouseholdInvite> chunk : chunks.subList(1, chunks.size())) {
+                            rest = rest.thenCompose(previous -> commitChunk(householdId, household, chunk, null).exceptionally(e -> {
+                                log.warn("Could not store {} invites for household {}", chunk.size(), householdId, FutureUtils.unwrap(e));
+                                chunk.forEach(invite -> results.put(invite.getInviteeUserId(), InviteResult.FAILED));
+                                return null;
+                            }));
+                        }
+                        return rest.thenApply(done -> results);
+                    }).exceptionallyCompose(e -> {
+                        // Nothing was written, so a stale read can be decided again from scratch
+                        boolean stale = FirestoreErrors.hasStatus(FutureUtils.unwrap(e), Status.Code.FAILED_PRECONDITION);
+                        if (stale && attemptsLeft > 1) {
+                            return createAll(householdId, invites, admit, attemptsLeft - 1);
+                        }
+                        if (!stale) {
+                            log.warn("Could not store invites for household {}", householdId, FutureUtils.unwrap(e));
+                        }
+                        sent.forEach(invite -> results.put(invite.getInviteeUserId(), stale ? InviteResult.CONFLICT : InviteResult.FAILED));
+                        return CompletableFuture.completedFuture(results);
+                    });
+                });
+    }
+
+    @Override
+    public CompletableFuture<InvitePage> findPending(String inviteeUserId, String cursor, int limit) {
+        // Newest first; the implicit document-id tie-breaker follows the last direction, so the single-field
+        // index on createdAt serves this query
+        Query query = inbox(inviteeUserId)
+                .orderBy("createdAt", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        if (cursor != null) {
+            InboxCursor after;
+            try {
+                after = InboxCursor.parse(cursor);
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            query = query.startAfter(after.createdAt, after.householdId);
+        }
+        // One extra document tells whether another page follows
+        Query page = query.limit(limit + 1);
+        return metrics.firestore("inviteInbox", "query", () -> FutureUtils.toCompletableFuture(page.get()))
+                .thenApply(querySnapshot -> {
+                    List<InboxInvite> invites = new ArrayList<>();
+                    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+                        invites.add(document.toObject(InboxInvite.class));
+                    }
+                    return InvitePage.of(invites, limit);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> resolve(String inviteeUserId, String householdId) {
+        return metrics.firestore("inviteInbox", "delete", () -> FutureUtils.toCompletableFuture(inboxRef(inviteeUserId, householdId).delete()))
+                .thenApply(writeResult -> null);
+    }
+
+    @Override
+    public Runnable listen(String householdId, ChangeListener listener) {
+        AtomicBoolean synced = new AtomicBoolean();
+        ListenerRegistration registration = firestore.collection("householdInvites").whereEqualTo("householdId", householdId).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                log.warn("Invite listener for household {} failed", householdId, error);
+                listener.onFailed(error);
+                return;
+            }
+            metrics.firestoreListenerChanges("householdInvites", snapshot.getDocumentChanges().size());
+            // The first snapshot holds every earlier invite; only the ones after it are news
+            if (!synced.getAndSet(true)) {
+                return;
+            }
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.ADDED) {
+                    listener.onCreated(change.getDocument().toObject(HouseholdInvite.class));
+                }
+            }
+        });
+        return registration::remove;
+    }
+
+    private CollectionReference inbox(String userId) {
+        return firestore.collection("users").document(userId).collection("inviteInbox");
+    }
+
+    private DocumentReference inboxRef(String userId, String householdId) {
+        return inbox(userId).document(householdId);
+    }
+
+    private CompletableFuture<Void> commitChunk(String householdId, Household household, List<HouseholdInvite> chunk, Precondition precondition) {
+        DocumentReference householdRef = firestore.collection("households").document(householdId);
+        Object[] pendingMembers = chunk.stream()
+                .map(invite -> household.findMember(invite.getInviteeUserId()).orElseThrow())
+                .toArray();
+
+        WriteBatch batch = firestore.batch();
+        if (precondition != null) {
+            batch.update(householdRef, precondition, "members", FieldValue.arrayUnion(pendingMembers));
+        } else {
+            batch.update(householdRef, "members", FieldValue.arrayUnion(pendingMembers));
+        }
+        long createdAt = System.currentTimeMillis();
+        for (HouseholdInvite invite : chunk) {
+            batch.create(firestore.collection("householdInvites").document(), invite);
+            batch.set(inboxRef(invite.getInviteeUserId(), householdId), InboxInvite.pending(invite, createdAt));
+        }
+
+        return metrics.firestore("householdInvites", "createBatch", () -> {
+            ApiFuture<List<WriteResult>> write = batch.commit();
+            householdCache.invalidateOnCompletion(householdId, write);
+            return FutureUtils.toCompletableFuture(write);
+        }).thenApply(writeResults -> null);
+    }
+}
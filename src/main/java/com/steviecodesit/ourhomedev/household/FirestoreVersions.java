@@ -0,0 +1,23 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.cloud.Timestamp;
+
+// A document's version is its update time in microseconds, Firestore's own precision, so two snapshots have the
+// same version exactly when an updatedAt precondition taken from one holds for the other
+public final class FirestoreVersions {
+
+    private FirestoreVersions() {
+    }
+
+    public static String of(Timestamp updateTime) {
+        if (updateTime == null) {
+            return null;
+        }
+        return Long.toString(updateTime.getSeconds() * 1_000_000 + updateTime.getNanos() / 1_000);
+    }
+
+    // The update time a version was taken from, for an updatedAt precondition
+    public static Timestamp toUpdateTime(String version) {
+        return Timestamp.ofTimeMicroseconds(Long.parseLong(version));
+    }
+}
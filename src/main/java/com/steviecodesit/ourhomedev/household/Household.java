@@ -1,14 +1,151 @@
 package com.steviecodesit.ourhomedev.household;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.List;
+import java.util.*;
 
 @Getter
 @Setter
 public class Household {
     String id;
     String householdName;
-    List<HouseholdMembership> members; // List of household memberships
+
+    // List of household memberships; this is what gets stored and serialised
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final MemberList members = new MemberList();
+
+    // Lookup view over members, kept in step by MemberList. Memberships are replaced rather than mutated
+    // (see MembershipChange), so a membership's role and status are fixed while it is in the list.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final transient Map<String, HouseholdMembership> membersByUserId = new HashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final transient Map<HouseholdMembershipStatus, Integer> statusCounts = new EnumMap<>(HouseholdMembershipStatus.class);
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient HouseholdMembership owner;
+    // The stored version this household was read at (see HouseholdRepository), null for one not read from the store
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient String version;
+
+    public List<HouseholdMembership> getMembers() {
+        return members;
+    }
+
+    public void setMembers(List<HouseholdMembership> members) {
+        this.members.reset(members == null ? List.of() : members);
+    }
+
+    // The lookups below are deliberately not bean getters, so neither Firestore nor Jackson serialises them
+
+    public Optional<HouseholdMembership> findMember(String userId) {
+        return Optional.ofNullable(membersByUserId.get(userId));
+    }
+
+    public boolean isMember(String userId) {
+        return membersByUserId.containsKey(userId);
+    }
+
+    public boolean isOwner(String userId) {
+        return owner != null && owner.getUserId().equals(userId);
+    }
+
+    public Optional<HouseholdMembership> owner() {
+        return Optional.ofNullable(owner);
+    }
+
+    public int countWithStatus(HouseholdMembershipStatus status) {
+        return statusCounts.getOrDefault(status, 0);
+    }
+
+    public String version() {
+        return version;
+    }
+
+    void stampVersion(String version) {
+        this.version = version;
+    }
+
+    private void index(HouseholdMembership membership) {
+        // The first entry wins for a user listed twice, as the old linear scans did
+        if (membersByUserId.putIfAbsent(membership.getUserId(), membership) != null) {
+            return;
+        }
+        if (membership.getMemberStatus() != null) {
+            statusCounts.merge(membership.getMemberStatus(), 1, Integer::sum);
+        }
+        if (owner == null && membership.getHouseholdRole() == HouseholdRole.OWNER) {
+            owner = membership;
+        }
+    }
+
+    private void reindex() {
+        membersByUserId.clear();
+        statusCounts.clear();
+        owner = null;
+        members.forEach(this::index);
+    }
+
+    // Appends are indexed incrementally; removals and replacements are O(n) on the list anyway, so they rebuild the index
+    private class MemberList extends AbstractList<HouseholdMembership> implements RandomAccess {
+
+        private final List<HouseholdMembership> entries = new ArrayList<>();
+
+        @Override
+        public HouseholdMembership get(int position) {
+            return entries.get(position);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public void add(int position, HouseholdMembership membership) {
+            entries.add(position, membership);
+            modCount++;
+            if (position == entries.size() - 1) {
+                index(membership);
+            } else {
+                reindex();
+            }
+        }
+
+        @Override
+        public HouseholdMembership set(int position, HouseholdMembership membership) {
+            HouseholdMembership previous = entries.set(position, membership);
+            reindex();
+            return previous;
+        }
+
+        @Override
+        public HouseholdMembership remove(int position) {
+            HouseholdMembership removed = entries.remove(position);
+            modCount++;
+            reindex();
+            return removed;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            entries.subList(fromIndex, toIndex).clear();
+            modCount++;
+            reindex();
+        }
+
+        void reset(Collection<HouseholdMembership> memberships) {
+            // Copy first, the new members may be this very list
+            List<HouseholdMembership> copy = new ArrayList<>(memberships);
+            entries.clear();
+            entries.addAll(copy);
+            modCount++;
+            reindex();
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Read-through cache of household document snapshots. Snapshots are immutable, so callers
+// always get a freshly mapped Household and can mutate it without touching the cache.
+// Lookups hit the current request's snapshots first, then the process-wide LRU. The request
+// map is captured on the calling thread, so lookups chained off Firestore callbacks only see the LRU.
+@Component
+public class HouseholdCache {
+
+    private static final String REQUEST_ATTRIBUTE = HouseholdCache.class.getName() + ".snapshots";
+
+    private final ExpiringLruCache<String, DocumentSnapshot> cache;
+    private final long ttlMillis;
+    private final AtomicLong requestHits = new AtomicLong();
+
+    @Autowired
+    public HouseholdCache(@Value("${ourhome.household.cache.max-size:1000}") int maxSize,
+                          @Value("${ourhome.household.cache.ttl-seconds:30}") long ttlSeconds,
+                          MeterRegistry registry) {
+        this(new ExpiringLruCache<>(maxSize), ttlSeconds * 1000);
+        cache.bindTo(registry, "household");
+        FunctionCounter.builder("cache.gets", requestHits, AtomicLong::get).tag("cache", "household").tag("result", "request-hit").register(registry);
+        Gauge.builder("cache.hit.ratio", this, HouseholdCache::getHitRatio).tag("cache", "household").register(registry);
+    }
+
+    public HouseholdCache(ExpiringLruCache<String, DocumentSnapshot> cache, long ttlMillis) {
+        this.cache = cache;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public CompletableFuture<DocumentSnapshot> get(String householdId, Supplier<CompletableFuture<DocumentSnapshot>> loader) {
+        Map<String, DocumentSnapshot> requestSnapshots = requestSnapshots();
+        if (requestSnapshots != null && requestSnapshots.containsKey(householdId)) {
+            requestHits.incrementAndGet();
+            return CompletableFuture.completedFuture(requestSnapshots.get(householdId));
+        }
+
+        DocumentSnapshot cached = cache.get(householdId);
+        CompletableFuture<DocumentSnapshot> snapshotFuture;
+        if (cached != null) {
+            snapshotFuture = CompletableFuture.completedFuture(cached);
+        } else {
+            snapshotFuture = loader.get().thenApply(snapshot -> {
+                if (snapshot.exists()) {
+                    cache.put(householdId, snapshot, cache.currentTimeMillis() + ttlMillis);
+                }
+                return snapshot;
+            });
+        }
+
+        if (requestSnapshots == null) {
+            return snapshotFuture;
+        }
+        return snapshotFuture.thenApply(snapshot -> {
+            if (snapshot.exists()) {
+                requestSnapshots.put(householdId, snapshot);
+            }
+            return snapshot;
+        });
+    }
+
+    public void invalidate(String householdId) {
+        cache.invalidate(householdId);
+        Map<String, DocumentSnapshot> requestSnapshots = requestSnapshots();
+        if (requestSnapshots != null) {
+            requestSnapshots.remove(householdId);
+        }
+    }
+
+    // Invalidate now and once more when the write lands, so a read racing the write
+    // cannot leave the pre-write snapshot cached
+    public void invalidateOnCompletion(String householdId, ApiFuture<?> write) {
+        invalidate(householdId);
+        write.addListener(() -> cache.invalidate(householdId), MoreExecutors.directExecutor());
+    }
+
+    public long getRequestHitCount() {
+        return requestHits.get();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public double getHitRatio() {
+        long hitCount = requestHits.get() + cache.getHitCount();
+        long total = hitCount + cache.getMissCount();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, DocumentSnapshot> requestSnapshots() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, DocumentSnapshot> snapshots = (Map<String, DocumentSnapshot>) attributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (snapshots == null) {
+            snapshots = new ConcurrentHashMap<>();
+            attributes.setAttribute(REQUEST_ATTRIBUTE, snapshots, RequestAttributes.SCOPE_REQUEST);
+        }
+        return snapshots;
+    }
+}
@@ -2,14 +2,25 @@ package com.steviecodesit.ourhomedev.household;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
-import com.steviecodesit.ourhomedev.user.User;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.etag.ETags;
+import com.steviecodesit.ourhomedev.etag.VersionMismatchException;
 import com.steviecodesit.ourhomedev.user.UserService;
+import com.steviecodesit.ourhomedev.user.UserSummary;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/api/households")
@@ -18,142 +29,222 @@ public class HouseholdController {
     private HouseholdService householdService;
     private FirebaseAuth firebaseAuth;
     private UserService userService;
+    private HouseholdEventStream eventStream;
+    private int maxBatchInvites;
 
     @Autowired
-    public HouseholdController(HouseholdService householdService, FirebaseAuth firebaseAuth, UserService userService) {
+    public HouseholdController(HouseholdService householdService, FirebaseAuth firebaseAuth, UserService userService, HouseholdEventStream eventStream,
+                               @Value("${ourhome.household.invites.batch-max-size:500}") int maxBatchInvites) {
         this.householdService = householdService;
         this.firebaseAuth = firebaseAuth;
         this.userService = userService;
+        this.eventStream = eventStream;
+        this.maxBatchInvites = maxBatchInvites;
     }
 
     @PostMapping
-    public ResponseEntity<Household> createHousehold(@RequestBody Household household, @RequestHeader("Authorization") String userIdToken) {
-        try {
-            Household createdHousehold = householdService.createHousehold(household, userIdToken);
-            return ResponseEntity.ok(createdHousehold);
-        } catch (FirebaseAuthException e) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body(null);
-        }
+    public CompletableFuture<ResponseEntity<Household>> createHousehold(@RequestBody Household household, @RequestHeader("Authorization") String userIdToken) {
+        return FutureUtils.call(() -> householdService.createHousehold(household, userIdToken))
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(e -> {
+                    if (FutureUtils.unwrap(e) instanceof FirebaseAuthException) {
+                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+                    }
+                    return ResponseEntity.internalServerError().body(null);
+                });
     }
 
-    @GetMapping("/search-users")
-    public ResponseEntity<List<User>> searchUsers(@RequestParam String query) {
-        List<User> matchingUsers = userService.findUserByEmailOrUsername(query);
-        return ResponseEntity.ok(matchingUsers);
+    // Members only. Answers 304 without a body when If-None-Match holds the current ETag.
+    @GetMapping("/{householdId}")
+    public CompletableFuture<ResponseEntity<Household>> getHousehold(@PathVariable String householdId, @RequestHeader("Authorization") String userIdToken,
+                                                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return withVerifiedUser(userIdToken, userId -> householdService.getHousehold(householdId, userId)
+                .thenApply(household -> household
+                        .map(current -> ETags.okOrNotModified(current, ifNoneMatch))
+                        .orElseGet(() -> ResponseEntity.status(HttpStatus.FORBIDDEN).build()))
+                .exceptionally(HouseholdController::notFoundOrError));
     }
 
-    @PostMapping("/send-invite")
-    public ResponseEntity<String> sendInvite(@RequestBody HouseholdInvite invite) {
-        try {
-            // Validate if the inviter is the owner
-            if (!householdService.isOwnerOfHousehold(invite.getInviterUserId(), invite.getHouseholdId())) {
-                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You're not authorized to send invites for this household.");
-            }
+    // Streams "household" events with the household's current state, then one per change, plus "invite" events
+    // for invites sent from now on. Members only.
+    @GetMapping(path = "/{householdId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public CompletableFuture<ResponseEntity<SseEmitter>> streamEvents(@PathVariable String householdId, @RequestHeader("Authorization") String userIdToken) {
+        return withVerifiedUser(userIdToken, userId -> householdService.isAlreadyAMember(userId, householdId)
+                .thenApply(member -> member
+                        ? ResponseEntity.ok(eventStream.subscribe(householdId))
+                        : ResponseEntity.status(HttpStatus.FORBIDDEN).<SseEmitter>build())
+                .exceptionally(HouseholdController::notFoundOrError));
+    }
 
-            // Check if the user is already a member
-            if (householdService.isAlreadyAMember(invite.getInviteeUserId(), invite.getHouseholdId())) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("User is already a member of this household.");
-            }
+    @GetMapping("/{householdId}/members")
+    public CompletableFuture<ResponseEntity<MemberPage>> listMembers(@PathVariable String householdId,
+                                                                     @RequestHeader("Authorization") String userIdToken,
+                                                                     @RequestParam(required = false) HouseholdMembershipStatus status,
+                                                                     @RequestParam(required = false) HouseholdRole role,
+                                                                     @RequestParam(required = false) String cursor,
+                                                                     @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > 100) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(null));
+        }
+        return withVerifiedUser(userIdToken, userId -> householdService.listMembers(householdId, userId, status, role, cursor, limit)
+                .thenApply(page -> page
+                        .map(ResponseEntity::ok)
+                        .orElseGet(() -> ResponseEntity.status(HttpStatus.FORBIDDEN).build()))
+                .exceptionally(e -> FutureUtils.unwrap(e) instanceof IllegalArgumentException
+                        ? ResponseEntity.badRequest().<MemberPage>body(null)
+                        : HouseholdController.<MemberPage>notFoundOrError(e)));
+    }
 
-            // Add the invitee to the household with status PENDING
-            householdService.addMemberWithPendingStatus(invite.getInviteeUserId(), invite.getHouseholdId());
+    @GetMapping("/search-users")
+    public CompletableFuture<ResponseEntity<List<UserSummary>>> searchUsers(@RequestHeader("Authorization") String userIdToken,
+                                                                           @RequestParam String query,
+                                                                           @RequestParam(defaultValue = "0") int offset,
+                                                                           @RequestParam(defaultValue = "20") int limit) {
+        if (offset < 0 || limit < 1 || limit > 100) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(null));
+        }
+        return withVerifiedUser(userIdToken, userId -> userService.searchUsers(query, offset, limit).thenApply(ResponseEntity::ok));
+    }
 
-            // Store the invite
-            householdService.sendInvite(invite);
+    @PostMapping("/send-invite")
+    public CompletableFuture<ResponseEntity<String>> sendInvite(@RequestBody HouseholdInvite invite) {
+        return FutureUtils.call(() -> householdService.inviteMember(invite))
+                .thenApply(result -> switch (result) {
+                    case SENT -> ResponseEntity.ok("Invite sent successfully!");
+                    case HOUSEHOLD_NOT_FOUND -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("Household not found.");
+                    case NOT_OWNER -> ResponseEntity.status(HttpStatus.FORBIDDEN).body("You're not authorized to send invites for this household.");
+                    case ALREADY_MEMBER -> ResponseEntity.status(HttpStatus.BAD_REQUEST).body("User is already a member of this household.");
+                    case CONFLICT -> ResponseEntity.status(HttpStatus.CONFLICT).body("The household changed while sending the invite, please try again.");
+                    case FAILED -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send invite.");
+                })
+                .exceptionally(e -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send invite."));
+    }
 
-            return ResponseEntity.ok("Invite sent successfully!");
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send invite.");
+    @PostMapping("/{householdId}/invites:batch")
+    public CompletableFuture<ResponseEntity<Map<String, InviteResult>>> sendInvites(@PathVariable String householdId,
+                                                                                   @RequestBody BatchInviteRequest request,
+                                                                                   @RequestHeader("Authorization") String inviterIdToken) {
+        List<String> inviteeUserIds = request.getInviteeUserIds();
+        if (inviteeUserIds == null || inviteeUserIds.isEmpty() || inviteeUserIds.size() > maxBatchInvites) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(null));
         }
+        return withVerifiedUser(inviterIdToken, inviterId -> householdService.inviteMembers(householdId, inviterId, inviteeUserIds)
+                .thenApply(results -> {
+                    // Household-wide outcomes are the same for every invitee, so they answer for the whole request
+                    if (results.values().stream().allMatch(result -> result == InviteResult.HOUSEHOLD_NOT_FOUND)) {
+                        return ResponseEntity.status(HttpStatus.NOT_FOUND).<Map<String, InviteResult>>body(null);
+                    }
+                    if (results.values().stream().allMatch(result -> result == InviteResult.NOT_OWNER)) {
+                        return ResponseEntity.status(HttpStatus.FORBIDDEN).<Map<String, InviteResult>>body(null);
+                    }
+                    return ResponseEntity.ok(results);
+                })
+                .exceptionally(e -> ResponseEntity.internalServerError().body(null)));
     }
 
     @PostMapping("/accept-invite/{householdId}")
-    public ResponseEntity<String> acceptInvite(@PathVariable String householdId, @RequestHeader("Authorization") String userIdToken) {
-        try {
-            // Verify the user token and get the user's ID
-            String userId = userService.verifyTokenAndGetUserId(userIdToken);
-
-            // Update the household's member list
-            householdService.acceptOrDeclineMembership(householdId, userId, HouseholdMembershipStatus.ACCEPTED);
-
-            // Update the user's document with the new membership info
-            userService.addMembershipToUser(userId, householdId, HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED);
-
-            return ResponseEntity.ok("Invite accepted successfully!");
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body("Error while accepting invite: " + e.getMessage());
-        }
+    public CompletableFuture<ResponseEntity<String>> acceptInvite(@PathVariable String householdId, @RequestHeader("Authorization") String userIdToken) {
+        // Verify the user token and get the user's ID
+        return FutureUtils.call(() -> userService.verifyTokenAndGetUserId(userIdToken))
+                .thenCompose(userId -> householdService.acceptOrDeclineMembership(householdId, userId, HouseholdMembershipStatus.ACCEPTED)
+                        // Update the user's document with the new membership info
+                        .thenCompose(updated -> userService.addMembershipToUser(userId, householdId, HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED)))
+                .thenApply(done -> ResponseEntity.ok("Invite accepted successfully!"))
+                .exceptionally(e -> ResponseEntity.badRequest().body("Error while accepting invite: " + FutureUtils.unwrap(e).getMessage()));
     }
 
     @PostMapping("/decline-invite/{householdId}")
-    public ResponseEntity<String> declineInvite(@PathVariable String householdId, @RequestHeader("Authorization") String userIdToken) {
-        try {
-            String userId = userService.verifyTokenAndGetUserId(userIdToken);
-
-            householdService.acceptOrDeclineMembership(householdId, userId, HouseholdMembershipStatus.DECLINED);
-
-            userService.removeMembershipFromUser(userId, householdId);
-
-            return ResponseEntity.ok("Invite declined successfully!");
-        } catch (Exception e) {
-            return ResponseEntity.badRequest().body("Error while declining invite: " + e.getMessage());
-        }
+    public CompletableFuture<ResponseEntity<String>> declineInvite(@PathVariable String householdId, @RequestHeader("Authorization") String userIdToken) {
+        return FutureUtils.call(() -> userService.verifyTokenAndGetUserId(userIdToken))
+                .thenCompose(userId -> householdService.acceptOrDeclineMembership(householdId, userId, HouseholdMembershipStatus.DECLINED)
+                        .thenCompose(updated -> userService.removeMembershipFromUser(userId, householdId)))
+                .thenApply(done -> ResponseEntity.ok("Invite declined successfully!"))
+                .exceptionally(e -> ResponseEntity.badRequest().body("Error while declining invite: " + FutureUtils.unwrap(e).getMessage()));
     }
 
     @PostMapping("/{householdId}/cancel-invite/{userId}")
-    public ResponseEntity<String> cancelInvitation(@PathVariable String householdId, @PathVariable String userId) {
-        try {
-            householdService.cancelInvitation(householdId, userId);
-            return ResponseEntity.ok("Invite cancelled successfully.");
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Failed to cancel the invitation.");
-        }
+    public CompletableFuture<ResponseEntity<String>> cancelInvitation(@PathVariable String householdId, @PathVariable String userId) {
+        return FutureUtils.call(() -> householdService.cancelInvitation(householdId, userId))
+                .thenApply(done -> ResponseEntity.ok("Invite cancelled successfully."))
+                .exceptionally(e -> ResponseEntity.internalServerError().body("Failed to cancel the invitation."));
     }
 
     @PostMapping("/request-join/{targetUserId}")
-    public ResponseEntity<String> requestJoinHousehold(@RequestHeader("Authorization") String requestUserIdToken, @PathVariable String targetUserId) throws FirebaseAuthException {
-        String requesterUserId = userService.verifyTokenAndGetUserId(requestUserIdToken);
-
-        try {
-            householdService.requestJoinHousehold(requesterUserId, targetUserId);
-            return ResponseEntity.ok("Successfully sent join request.");
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Failed to send join request.");
-        }
+    public CompletableFuture<ResponseEntity<String>> requestJoinHousehold(@RequestHeader("Authorization") String requestUserIdToken, @PathVariable String targetUserId) {
+        return withVerifiedUser(requestUserIdToken, requesterUserId -> householdService.requestJoinHousehold(requesterUserId, targetUserId)
+                .thenApply(done -> ResponseEntity.ok("Successfully sent join request."))
+                .exceptionally(e -> ResponseEntity.internalServerError().body("Failed to send join request.")));
     }
 
+    // acceptUser, denyUser and leaveHousehold take an optional If-Match with the household's ETag and answer 412 when the
+    // household has changed since; acceptUser and denyUser return the updated household's ETag
     @PostMapping("/acceptUser/{userIdToAccept}")
-    public ResponseEntity<String> acceptUserToHousehold(@PathVariable String userIdToAccept, @RequestBody String householdId, @RequestHeader("Authorization") String ownerIdToken) throws FirebaseAuthException {
-        String ownerId = userService.verifyTokenAndGetUserId(ownerIdToken);
-        try {
-            householdService.acceptOrRejectUserToHousehold(userIdToAccept, householdId, ownerId, HouseholdMembershipStatus.ACCEPTED);
-            return ResponseEntity.ok("User successfully added to the household.");
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Failed to add user to the household.");
-        }
+    public CompletableFuture<ResponseEntity<String>> acceptUserToHousehold(@PathVariable String userIdToAccept, @RequestBody String householdId, @RequestHeader("Authorization") String ownerIdToken,
+                                                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return withRequiredVersion(ifMatch, expectedVersion -> withVerifiedUser(ownerIdToken, ownerId -> householdService
+                .acceptOrRejectUserToHousehold(userIdToAccept, householdId, ownerId, HouseholdMembershipStatus.ACCEPTED, expectedVersion)
+                .thenApply(household -> withETag(household, "User successfully added to the household."))
+                .exceptionally(e -> preconditionFailedOr(e, ResponseEntity.internalServerError().body("Failed to add user to the household.")))));
     }
 
     @PostMapping("/denyUser/{userIdToDeny}")
-    public ResponseEntity<String> denyUserFromHousehold(@PathVariable String userIdToDeny, @RequestBody String householdId, @RequestHeader("Authorization") String ownerIdToken) throws FirebaseAuthException {
-        String ownerId = userService.verifyTokenAndGetUserId(ownerIdToken);
-        try {
-            householdService.acceptOrRejectUserToHousehold(userIdToDeny, householdId, ownerId, HouseholdMembershipStatus.DECLINED);
-            return ResponseEntity.ok("User's request denied successfully.");
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Failed to deny user's request.");
-        }
+    public CompletableFuture<ResponseEntity<String>> denyUserFromHousehold(@PathVariable String userIdToDeny, @RequestBody String householdId, @RequestHeader("Authorization") String ownerIdToken,
+                                                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return withRequiredVersion(ifMatch, expectedVersion -> withVerifiedUser(ownerIdToken, ownerId -> householdService
+                .acceptOrRejectUserToHousehold(userIdToDeny, householdId, ownerId, HouseholdMembershipStatus.DECLINED, expectedVersion)
+                .thenApply(household -> withETag(household, "User's request denied successfully."))
+                .exceptionally(e -> preconditionFailedOr(e, ResponseEntity.internalServerError().body("Failed to deny user's request.")))));
     }
 
     @PostMapping("/leaveHousehold/{householdId}")
-    public ResponseEntity<String> leaveHousehold(@PathVariable String householdId, @RequestHeader("Authorization") String  ownerIdToken) throws FirebaseAuthException {
-        String ownerId = userService.verifyTokenAndGetUserId(ownerIdToken);
+    public CompletableFuture<ResponseEntity<String>> leaveHousehold(@PathVariable String householdId, @RequestHeader("Authorization") String  ownerIdToken,
+                                                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return withRequiredVersion(ifMatch, expectedVersion -> withVerifiedUser(ownerIdToken, ownerId -> householdService.leaveHousehold(ownerId, householdId, expectedVersion)
+                .thenApply(result -> ResponseEntity.ok(switch (result) {
+                    case LEFT -> "Left the household successfully.";
+                    case OWNERSHIP_PASSED -> "Owner left successfully and new owner has been assigned.";
+                    case ARCHIVED -> "Left the household; with no members left it has been archived.";
+                }))
+                .exceptionally(e -> preconditionFailedOr(e, ResponseEntity.internalServerError().body("Failed to process owner's leaving request.")))));
+    }
+
+    // Passes on the version If-Match requires (null for none) and answers 400 for a malformed header
+    private static <T> CompletableFuture<ResponseEntity<T>> withRequiredVersion(String ifMatch, Function<String, CompletableFuture<ResponseEntity<T>>> action) {
+        String expectedVersion;
         try {
-            householdService.leaveHousehold(ownerId, householdId);
-            return ResponseEntity.ok("Owner left successfully and new owner has been assigned.");
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Failed to process owner's leaving request.");
+            expectedVersion = ETags.requiredVersion(ifMatch);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
         }
+        return action.apply(expectedVersion);
+    }
+
+    private static ResponseEntity<String> withETag(Household household, String body) {
+        return household.version() == null
+                ? ResponseEntity.ok(body)
+                : ResponseEntity.ok().eTag(ETags.of(household.version())).body(body);
+    }
+
+    // 404 only when the household does not exist; anything else, a Firestore outage or timeout say, must not be
+    // read or cached as a missing household
+    private static <T> ResponseEntity<T> notFoundOrError(Throwable e) {
+        return FutureUtils.unwrap(e) instanceof NoSuchElementException
+                ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
+                : ResponseEntity.internalServerError().build();
+    }
+
+    private static <T> ResponseEntity<T> preconditionFailedOr(Throwable e, ResponseEntity<T> otherwise) {
+        return FutureUtils.unwrap(e) instanceof VersionMismatchException
+                ? ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()
+                : otherwise;
+    }
+
+    // Resolves the caller from their ID token and answers 401 when it does not verify
+    private <T> CompletableFuture<ResponseEntity<T>> withVerifiedUser(String idToken, Function<String, CompletableFuture<ResponseEntity<T>>> action) {
+        return FutureUtils.call(() -> userService.verifyTokenAndGetUserId(idToken))
+                .handle((userId, e) -> e == null
+                        ? action.apply(userId)
+                        : CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED).<T>build()))
+                .thenCompose(Function.identity());
     }
 }
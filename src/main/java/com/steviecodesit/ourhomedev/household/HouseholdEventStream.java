@@ -0,0 +1,294 @@
+package com.steviecodesit.ourhomedev.household;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Relays household and invite changes to connected clients as server-sent events. Each household with
+// clients has one pair of repository listeners, shared by all of them; once the last client leaves, the
+// listeners stay up for the idle timeout so reconnecting clients find them still warm.
+// Every client has a bounded queue of unsent events. A client that falls that far behind is disconnected
+// rather than buffered without limit; on reconnect it gets the current household first anyway.
+@Log4j2
+@Component
+public class HouseholdEventStream {
+
+    private final HouseholdRepository householdRepository;
+    private final InviteRepository inviteRepository;
+    private final Executor sender;
+    private final ExecutorService ownedSender;
+    private final ScheduledExecutorService scheduler;
+    private final long idleTimeoutMillis;
+    private final int queueCapacity;
+    private final long emitterTimeoutMillis;
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final Counter droppedClients;
+
+    @Autowired
+    public HouseholdEventStream(HouseholdRepository householdRepository, InviteRepository inviteRepository, MeterRegistry registry,
+                                @Qualifier("virtualThreadExecutor") ObjectProvider<ExecutorService> virtualThreadExecutor,
+                                @Value("${ourhome.household.events.idle-timeout-seconds:60}") long idleTimeoutSeconds,
+                                @Value("${ourhome.household.events.queue-capacity:64}") int queueCapacity,
+                                @Value("${ourhome.household.events.timeout-minutes:30}") long timeoutMinutes) {
+        this(householdRepository, inviteRepository, registry, virtualThreadExecutor.getIfAvailable(),
+                idleTimeoutSeconds * 1000, queueCapacity, timeoutMinutes * 60_000);
+    }
+
+    // sender delivers events to clients, where a slow client can block a send; null uses a pool of our own
+    public HouseholdEventStream(HouseholdRepository householdRepository, InviteRepository inviteRepository, MeterRegistry registry,
+                                Executor sender, long idleTimeoutMillis, int queueCapacity, long emitterTimeoutMillis) {
+        this.householdRepository = householdRepository;
+        this.inviteRepository = inviteRepository;
+        this.ownedSender = sender == null ? Executors.newCachedThreadPool(daemonThreads("household-events-")) : null;
+        this.sender = sender == null ? ownedSender : sender;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("household-events-eviction"));
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.queueCapacity = queueCapacity;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+
+        Gauge.builder("household.events.listeners", topics, Map::size).register(registry);
+        Gauge.builder("household.events.clients", topics, all -> all.values().stream().mapToInt(topic -> topic.clients.size()).sum())
+                .register(registry);
+        droppedClients = Counter.builder("household.events.dropped.clients").register(registry);
+    }
+
+    public SseEmitter subscribe(String householdId) {
+        return subscribe(householdId, new SseEmitter(emitterTimeoutMillis));
+    }
+
+    SseEmitter subscribe(String householdId, SseEmitter emitter) {
+        Client client = new Client(emitter);
+        Topic topic = topics.compute(householdId, (id, existing) -> {
+            Topic joined = existing != null ? existing : open(id);
+            joined.join(client);
+            return joined;
+        });
+
+        emitter.onCompletion(() -> leave(topic, client));
+        emitter.onTimeout(() -> leave(topic, client));
+        emitter.onError(error -> leave(topic, client));
+        return emitter;
+    }
+
+    int listenerCount() {
+        return topics.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        topics.keySet().forEach(householdId -> topics.computeIfPresent(householdId, (id, topic) -> {
+            topic.close();
+            return null;
+        }));
+        scheduler.shutdownNow();
+        if (ownedSender != null) {
+            ownedSender.shutdownNow();
+        }
+    }
+
+    private Topic open(String householdId) {
+        Topic topic = new Topic(householdId);
+        topic.inviteRegistration = inviteRepository.listen(householdId, new InviteRepository.ChangeListener() {
+            @Override
+            public void onCreated(HouseholdInvite invite) {
+                topic.publish(new Event("invite", invite));
+            }
+
+            @Override
+            public void onFailed(Throwable error) {
+                fail(topic);
+            }
+        });
+        topic.householdRegistration = householdRepository.listen(householdId, new HouseholdRepository.ChangeListener() {
+            @Override
+            public void onChanged(Household household) {
+                topic.update(household);
+            }
+
+            @Override
+            public void onFailed(Throwable error) {
+                fail(topic);
+            }
+        });
+        return topic;
+    }
+
+    private void leave(Topic topic, Client client) {
+        client.closed = true;
+        if (topic.leave(client)) {
+            scheduler.schedule(() -> evictIfIdle(topic), idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void evictIfIdle(Topic topic) {
+        topics.computeIfPresent(topic.householdId, (id, current) -> {
+            if (current != topic || !topic.isIdle()) {
+                return current;
+            }
+            topic.close();
+            return null;
+        });
+    }
+
+    // A stopped listener would leave clients waiting for changes that never come; dropping them makes them reconnect.
+    // Runs on the scheduler, as a listener may fail while its topic is still being opened inside topics.compute.
+    private void fail(Topic topic) {
+        scheduler.execute(() -> {
+            topics.remove(topic.householdId, topic);
+            topic.close();
+            topic.disconnectAll();
+        });
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        ThreadFactory defaults = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = defaults.newThread(runnable);
+            thread.setName(namePrefix + thread.getId());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record Event(String name, Object data) {
+    }
+
+    private class Topic {
+
+        private final String householdId;
+        private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+        private Household latest;
+        private Runnable householdRegistration;
+        private Runnable inviteRegistration;
+
+        Topic(String householdId) {
+            this.householdId = householdId;
+        }
+
+        // Joining and publishing hold the same lock, so a new client starts with the latest state and misses nothing after it
+        synchronized void join(Client client) {
+            if (latest != null) {
+                client.offer(new Event("household", latest));
+            }
+            clients.add(client);
+        }
+
+        // Answers whether this left the topic without clients
+        synchronized boolean leave(Client client) {
+            return clients.remove(client) && clients.isEmpty();
+        }
+
+        synchronized boolean isIdle() {
+            return clients.isEmpty();
+        }
+
+        synchronized void update(Household household) {
+            if (household == null) {
+                // The household is gone, so there is nothing left to follow
+                latest = null;
+                publish(new Event("deleted", householdId));
+                clients.forEach(Client::finish);
+                return;
+            }
+            latest = household;
+            publish(new Event("household", household));
+        }
+
+        synchronized void publish(Event event) {
+            clients.forEach(client -> client.offer(event));
+        }
+
+        void close() {
+            if (householdRegistration != null) {
+                householdRegistration.run();
+            }
+            if (inviteRegistration != null) {
+                inviteRegistration.run();
+            }
+        }
+
+        synchronized void disconnectAll() {
+            clients.forEach(client -> {
+                client.closed = true;
+                client.emitter.complete();
+            });
+        }
+    }
+
+    // Sends run one at a time per client on the sender, in the order events were offered
+    private class Client {
+
+        private final SseEmitter emitter;
+        private final Queue<Event> pending = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean finishing;
+        private volatile boolean closed;
+
+        Client(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void offer(Event event) {
+            if (closed) {
+                return;
+            }
+            if (!pending.offer(event)) {
+                closed = true;
+                droppedClients.increment();
+                log.debug("Disconnecting a client that fell {} events behind", queueCapacity);
+                emitter.complete();
+                return;
+            }
+            drain();
+        }
+
+        // Completes the stream once everything already queued has been sent
+        void finish() {
+            finishing = true;
+            drain();
+        }
+
+        private void drain() {
+            if (draining.compareAndSet(false, true)) {
+                sender.execute(this::sendPending);
+            }
+        }
+
+        private void sendPending() {
+            try {
+                Event event;
+                while (!closed && (event = pending.poll()) != null) {
+                    emitter.send(SseEmitter.event().name(event.name()).data(event.data(), MediaType.APPLICATION_JSON));
+                }
+                if (finishing && !closed) {
+                    closed = true;
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away; its completion callback takes it out of the topic
+                closed = true;
+            } finally {
+                draining.set(false);
+            }
+            if (!closed && (!pending.isEmpty() || finishing)) {
+                drain();
+            }
+        }
+    }
+}
@@ -2,12 +2,23 @@ package com.steviecodesit.ourhomedev.household;
 
 import lombok.*;
 
-@Builder
+@Builder(toBuilder = true)
 @Getter
 @Setter
+@NoArgsConstructor
+@AllArgsConstructor
 public class HouseholdMembership {
     private String householdId;
     private String userId;
     private HouseholdRole householdRole;
     private HouseholdMembershipStatus memberStatus;
+    // When the member was accepted (the owner: when they created the household), in epoch millis; null for
+    // memberships accepted before this was recorded
+    private Long joinedAt;
+
+    // The member's householdMemberships document: one per household and user, so writing the same membership
+    // twice, from two instances at once included, leaves a single entry
+    public static String documentId(String householdId, String userId) {
+        return householdId + "_" + userId;
+    }
 }
@@ -0,0 +1,47 @@
+package com.steviecodesit.ourhomedev.household;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public interface HouseholdRepository {
+
+    String newId();
+
+    // The household carries the version it was read at; see Household.version()
+    CompletableFuture<Optional<Household>> findById(String householdId);
+
+    // Stores a new household together with the record of its owner's membership
+    CompletableFuture<Void> create(Household household, HouseholdMembership ownerMembership);
+
+    CompletableFuture<Void> save(String householdId, Household household);
+
+    // Applies the member entries chosen by change to the household as it is stored now, and returns the
+    // updated household. A rejected change fails with its reason; empty means there is no such household.
+    default CompletableFuture<Optional<Household>> updateMembers(String householdId, Function<Household, MembershipChange> change) {
+        return updateMembers(householdId, null, change);
+    }
+
+    // As above, but only while the household is still at expectedVersion, unless that is null; otherwise fails
+    // with VersionMismatchException. The returned household carries its new version where the store reports one.
+    CompletableFuture<Optional<Household>> updateMembers(String householdId, String expectedVersion, Function<Household, MembershipChange> change);
+
+    // Applies change like updateMembers, in one transaction with the user documents it touches: a removed member's
+    // householdMembership is cleared and a put member's set to their new entry, wherever it still points at this
+    // household. A household left without accepted members is moved to the archive instead, clearing its remaining
+    // members' documents too. Returns the household as left or archived; empty means there is no such household.
+    CompletableFuture<Optional<Household>> leave(String householdId, String expectedVersion, Function<Household, MembershipChange> change);
+
+    // Follows one household: onChanged gets its current state first and again after every write.
+    // Running the returned Runnable stops the listener.
+    Runnable listen(String householdId, ChangeListener listener);
+
+    interface ChangeListener {
+
+        // household is null when it does not exist (any more)
+        void onChanged(Household household);
+
+        // The listener has stopped and delivers nothing more
+        void onFailed(Throwable error);
+    }
+}
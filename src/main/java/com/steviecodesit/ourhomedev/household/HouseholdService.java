@@ -1,272 +1,274 @@
 package com.steviecodesit.ourhomedev.household;
 
-import com.google.cloud.firestore.CollectionReference;
-import com.google.cloud.firestore.DocumentReference;
-import com.google.cloud.firestore.DocumentSnapshot;
-import com.google.cloud.firestore.Firestore;
-import com.google.firebase.auth.FirebaseAuthException;
-import com.steviecodesit.ourhomedev.user.User;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.etag.Versioned;
+import com.steviecodesit.ourhomedev.user.UserRepository;
 import com.steviecodesit.ourhomedev.user.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
 @Service
 public class HouseholdService {
 
-    private final Firestore firestore;
+    private final HouseholdRepository householdRepository;
+    private final InviteRepository inviteRepository;
+    private final UserRepository userRepository;
     private final UserService userService;
 
     @Autowired
-    public HouseholdService(Firestore firestore, UserService userService) {
-        this.firestore = firestore;
+    public HouseholdService(HouseholdRepository householdRepository, InviteRepository inviteRepository, UserRepository userRepository, UserService userService) {
+        this.householdRepository = householdRepository;
+        this.inviteRepository = inviteRepository;
+        this.userRepository = userRepository;
         this.userService = userService;
     }
 
-    public Household createHousehold(Household household, String userIdToken) throws FirebaseAuthException {
-        String uid = userService.verifyTokenAndGetUserId(userIdToken);
-
-        // Save the Household to Firestore
-        DocumentReference newHouseholdRef = firestore.collection("households").document();
-        household.setId(newHouseholdRef.getId());
-        newHouseholdRef.set(household);
-
-        // Create and Save HouseholdMembership for the user
-        HouseholdMembership membership = HouseholdMembership.builder()
-                .householdId(household.getId())
-                .userId(uid)
-                .householdRole(HouseholdRole.OWNER)
-                .memberStatus(HouseholdMembershipStatus.ACCEPTED)
-                .build();
-
-        household.getMembers().add(membership);
+    public CompletableFuture<Household> createHousehold(Household household, String userIdToken) {
+        return userService.verifyTokenAndGetUserId(userIdToken).thenCompose(uid -> {
+            household.setId(householdRepository.newId());
+
+            // Create the owner's HouseholdMembership before saving so the stored household includes it
+            HouseholdMembership membership = HouseholdMembership.builder()
+                    .householdId(household.getId())
+                    .userId(uid)
+                    .householdRole(HouseholdRole.OWNER)
+                    .memberStatus(HouseholdMembershipStatus.ACCEPTED)
+                    .joinedAt(System.currentTimeMillis())
+                    .build();
 
-        DocumentReference membershipRef = firestore.collection("householdMemberships").document();
-        membershipRef.set(membership);
+            household.getMembers().add(membership);
 
-        return household;
+            // Save the Household and the membership
+            return householdRepository.create(household, membership).thenApply(created -> household);
+        });
     }
 
-    public void sendInvite(HouseholdInvite invite) {
-        CollectionReference invitesCollection = firestore.collection("householdInvites");
-        invitesCollection.add(invite);
+    public CompletableFuture<InviteResult> inviteMember(HouseholdInvite invite) {
+        // Validate against the household's current members, then store the pending member and the invite together
+        return inviteRepository.create(invite, household -> admit(household, invite));
     }
 
-    public boolean isOwnerOfHousehold(String userId, String householdId) {
-        Household household;
-        try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
+    // Invites several users with one read of the household; the results are keyed by invitee
+    public CompletableFuture<Map<String, InviteResult>> inviteMembers(String householdId, String inviterUserId, List<String> inviteeUserIds) {
+        List<HouseholdInvite> invites = new ArrayList<>();
+        for (String inviteeUserId : inviteeUserIds) {
+            HouseholdInvite invite = new HouseholdInvite();
+            invite.setHouseholdId(householdId);
+            invite.setInviterUserId(inviterUserId);
+            invite.setInviteeUserId(inviteeUserId);
+            invites.add(invite);
         }
-
-        return household.getMembers().stream()
-                .anyMatch(member -> member.getUserId().equals(userId) && member.getHouseholdRole() == HouseholdRole.OWNER);
+        return inviteRepository.createAll(householdId, invites, HouseholdService::admit);
     }
 
-    public boolean isAlreadyAMember(String userId, String householdId) {
-        Household household;
-        try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
-        }
-
-        return household.getMembers().stream()
-                .anyMatch(member -> member.getUserId().equals(userId));
+    // The user's pending invites, newest first, one page at a time
+    public CompletableFuture<InvitePage> findPendingInvites(String userId, String cursor, int limit) {
+        return FutureUtils.call(() -> inviteRepository.findPending(userId, cursor, limit));
     }
 
-    public void addMemberWithPendingStatus(String userId, String householdId) {
-        Household household;
+    // One page of the household's members in userId order, optionally narrowed to a status and role. Empty when
+    // the requester is not a member themselves.
+    public CompletableFuture<Optional<MemberPage>> listMembers(String householdId, String requesterUserId, HouseholdMembershipStatus status,
+                                                               HouseholdRole role, String cursor, int limit) {
+        String afterUserId;
         try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
+            afterUserId = cursor == null ? null : MemberPage.afterUserId(cursor);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
 
-        HouseholdMembership newMember = HouseholdMembership.builder()
-                .userId(userId)
-                .householdId(householdId)
-                .householdRole(HouseholdRole.MEMBER)
-                .memberStatus(HouseholdMembershipStatus.PENDING)
-                .build();
-
-        household.getMembers().add(newMember);
-
-        try {
-            updateHouseholdMembers(householdId, household);
-        } catch (Exception e) {
-            // TODO: handle exceptions
-            throw new RuntimeException(e);
-        }
+        return getHouseholdById(householdId).thenApply(household -> {
+            if (!household.isMember(requesterUserId)) {
+                return Optional.empty();
+            }
+            List<HouseholdMembership> members = household.getMembers().stream()
+                    .filter(member -> status == null || member.getMemberStatus() == status)
+                    .filter(member -> role == null || member.getHouseholdRole() == role)
+                    .filter(member -> afterUserId == null || member.getUserId().compareTo(afterUserId) > 0)
+                    .sorted(Comparator.comparing(HouseholdMembership::getUserId))
+                    .limit(limit + 1L)
+                    .toList();
+            return Optional.of(MemberPage.of(members, limit));
+        });
     }
 
-    public void acceptOrDeclineMembership(String householdId, String userId, HouseholdMembershipStatus status) {
-        Household household;
-        try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
-        }
-
-        for (HouseholdMembership membership : household.getMembers()) {
-            if (membership.getUserId().equals(userId)) {
-                membership.setMemberStatus(status);
-            }
-        }
-        firestore.collection("households").document(householdId).set(household);
+    // The household with its version, for conditional reads. Empty when the requester is not a member.
+    public CompletableFuture<Optional<Versioned<Household>>> getHousehold(String householdId, String requesterUserId) {
+        return getHouseholdById(householdId).thenApply(household -> household.isMember(requesterUserId)
+                ? Optional.of(new Versioned<>(household, household.version()))
+                : Optional.empty());
     }
 
-    public void cancelInvitation(String householdId, String userId) throws Exception {
-        Household household;
-        try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
-        }
+    public CompletableFuture<Boolean> isOwnerOfHousehold(String userId, String householdId) {
+        return getHouseholdById(householdId).thenApply(household -> household.isOwner(userId));
+    }
 
-        // Check if the membership exists and update its status
-        for (HouseholdMembership membership : household.getMembers()) {
-            if (membership.getUserId().equals(userId)) {
-                membership.setMemberStatus(HouseholdMembershipStatus.DECLINED);
-                break;
-            }
-        }
+    public CompletableFuture<Boolean> isAlreadyAMember(String userId, String householdId) {
+        return getHouseholdById(householdId).thenApply(household -> household.isMember(userId));
+    }
 
-        firestore.collection("households").document(householdId).set(household);
+    public CompletableFuture<Void> acceptOrDeclineMembership(String householdId, String userId, HouseholdMembershipStatus status) {
+        return updateMembers(householdId, household -> {
+            MembershipChange change = MembershipChange.none();
+            household.findMember(userId).ifPresent(membership -> change.put(withStatus(membership, status)));
+            return change;
+        }).thenCompose(updated -> inviteRepository.resolve(userId, householdId));
+    }
 
-        userService.removeMembershipFromUser(userId, householdId);
+    public CompletableFuture<Void> cancelInvitation(String householdId, String userId) {
+        // Mark the membership as declined if it exists
+        return updateMembers(householdId, household -> {
+            MembershipChange change = MembershipChange.none();
+            household.findMember(userId).ifPresent(membership -> change.put(membership.toBuilder().memberStatus(HouseholdMembershipStatus.DECLINED).build()));
+            return change;
+        }).thenCompose(updated -> inviteRepository.resolve(userId, householdId))
+                .thenCompose(resolved -> userService.removeMembershipFromUser(userId, householdId));
     }
 
-    public void requestJoinHousehold(String requesterUserId, String targetUserId) throws Exception {
-        User targetUser = userService.getUserById(targetUserId);
+    public CompletableFuture<Void> requestJoinHousehold(String requesterUserId, String targetUserId) {
+        return userService.getUserById(targetUserId).thenCompose(targetUser -> {
+            if (targetUser.getHouseholdMembership() == null) {
+                return CompletableFuture.failedFuture(new Exception("Target user is not part of any household."));
+            }
 
-        if (targetUser.getHouseholdMembership() != null) {
+            String householdId = targetUser.getHouseholdMembership().getHouseholdId();
             HouseholdMembership newMembership = HouseholdMembership.builder()
                     .userId(requesterUserId)
-                    .householdId(targetUser.getHouseholdMembership().getHouseholdId())
+                    .householdId(householdId)
                     .memberStatus(HouseholdMembershipStatus.PENDING)
                     .householdRole(HouseholdRole.MEMBER)
                     .build();
 
-            // Update the household document to include this new member request
-            String householdId = targetUser.getHouseholdMembership().getHouseholdId();
-            Household household;
-            try {
-                household = getHouseholdById(householdId);
-            } catch (Exception e) {
-                // TODO: handle exception
-                throw new RuntimeException(e);
-            }
-
-            household.getMembers().add(newMembership);
-            firestore.collection("households").document(householdId).set(household);
+            // Add this new member request to the household; an existing entry must not be downgraded to a request
+            CompletableFuture<Household> householdUpdate = updateMembers(householdId, household -> household.isMember(requesterUserId)
+                    ? MembershipChange.reject("User is already a member of this household.")
+                    : MembershipChange.none().put(newMembership));
 
             // Update requesters user document to include the PENDING householdMembership
-            User requesterUser = userService.getUserById(requesterUserId);
-            requesterUser.setHouseholdMembership(newMembership);
-            firestore.collection("users").document(requesterUserId).set(requesterUser);
-        } else {
-            throw new Exception("Target user is not part of any household.");
-        }
+            return householdUpdate
+                    .thenCompose(updated -> userService.getUserById(requesterUserId))
+                    .thenCompose(requesterUser -> {
+                        requesterUser.setHouseholdMembership(newMembership);
+                        return userRepository.save(requesterUserId, requesterUser);
+                    });
+        });
     }
 
-    public void acceptOrRejectUserToHousehold(String userId, String householdId, String ownerId, HouseholdMembershipStatus status) throws Exception {
-        // Fetch the household
-        Household household;
-        try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
-        }
+    // expectedVersion, when not null, is the version the owner decided on; the update fails with VersionMismatchException
+    // if the household has moved on since. Returns the household as updated.
+    public CompletableFuture<Household> acceptOrRejectUserToHousehold(String userId, String householdId, String ownerId, HouseholdMembershipStatus status,
+                                                                      String expectedVersion) {
+        return updateMembers(householdId, expectedVersion, household -> {
+            // Ensure the owner is making this request
+            if (!household.isOwner(ownerId)) {
+                return MembershipChange.reject("Only the owner can accept new members.");
+            }
 
-        // Ensure the owner is making this request
-        household.getMembers().stream()
-                .filter(m -> m.getUserId().equals(ownerId) && m.getHouseholdRole() == HouseholdRole.OWNER)
-                .findFirst()
-                .orElseThrow(() -> new Exception("Only the owner can accept new members."));
-
-        // Find the pending membership of the user to accept
-        HouseholdMembership membership = household.getMembers().stream()
-                .filter(m -> m.getUserId().equals(userId) && m.getMemberStatus() == HouseholdMembershipStatus.PENDING)
-                .findFirst()
-                .orElseThrow(() -> new Exception("No pending request from the specified user."));
-
-        // Update the membership status
-        membership.setMemberStatus(status);
-        firestore.collection("households").document(householdId).set(household);
-
-        User user = userService.getUserById(userId);
-        if (status == HouseholdMembershipStatus.ACCEPTED) {
-            // Update the user's document to reflect the new status
-            user.setHouseholdMembership(membership);
-        }
-        if (status == HouseholdMembershipStatus.DECLINED) {
-            // Update the user's document to remove the denied membership
-            user.setHouseholdMembership(null);
-        }
-        firestore.collection("users").document(userId).set(user);
+            // Find the pending membership of the user to accept and update its status
+            return household.findMember(userId)
+                    .filter(m -> m.getMemberStatus() == HouseholdMembershipStatus.PENDING)
+                    .map(pending -> MembershipChange.none().put(withStatus(pending, status)))
+                    .orElseGet(() -> MembershipChange.reject("No pending request from the specified user."));
+        }).thenCompose(household -> userService.getUserById(userId).thenCompose(user -> {
+            if (status == HouseholdMembershipStatus.ACCEPTED) {
+                // Update the user's document to reflect the new status
+                user.setHouseholdMembership(household.findMember(userId).orElse(null));
+            }
+            if (status == HouseholdMembershipStatus.DECLINED) {
+                // Update the user's document to remove the denied membership
+                user.setHouseholdMembership(null);
+            }
+            return userRepository.save(userId, user).thenApply(saved -> household);
+        }));
     }
 
-    public void leaveHousehold(String userId, String householdId) throws Exception {
-        // Fetch the household
-        Household household;
-        try {
-            household = getHouseholdById(householdId);
-        } catch (Exception e) {
-            // TODO: handle exception
-            throw new RuntimeException(e);
-        }
-
-        // Try to find the member in the household
-        HouseholdMembership memberToRemove = household.getMembers().stream()
-                .filter(m -> m.getUserId().equals(userId))
-                .findFirst()
-                .orElseThrow(() -> new Exception("User is not a member of the household."));
-
-        // Check if the member is the owner
-        if (memberToRemove.getHouseholdRole() == HouseholdRole.OWNER) {
-            // Remove the owner from the household members
-            household.getMembers().remove(memberToRemove);
-
-            // Choose a new owner, in this case, the longest-standing member
-            if (!household.getMembers().isEmpty()) {
-                HouseholdMembership newOwner = household.getMembers().get(0);
-                newOwner.setHouseholdRole(HouseholdRole.OWNER);
-            } else {
-                // TODO: If there are no more members, consider deleting the household or marking it as inactive
+    // Takes the user out of the household in one commit with their own user document. An owner leaving hands the
+    // household to the longest-standing accepted member, whose user document changes in the same commit; with no
+    // accepted member left, the household is archived instead.
+    public CompletableFuture<LeaveResult> leaveHousehold(String userId, String householdId, String expectedVersion) {
+        AtomicBoolean ownershipPassed = new AtomicBoolean();
+        return FutureUtils.call(() -> householdRepository.leave(householdId, expectedVersion, household -> {
+            Optional<HouseholdMembership> member = household.findMember(userId);
+            if (member.isEmpty()) {
+                return MembershipChange.reject("User is not a member of the household.");
             }
-        } else {
-            // If just a member, simply remove the member from the household
-            household.getMembers().remove(memberToRemove);
-        }
+            MembershipChange change = MembershipChange.none().remove(userId);
+            Optional<HouseholdMembership> successor = member.get().getHouseholdRole() == HouseholdRole.OWNER
+                    ? successor(household, userId)
+                    : Optional.empty();
+            successor.ifPresent(next -> change.put(next.toBuilder().householdRole(HouseholdRole.OWNER).build()));
+            ownershipPassed.set(successor.isPresent());
+            return change;
+        })).thenCompose(household -> household
+                .map(left -> CompletableFuture.completedFuture(left.countWithStatus(HouseholdMembershipStatus.ACCEPTED) == 0
+                        ? LeaveResult.ARCHIVED
+                        : ownershipPassed.get() ? LeaveResult.OWNERSHIP_PASSED : LeaveResult.LEFT))
+                .orElseGet(() -> CompletableFuture.failedFuture(new NoSuchElementException("Household not found"))));
+    }
 
-        firestore.collection("households").document(householdId).set(household);
+    // The longest-standing accepted member besides the one leaving; memberships accepted before joinedAt was recorded
+    // count as the oldest, in list order
+    private static Optional<HouseholdMembership> successor(Household household, String leavingUserId) {
+        return household.getMembers().stream()
+                .filter(member -> !member.getUserId().equals(leavingUserId))
+                .filter(member -> member.getMemberStatus() == HouseholdMembershipStatus.ACCEPTED)
+                .min(Comparator.comparing(HouseholdMembership::getJoinedAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+    }
 
-        // Update the old user's document to remove their membership
-        User user = userService.getUserById(userId);
-        user.setHouseholdMembership(null);
-        firestore.collection("users").document(userId).set(user);
+    private CompletableFuture<Household> getHouseholdById(String householdId) {
+        return FutureUtils.call(() -> householdRepository.findById(householdId)).thenCompose(household -> household
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> CompletableFuture.failedFuture(new NoSuchElementException("Household not found"))));
     }
 
-    private Household getHouseholdById(String householdId) throws Exception {
-        DocumentReference docRef = firestore.collection("households").document(householdId);
-        DocumentSnapshot documentSnapshot = docRef.get().get();
+    // Acceptance starts a member's standing in the household, which decides owner succession
+    private static HouseholdMembership withStatus(HouseholdMembership membership, HouseholdMembershipStatus status) {
+        HouseholdMembership.HouseholdMembershipBuilder changed = membership.toBuilder().memberStatus(status);
+        if (status == HouseholdMembershipStatus.ACCEPTED && membership.getMemberStatus() != HouseholdMembershipStatus.ACCEPTED) {
+            changed.joinedAt(System.currentTimeMillis());
+        }
+        return changed.build();
+    }
 
-        if (documentSnapshot.exists()) {
-            return documentSnapshot.toObject(Household.class);
-        } else {
-            throw new Exception("Household not found");
+    // Adds the invitee as a pending member when the inviter owns the household and the invitee is not in it yet
+    private static InviteResult admit(Household household, HouseholdInvite invite) {
+        if (!household.isOwner(invite.getInviterUserId())) {
+            return InviteResult.NOT_OWNER;
+        }
+        if (household.isMember(invite.getInviteeUserId())) {
+            return InviteResult.ALREADY_MEMBER;
         }
+
+        HouseholdMembership newMember = HouseholdMembership.builder()
+                .userId(invite.getInviteeUserId())
+                .householdId(invite.getHouseholdId())
+                .householdRole(HouseholdRole.MEMBER)
+                .memberStatus(HouseholdMembershipStatus.PENDING)
+                .build();
+        household.getMembers().add(newMember);
+        // The invitee's inbox shows the name the household has now
+        invite.setHouseholdName(household.getHouseholdName());
+        return InviteResult.SENT;
+    }
+
+    // Writes only the member entries the change touches, failing like getHouseholdById when the household is missing
+    private CompletableFuture<Household> updateMembers(String householdId, Function<Household, MembershipChange> change) {
+        return updateMembers(householdId, null, change);
     }
 
-    private void updateHouseholdMembers(String householdId, Household updatedHousehold) throws  Exception {
-        DocumentReference docRef = firestore.collection("households").document(householdId);
-        docRef.update("members", updatedHousehold.getMembers()).get();
+    private CompletableFuture<Household> updateMembers(String householdId, String expectedVersion, Function<Household, MembershipChange> change) {
+        return FutureUtils.call(() -> householdRepository.updateMembers(householdId, expectedVersion, change)).thenCompose(household -> household
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> CompletableFuture.failedFuture(new NoSuchElementException("Household not found"))));
     }
 }
@@ -0,0 +1,221 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.etag.VersionMismatchException;
+import com.steviecodesit.ourhomedev.user.InMemoryUserRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Keeps households in process memory for load tests and benchmarks. Stored households are copied on
+// the way in and out, so callers can mutate what they get back just like a Firestore-mapped object.
+// Every write stamps the household with the next value of a counter, standing in for Firestore's update time.
+@Repository
+@Profile("in-memory")
+public class InMemoryHouseholdRepository implements HouseholdRepository {
+
+    private final SimulatedLatency latency;
+    private final InMemoryUserRepository users;
+    private final Map<String, Household> households = new ConcurrentHashMap<>();
+    private final Map<String, Household> archived = new ConcurrentHashMap<>();
+    private final Queue<HouseholdMembership> membershipRecords = new ConcurrentLinkedQueue<>();
+    private final Map<String, List<ChangeListener>> listeners = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    public InMemoryHouseholdRepository(SimulatedLatency latency, InMemoryUserRepository users) {
+        this.latency = latency;
+        this.users = users;
+    }
+
+    @Override
+    public String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    @Override
+    public CompletableFuture<Optional<Household>> findById(String householdId) {
+        return latency.apply(() -> Optional.ofNullable(households.get(householdId)).map(InMemoryHouseholdRepository::copyOf));
+    }
+
+    @Override
+    public CompletableFuture<Void> create(Household household, HouseholdMembership ownerMembership) {
+        Household stored = copyOf(household);
+        HouseholdMembership record = ownerMembership.toBuilder().build();
+        return latency.apply(() -> {
+            stored.stampVersion(nextVersion());
+            households.put(stored.getId(), stored);
+            membershipRecords.add(record);
+            notifyListeners(stored.getId());
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String householdId, Household household) {
+        Household stored = copyOf(household);
+        return latency.apply(() -> {
+            stored.stampVersion(nextVersion());
+            households.put(householdId, stored);
+            notifyListeners(householdId);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<Household>> updateMembers(String householdId, String expectedVersion, Function<Household, MembershipChange> change) {
+        AtomicReference<Household> updated = new AtomicReference<>();
+        AtomicBoolean stale = new AtomicBoolean();
+        // Like Firestore, a change with nothing to write keeps the stored household and its version
+        return latency.apply(() -> modify(householdId, household -> {
+            if (expectedVersion != null && !expectedVersion.equals(household.version())) {
+                stale.set(true);
+                return MembershipChange.reject("The household is no longer at version " + expectedVersion + ".");
+            }
+            MembershipChange membershipChange = change.apply(household);
+            if (membershipChange.getRejection() == null) {
+                membershipChange.applyTo(household);
+                updated.set(household);
+            }
+            return membershipChange;
+        }, membershipChange -> membershipChange.getRejection() == null && !membershipChange.isEmpty())).thenCompose(membershipChange -> {
+            if (membershipChange == null) {
+                return CompletableFuture.completedFuture(Optional.<Household>empty());
+            }
+            if (stale.get()) {
+                return CompletableFuture.failedFuture(new VersionMismatchException(membershipChange.getRejection()));
+            }
+            if (membershipChange.getRejection() != null) {
+                return CompletableFuture.failedFuture(new Exception(membershipChange.getRejection()));
+            }
+            // Stored households are replaced, never changed, so copying after the write is safe
+            return CompletableFuture.completedFuture(Optional.of(copyOf(updated.get())));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<Household>> leave(String householdId, String expectedVersion, Function<Household, MembershipChange> change) {
+        AtomicReference<MembershipChange> decided = new AtomicReference<>();
+        AtomicReference<Household> left = new AtomicReference<>();
+        AtomicBoolean stale = new AtomicBoolean();
+        return latency.apply(() -> {
+            households.computeIfPresent(householdId, (id, current) -> {
+                if (expectedVersion != null && !expectedVersion.equals(current.version())) {
+                    stale.set(true);
+                    return current;
+                }
+                Household changed = copyOf(current);
+                MembershipChange membershipChange = change.apply(changed);
+                decided.set(membershipChange);
+                if (membershipChange.getRejection() != null) {
+                    return current;
+                }
+                membershipChange.applyTo(changed);
+                changed.stampVersion(nextVersion());
+                left.set(changed);
+                if (changed.countWithStatus(HouseholdMembershipStatus.ACCEPTED) == 0) {
+                    archived.put(id, changed);
+                    return null;
+                }
+                return changed;
+            });
+
+            Household household = left.get();
+            if (household != null) {
+                // Not atomic with the household as in Firestore, which only matters to tests racing a leave against user writes
+                MembershipChange membershipChange = decided.get();
+                membershipChange.getRemovals().forEach(userId -> users.replaceMembership(userId, householdId, null));
+                membershipChange.getPuts().forEach(membership -> users.replaceMembership(membership.getUserId(), householdId, membership));
+                if (archived.containsKey(householdId)) {
+                    household.getMembers().forEach(membership -> users.replaceMembership(membership.getUserId(), householdId, null));
+                }
+                notifyListeners(householdId);
+            }
+            return household;
+        }).thenCompose(household -> {
+            if (stale.get()) {
+                return CompletableFuture.failedFuture(new VersionMismatchException("The household is no longer at version " + expectedVersion + "."));
+            }
+            if (decided.get() != null && decided.get().getRejection() != null) {
+                return CompletableFuture.failedFuture(new Exception(decided.get().getRejection()));
+            }
+            return CompletableFuture.completedFuture(Optional.ofNullable(household).map(InMemoryHouseholdRepository::copyOf));
+        });
+    }
+
+    Optional<Household> findArchived(String householdId) {
+        return Optional.ofNullable(archived.get(householdId)).map(InMemoryHouseholdRepository::copyOf);
+    }
+
+    // Applies change to a copy of the stored household while holding that household's entry, and keeps
+    // the copy, at a new version, only when the result passes keep. Returns null when there is no such household.
+    <T> T modify(String householdId, Function<Household, T> change, Predicate<T> keep) {
+        AtomicReference<T> result = new AtomicReference<>();
+        households.computeIfPresent(householdId, (id, current) -> {
+            Household changed = copyOf(current);
+            result.set(change.apply(changed));
+            if (!keep.test(result.get())) {
+                return current;
+            }
+            changed.stampVersion(nextVersion());
+            return changed;
+        });
+        if (result.get() != null && keep.test(result.get())) {
+            notifyListeners(householdId);
+        }
+        return result.get();
+    }
+
+    @Override
+    public Runnable listen(String householdId, ChangeListener listener) {
+        // Register before replaying so no change is missed; a state seen twice is harmless
+        listeners.computeIfAbsent(householdId, id -> new CopyOnWriteArrayList<>()).add(listener);
+        Household current = households.get(householdId);
+        listener.onChanged(current == null ? null : copyOf(current));
+        return () -> listeners.computeIfPresent(householdId, (id, registered) -> {
+            registered.remove(listener);
+            return registered.isEmpty() ? null : registered;
+        });
+    }
+
+    SimulatedLatency getLatency() {
+        return latency;
+    }
+
+    private void notifyListeners(String householdId) {
+        List<ChangeListener> registered = listeners.get(householdId);
+        if (registered == null) {
+            return;
+        }
+        Household current = households.get(householdId);
+        for (ChangeListener listener : registered) {
+            listener.onChanged(current == null ? null : copyOf(current));
+        }
+    }
+
+    private String nextVersion() {
+        return Long.toString(versions.incrementAndGet());
+    }
+
+    private static Household copyOf(Household household) {
+        Household copy = new Household();
+        copy.setId(household.getId());
+        copy.setHouseholdName(household.getHouseholdName());
+        List<HouseholdMembership> members = new ArrayList<>();
+        for (HouseholdMembership member : household.getMembers()) {
+            members.add(member.toBuilder().build());
+        }
+        copy.setMembers(members);
+        copy.stampVersion(household.version());
+        return copy;
+    }
+}
@@ -0,0 +1,130 @@
+package com.steviecodesit.ourhomedev.household;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// Invites live next to the in-memory households so an invite and its pending member are stored in one step
+@Repository
+@Profile("in-memory")
+public class InMemoryInviteRepository implements InviteRepository {
+
+    private final InMemoryHouseholdRepository households;
+    private final Map<String, HouseholdInvite> invites = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, InboxInvite>> inboxes = new ConcurrentHashMap<>();
+    private final Map<String, List<ChangeListener>> listeners = new ConcurrentHashMap<>();
+
+    public InMemoryInviteRepository(InMemoryHouseholdRepository households) {
+        this.households = households;
+    }
+
+    @Override
+    public CompletableFuture<InviteResult> create(HouseholdInvite invite, Function<Household, InviteResult> admit) {
+        return households.getLatency().apply(() -> {
+            InviteResult result = households.modify(invite.getHouseholdId(), household -> {
+                InviteResult admitted = admit.apply(household);
+                if (admitted == InviteResult.SENT) {
+                    store(copyOf(invite), System.currentTimeMillis());
+                }
+                return admitted;
+            }, admitted -> admitted == InviteResult.SENT);
+            if (result == InviteResult.SENT) {
+                notifyListeners(invite);
+            }
+            return result == null ? InviteResult.HOUSEHOLD_NOT_FOUND : result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, InviteResult>> createAll(String householdId, List<HouseholdInvite> invites, BiFunction<Household, HouseholdInvite, InviteResult> admit) {
+        return households.getLatency().apply(() -> {
+            Map<String, InviteResult> results = new LinkedHashMap<>();
+            List<HouseholdInvite> sent = new ArrayList<>();
+            Boolean found = households.modify(householdId, household -> {
+                for (HouseholdInvite invite : invites) {
+                    if (!results.containsKey(invite.getInviteeUserId())) {
+                        InviteResult result = admit.apply(household, invite);
+                        results.put(invite.getInviteeUserId(), result);
+                        if (result == InviteResult.SENT) {
+                            sent.add(copyOf(invite));
+                        }
+                    }
+                }
+                return true;
+            }, changed -> !sent.isEmpty());
+            if (found == null) {
+                invites.forEach(invite -> results.putIfAbsent(invite.getInviteeUserId(), InviteResult.HOUSEHOLD_NOT_FOUND));
+            }
+            long createdAt = System.currentTimeMillis();
+            sent.forEach(invite -> store(invite, createdAt));
+            sent.forEach(this::notifyListeners);
+            return results;
+        });
+    }
+
+    @Override
+    public CompletableFuture<InvitePage> findPending(String inviteeUserId, String cursor, int limit) {
+        return households.getLatency().apply(() -> {
+            InboxCursor after = cursor == null ? null : InboxCursor.parse(cursor);
+            List<InboxInvite> invites = inboxes.getOrDefault(inviteeUserId, Map.of()).values().stream()
+                    .filter(invite -> after == null || after.precedes(invite))
+                    .sorted(Comparator.comparingLong(InboxInvite::getCreatedAt).thenComparing(InboxInvite::getHouseholdId).reversed())
+                    .limit(limit + 1L)
+                    .map(invite -> invite.toBuilder().build())
+                    .toList();
+            return InvitePage.of(invites, limit);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> resolve(String inviteeUserId, String householdId) {
+        return households.getLatency().apply(() -> {
+            inboxes.computeIfPresent(inviteeUserId, (userId, inbox) -> {
+                inbox.remove(householdId);
+                return inbox.isEmpty() ? null : inbox;
+            });
+            return null;
+        });
+    }
+
+    @Override
+    public Runnable listen(String householdId, ChangeListener listener) {
+        listeners.computeIfAbsent(householdId, id -> new CopyOnWriteArrayList<>()).add(listener);
+        return () -> listeners.computeIfPresent(householdId, (id, registered) -> {
+            registered.remove(listener);
+            return registered.isEmpty() ? null : registered;
+        });
+    }
+
+    private void store(HouseholdInvite invite, long createdAt) {
+        invites.put(UUID.randomUUID().toString().replace("-", ""), invite);
+        inboxes.computeIfAbsent(invite.getInviteeUserId(), userId -> new ConcurrentHashMap<>())
+                .put(invite.getHouseholdId(), InboxInvite.pending(invite, createdAt));
+    }
+
+    private void notifyListeners(HouseholdInvite invite) {
+        for (ChangeListener listener : listeners.getOrDefault(invite.getHouseholdId(), List.of())) {
+            listener.onCreated(copyOf(invite));
+        }
+    }
+
+    int size() {
+        return invites.size();
+    }
+
+    private static HouseholdInvite copyOf(HouseholdInvite invite) {
+        HouseholdInvite copy = new HouseholdInvite();
+        copy.setHouseholdId(invite.getHouseholdId());
+        copy.setHouseholdName(invite.getHouseholdName());
+        copy.setInviteeUserId(invite.getInviteeUserId());
+        copy.setInviterUserId(invite.getInviterUserId());
+        copy.setTimestamp(invite.getTimestamp());
+        return copy;
+    }
+}
@@ -0,0 +1,39 @@
+package com.steviecodesit.ourhomedev.household;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Opaque position in an inbox listed newest first: the createdAt and household id of the last invite on a page
+final class InboxCursor {
+
+    final long createdAt;
+    final String householdId;
+
+    private InboxCursor(long createdAt, String householdId) {
+        this.createdAt = createdAt;
+        this.householdId = householdId;
+    }
+
+    static String after(InboxInvite invite) {
+        String position = invite.getCreatedAt() + "/" + invite.getHouseholdId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Throws IllegalArgumentException for anything after() did not produce
+    static InboxCursor parse(String cursor) {
+        String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = position.indexOf('/');
+        if (separator <= 0 || separator == position.length() - 1) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new InboxCursor(Long.parseLong(position.substring(0, separator)), position.substring(separator + 1));
+    }
+
+    // Whether invite sorts after this position, newest first with ties broken by household id
+    boolean precedes(InboxInvite invite) {
+        if (invite.getCreatedAt() != createdAt) {
+            return invite.getCreatedAt() < createdAt;
+        }
+        return invite.getHouseholdId().compareTo(householdId) < 0;
+    }
+}
@@ -0,0 +1,28 @@
+package com.steviecodesit.ourhomedev.household;
+
+import lombok.*;
+
+// A pending invite as the invitee sees it, stored at users/{inviteeUserId}/inviteInbox/{householdId}.
+// A user has at most one pending invite per household, so the household id doubles as the entry id.
+@Builder(toBuilder = true)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class InboxInvite {
+    private String householdId;
+    private String householdName;
+    private String inviterUserId;
+    private HouseholdMembershipStatus status;
+    private long createdAt; // epoch millis
+
+    static InboxInvite pending(HouseholdInvite invite, long createdAt) {
+        return InboxInvite.builder()
+                .householdId(invite.getHouseholdId())
+                .householdName(invite.getHouseholdName())
+                .inviterUserId(invite.getInviterUserId())
+                .status(HouseholdMembershipStatus.PENDING)
+                .createdAt(createdAt)
+                .build();
+    }
+}
@@ -0,0 +1,41 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.user.UserService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/api/users/me/invites")
+public class InviteInboxController {
+
+    private final HouseholdService householdService;
+    private final UserService userService;
+
+    public InviteInboxController(HouseholdService householdService, UserService userService) {
+        this.householdService = householdService;
+        this.userService = userService;
+    }
+
+    // Pending invites for the caller, newest first; pass nextCursor back as cursor for the following page
+    @GetMapping
+    public CompletableFuture<ResponseEntity<InvitePage>> listInvites(@RequestHeader("Authorization") String userIdToken,
+                                                                     @RequestParam(required = false) String cursor,
+                                                                     @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > 100) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(null));
+        }
+        return FutureUtils.call(() -> userService.verifyTokenAndGetUserId(userIdToken))
+                .handle((userId, e) -> e == null
+                        ? householdService.findPendingInvites(userId, cursor, limit)
+                                .thenApply(ResponseEntity::ok)
+                                .exceptionally(error -> FutureUtils.unwrap(error) instanceof IllegalArgumentException
+                                        ? ResponseEntity.badRequest().<InvitePage>body(null)
+                                        : ResponseEntity.internalServerError().<InvitePage>body(null))
+                        : CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED).<InvitePage>build()))
+                .thenCompose(response -> response);
+    }
+}
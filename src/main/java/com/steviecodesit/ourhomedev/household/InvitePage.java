@@ -0,0 +1,22 @@
+package com.steviecodesit.ourhomedev.household;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class InvitePage {
+    private List<InboxInvite> invites;
+    private String nextCursor; // null on the last page
+
+    // Builds a page from up to limit + 1 invites in order; the extra one only signals that more follow
+    static InvitePage of(List<InboxInvite> invites, int limit) {
+        if (invites.size() <= limit) {
+            return new InvitePage(invites, null);
+        }
+        List<InboxInvite> page = List.copyOf(invites.subList(0, limit));
+        return new InvitePage(page, InboxCursor.after(page.get(limit - 1)));
+    }
+}
@@ -0,0 +1,37 @@
+package com.steviecodesit.ourhomedev.household;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public interface InviteRepository {
+
+    // Runs admit against the household's current state; when it answers SENT, the household it changed,
+    // the invite and the invitee's inbox entry are stored atomically. Answers HOUSEHOLD_NOT_FOUND and CONFLICT itself.
+    CompletableFuture<InviteResult> create(HouseholdInvite invite, Function<Household, InviteResult> admit);
+
+    // Reads the household once and runs admit for each invite in turn, keyed by invitee (a repeated invitee
+    // keeps its first result). Invites answered SENT are stored with their pending members, in chunks that
+    // fit one write batch each together with their inbox entries; a chunk that cannot be stored answers FAILED for its invitees.
+    CompletableFuture<Map<String, InviteResult>> createAll(String householdId, List<HouseholdInvite> invites, BiFunction<Household, HouseholdInvite, InviteResult> admit);
+
+    // One page of the user's pending invites, newest first. cursor is null for the first page, otherwise
+    // a nextCursor from an earlier page; anything else fails with IllegalArgumentException.
+    CompletableFuture<InvitePage> findPending(String inviteeUserId, String cursor, int limit);
+
+    // Takes the household's invite out of the user's inbox once it is accepted, declined or cancelled
+    CompletableFuture<Void> resolve(String inviteeUserId, String householdId);
+
+    // Follows the invites created for one household from now on. Running the returned Runnable stops the listener.
+    Runnable listen(String householdId, ChangeListener listener);
+
+    interface ChangeListener {
+
+        void onCreated(HouseholdInvite invite);
+
+        // The listener has stopped and delivers nothing more
+        void onFailed(Throwable error);
+    }
+}
@@ -0,0 +1,10 @@
+package com.steviecodesit.ourhomedev.household;
+
+public enum InviteResult {
+    SENT,
+    HOUSEHOLD_NOT_FOUND,
+    NOT_OWNER,
+    ALREADY_MEMBER,
+    CONFLICT,
+    FAILED
+}
@@ -0,0 +1,9 @@
+package com.steviecodesit.ourhomedev.household;
+
+public enum LeaveResult {
+    LEFT,
+    // The owner left and the longest-standing accepted member now owns the household
+    OWNERSHIP_PASSED,
+    // No accepted member was left, so the household went to the archive
+    ARCHIVED
+}
@@ -0,0 +1,32 @@
+package com.steviecodesit.ourhomedev.household;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+// Members are paged in userId order, which stays put however the stored list is reordered, so the cursor
+// is just the last userId on the page (opaque to clients)
+@Getter
+@AllArgsConstructor
+public class MemberPage {
+    private List<HouseholdMembership> members;
+    private String nextCursor; // null on the last page
+
+    // Builds a page from up to limit + 1 members in order; the extra one only signals that more follow
+    static MemberPage of(List<HouseholdMembership> members, int limit) {
+        if (members.size() <= limit) {
+            return new MemberPage(members, null);
+        }
+        List<HouseholdMembership> page = List.copyOf(members.subList(0, limit));
+        String lastUserId = page.get(limit - 1).getUserId();
+        return new MemberPage(page, Base64.getUrlEncoder().withoutPadding().encodeToString(lastUserId.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // The userId a cursor continues after; throws IllegalArgumentException for anything that is not base64
+    static String afterUserId(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+}
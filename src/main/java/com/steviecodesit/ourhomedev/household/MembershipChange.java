@@ -0,0 +1,72 @@
+package com.steviecodesit.ourhomedev.household;
+
+import java.util.*;
+
+// The member entries a single household write adds, replaces or removes, keyed by userId. Services build
+// one from the household they just read, so repositories can send only these entries instead of
+// rewriting the whole members list. A rejected change carries the reason and writes nothing.
+public class MembershipChange {
+
+    private final Map<String, HouseholdMembership> puts = new LinkedHashMap<>();
+    private final Set<String> removals = new LinkedHashSet<>();
+    private String rejection;
+
+    public static MembershipChange none() {
+        return new MembershipChange();
+    }
+
+    public static MembershipChange reject(String reason) {
+        MembershipChange change = new MembershipChange();
+        change.rejection = reason;
+        return change;
+    }
+
+    // Adds the membership, or replaces the entry already held by its user
+    public MembershipChange put(HouseholdMembership membership) {
+        removals.remove(membership.getUserId());
+        puts.put(membership.getUserId(), membership);
+        return this;
+    }
+
+    public MembershipChange remove(String userId) {
+        puts.remove(userId);
+        removals.add(userId);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return puts.isEmpty() && removals.isEmpty();
+    }
+
+    public String getRejection() {
+        return rejection;
+    }
+
+    // Users whose current entries have to come out of the list before the puts go in
+    Set<String> getReplacedUserIds() {
+        Set<String> replaced = new LinkedHashSet<>(removals);
+        replaced.addAll(puts.keySet());
+        return replaced;
+    }
+
+    Collection<HouseholdMembership> getPuts() {
+        return puts.values();
+    }
+
+    Set<String> getRemovals() {
+        return removals;
+    }
+
+    // Mirrors what the stored write does: replaced entries are dropped and the puts appended
+    void applyTo(Household household) {
+        Set<String> replaced = getReplacedUserIds();
+        List<HouseholdMembership> members = new ArrayList<>();
+        for (HouseholdMembership member : household.getMembers()) {
+            if (!replaced.contains(member.getUserId())) {
+                members.add(member);
+            }
+        }
+        members.addAll(puts.values());
+        household.setMembers(members);
+    }
+}
@@ -0,0 +1,65 @@
+package com.steviecodesit.ourhomedev.metrics;
+
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Times every Firestore and Firebase Auth call: a timer per operation and outcome, a gauge of calls in
+// flight, and the call's share of the current request's downstream time.
+@Component
+public class DownstreamMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<Tags, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public DownstreamMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> CompletableFuture<T> firestore(String collection, String operation, Supplier<CompletableFuture<T>> call) {
+        return record("firestore.operations", Tags.of("collection", collection, "operation", operation), call);
+    }
+
+    public <T> CompletableFuture<T> firebaseAuth(String operation, Supplier<CompletableFuture<T>> call) {
+        return record("firebase.auth.operations", Tags.of("operation", operation), call);
+    }
+
+    public void firestoreListenerChanges(String collection, int changes) {
+        Counter.builder("firestore.listener.changes")
+                .tag("collection", collection)
+                .register(registry)
+                .increment(changes);
+    }
+
+    private <T> CompletableFuture<T> record(String name, Tags tags, Supplier<CompletableFuture<T>> call) {
+        AtomicInteger calls = inFlight.computeIfAbsent(tags.and("name", name),
+                key -> registry.gauge(name + ".in.flight", tags, new AtomicInteger()));
+        RequestTimings timings = RequestTimings.current();
+        Timer.Sample sample = Timer.start(registry);
+        calls.incrementAndGet();
+        if (timings != null) {
+            timings.downstreamStarted(System.nanoTime());
+        }
+
+        return FutureUtils.call(call::get).whenComplete((result, error) -> {
+            if (timings != null) {
+                timings.downstreamFinished(System.nanoTime());
+            }
+            calls.decrementAndGet();
+            sample.stop(Timer.builder(name)
+                    .tags(tags)
+                    .tag("outcome", error == null ? "success" : "error")
+                    .tag("exception", error == null ? "none" : FutureUtils.unwrap(error).getClass().getSimpleName())
+                    .register(registry));
+        });
+    }
+}
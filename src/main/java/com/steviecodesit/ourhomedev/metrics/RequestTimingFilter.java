@@ -0,0 +1,85 @@
+package com.steviecodesit.ourhomedev.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.time.Duration;
+
+// Splits each endpoint's time into downstream time (Firestore and Firebase Auth calls in flight) and
+// local time (everything else). Async endpoints are recorded when their response completes.
+@Component
+public class RequestTimingFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry registry;
+
+    public RequestTimingFilter(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        long start = System.nanoTime();
+        RequestTimings timings = new RequestTimings();
+        RequestTimings previous = RequestTimings.set(timings);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestTimings.restore(previous);
+        }
+
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    record(request, response, timings, start);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                    event.getAsyncContext().addListener(this);
+                }
+            });
+        } else {
+            record(request, response, timings, start);
+        }
+    }
+
+    private void record(HttpServletRequest request, HttpServletResponse response, RequestTimings timings, long start) {
+        long now = System.nanoTime();
+        long totalNanos = now - start;
+        long downstreamNanos = Math.min(timings.getDownstreamNanos(now), totalNanos);
+
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+        timer("ourhome.requests.downstream", request, response, uri).record(Duration.ofNanos(downstreamNanos));
+        timer("ourhome.requests.local", request, response, uri).record(Duration.ofNanos(totalNanos - downstreamNanos));
+    }
+
+    private Timer timer(String name, HttpServletRequest request, HttpServletResponse response, String uri) {
+        return Timer.builder(name)
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .tag("status", Integer.toString(response.getStatus()))
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,48 @@
+package com.steviecodesit.ourhomedev.metrics;
+
+// Wall time during which a request had at least one Firestore or Firebase Auth call in flight.
+// Overlapping calls count once, so downstream time never exceeds the request's own duration.
+// The current request's timings follow its futures across threads via FutureUtils.
+public class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private int inFlight;
+    private long busySince;
+    private long downstreamNanos;
+
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    // Makes timings current on this thread and returns what was current before, for restore()
+    public static RequestTimings set(RequestTimings timings) {
+        RequestTimings previous = CURRENT.get();
+        if (timings == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(timings);
+        }
+        return previous;
+    }
+
+    public static void restore(RequestTimings previous) {
+        set(previous);
+    }
+
+    public synchronized void downstreamStarted(long nowNanos) {
+        if (inFlight++ == 0) {
+            busySince = nowNanos;
+        }
+    }
+
+    public synchronized void downstreamFinished(long nowNanos) {
+        if (inFlight > 0 && --inFlight == 0) {
+            downstreamNanos += nowNanos - busySince;
+        }
+    }
+
+    public synchronized long getDownstreamNanos(long nowNanos) {
+        return inFlight > 0 ? downstreamNanos + (nowNanos - busySince) : downstreamNanos;
+    }
+}
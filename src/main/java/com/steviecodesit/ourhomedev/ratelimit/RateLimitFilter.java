@@ -0,0 +1,193 @@
+package com.steviecodesit.ourhomedev.ratelimit;
+
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Throttles /api requests in process before they reach a controller and fan out to Firebase Auth and Firestore.
+// Each endpoint has its own limit and one token bucket per caller: the user, when the request carries an ID token
+// that was already verified (read from the verifier's cache, so the check never calls Firebase), else the client IP.
+// Rejected requests get 429 with Retry-After. Buckets that have refilled are dropped every eviction interval.
+@Component
+@ConditionalOnProperty(name = "ourhome.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final IdTokenVerifier idTokenVerifier;
+    private final List<Rule> rules;
+    private final Rule fallback;
+    private final LongSupplier nanoClock;
+    private final long evictionIntervalSeconds;
+    private ScheduledExecutorService evictor;
+
+    @Autowired
+    public RateLimitFilter(IdTokenVerifier idTokenVerifier, MeterRegistry registry,
+                           @Value("${ourhome.rate-limit.login:20/1m}") String login,
+                           @Value("${ourhome.rate-limit.register:5/1m}") String register,
+                           @Value("${ourhome.rate-limit.search-users:60/1m}") String searchUsers,
+                           @Value("${ourhome.rate-limit.default:300/1m}") String fallback,
+                           @Value("${ourhome.rate-limit.eviction-interval-seconds:60}") long evictionIntervalSeconds) {
+        this(idTokenVerifier, registry, Map.of(
+                "/api/users/login", login,
+                "/api/users/register", register,
+                "/api/households/search-users", searchUsers), fallback, evictionIntervalSeconds, System::nanoTime);
+    }
+
+    // limits maps a request path to its limit, written as requests per period, e.g. "20/1m"; an empty limit means none.
+    // The fallback limit covers every other /api path.
+    public RateLimitFilter(IdTokenVerifier idTokenVerifier, MeterRegistry registry, Map<String, String> limits, String fallback,
+                           long evictionIntervalSeconds, LongSupplier nanoClock) {
+        this.idTokenVerifier = idTokenVerifier;
+        this.rules = limits.entrySet().stream().map(limit -> Rule.parse(limit.getKey(), limit.getValue(), registry)).toList();
+        this.fallback = Rule.parse("/api/**", fallback, registry);
+        this.evictionIntervalSeconds = evictionIntervalSeconds;
+        this.nanoClock = nanoClock;
+        Gauge.builder("ratelimit.buckets", this, RateLimitFilter::bucketCount).register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, evictionIntervalSeconds, evictionIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !path(request).startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        long waitNanos = check(request);
+        if (waitNanos == 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999))));
+        response.setContentType("text/plain");
+        response.getWriter().write("Too many requests, please try again later.");
+    }
+
+    // Takes a token from the caller's bucket for the request's endpoint; answers 0 to let the request through,
+    // otherwise how many nanos until it would be
+    long check(HttpServletRequest request) {
+        String path = path(request);
+        Rule rule = fallback;
+        for (Rule candidate : rules) {
+            if (candidate.path.equals(path)) {
+                rule = candidate;
+                break;
+            }
+        }
+        if (rule.nanosPerToken == 0) {
+            return 0;
+        }
+
+        long now = nanoClock.getAsLong();
+        Rule limited = rule;
+        long waitNanos = rule.buckets.computeIfAbsent(caller(request), caller -> new TokenBucket(limited.capacity, limited.nanosPerToken, now))
+                .tryAcquire(now);
+        if (waitNanos > 0) {
+            rule.rejected.increment();
+        }
+        return waitNanos;
+    }
+
+    // A bucket removed while a request is taking from it costs at most one extra token for that caller
+    void evictIdle() {
+        long now = nanoClock.getAsLong();
+        fallback.buckets.values().removeIf(bucket -> bucket.isFull(now));
+        rules.forEach(rule -> rule.buckets.values().removeIf(bucket -> bucket.isFull(now)));
+    }
+
+    int bucketCount() {
+        return fallback.buckets.size() + rules.stream().mapToInt(rule -> rule.buckets.size()).sum();
+    }
+
+    private String caller(HttpServletRequest request) {
+        String idToken = request.getHeader("Authorization");
+        if (idToken != null && !idToken.isEmpty()) {
+            String userId = idTokenVerifier.cachedUserId(idToken).orElse(null);
+            if (userId != null) {
+                return "user:" + userId;
+            }
+        }
+        // Behind a proxy, set server.forward-headers-strategy so this is the client's address rather than the proxy's
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    // The path as Spring MVC routes it: decoded, without ;parameters and with repeated slashes collapsed, so a variant
+    // such as /api/users//login;x that reaches the login handler also takes from the login bucket
+    private static String path(HttpServletRequest request) {
+        return UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+    }
+
+    private static final class Rule {
+
+        private final String path;
+        private final long capacity;
+        // 0 when the endpoint is not limited
+        private final long nanosPerToken;
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final Counter rejected;
+
+        private Rule(String path, long capacity, long nanosPerToken, Counter rejected) {
+            this.path = path;
+            this.capacity = capacity;
+            this.nanosPerToken = nanosPerToken;
+            this.rejected = rejected;
+        }
+
+        static Rule parse(String path, String limit, MeterRegistry registry) {
+            Counter rejected = Counter.builder("ratelimit.rejected").tag("uri", path).register(registry);
+            if (limit == null || limit.isBlank()) {
+                return new Rule(path, 0, 0, rejected);
+            }
+            String[] parts = limit.trim().split("/", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Rate limit for " + path + " must be requests/period, e.g. 20/1m, not " + limit);
+            }
+            long capacity = Long.parseLong(parts[0].trim());
+            long periodNanos = DurationStyle.detectAndParse(parts[1].trim()).toNanos();
+            if (capacity <= 0 || periodNanos < capacity) {
+                throw new IllegalArgumentException("Rate limit for " + path + " must allow at least one request per period, not " + limit);
+            }
+            return new Rule(path, capacity, periodNanos / capacity, rejected);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.steviecodesit.ourhomedev.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A token bucket held in a single atomic long, so a check is one read and one compare-and-set, with no lock.
+// Rather than a token count it stores the time the bucket was (or will be) empty: the tokens on hand are the
+// time elapsed since then in refill intervals, capped at the capacity.
+public class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long nanosToFill;
+    private final AtomicLong emptyAt;
+
+    // Starts full
+    public TokenBucket(long capacity, long nanosPerToken, long nowNanos) {
+        if (capacity <= 0 || nanosPerToken <= 0) {
+            throw new IllegalArgumentException("capacity and nanosPerToken must be positive");
+        }
+        this.nanosPerToken = nanosPerToken;
+        this.nanosToFill = capacity * nanosPerToken;
+        this.emptyAt = new AtomicLong(nowNanos - nanosToFill);
+    }
+
+    // Takes a token; answers 0 when one was available, otherwise how many nanos until the next one is
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = emptyAt.get();
+            long next = Math.max(current, nowNanos - nanosToFill) + nanosPerToken;
+            if (next > nowNanos) {
+                return next - nowNanos;
+            }
+            if (emptyAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // A full bucket is no different from a new one, so it can be dropped
+    public boolean isFull(long nowNanos) {
+        return nowNanos - emptyAt.get() >= nanosToFill;
+    }
+}
@@ -0,0 +1,127 @@
+package com.steviecodesit.ourhomedev.reconcile;
+
+import com.google.cloud.firestore.*;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.household.FirestoreErrors;
+import com.steviecodesit.ourhomedev.household.FirestoreVersions;
+import com.steviecodesit.ourhomedev.household.Household;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import com.steviecodesit.ourhomedev.user.User;
+import io.grpc.Status;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// Reads page with startAfter on the ordered fields rather than offsets, so every page costs only the documents
+// it returns. indexByHousehold needs a composite index on householdMemberships (householdId, userId, __name__).
+@Repository
+@Profile("!in-memory")
+public class FirestoreMembershipStore implements MembershipStore {
+
+    private static final String HOUSEHOLDS = "households";
+    private static final String MEMBERSHIPS = "householdMemberships";
+    private static final String USERS = "users";
+
+    private final Firestore firestore;
+    private final DownstreamMetrics metrics;
+
+    public FirestoreMembershipStore(Firestore firestore, DownstreamMetrics metrics) {
+        this.firestore = firestore;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletableFuture<List<Household>> households(Household after, int limit) {
+        Query query = firestore.collection(HOUSEHOLDS).orderBy(FieldPath.documentId());
+        if (after != null) {
+            query = query.startAfter(after.getId());
+        }
+        return page(HOUSEHOLDS, query.limit(limit), snapshot -> {
+            Household household = snapshot.toObject(Household.class);
+            household.setId(snapshot.getId());
+            return household;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<IndexEntry>> indexByHousehold(IndexEntry after, int limit) {
+        Query query = firestore.collection(MEMBERSHIPS).orderBy("householdId").orderBy("userId").orderBy(FieldPath.documentId());
+        if (after != null) {
+            query = query.startAfter(after.householdId(), after.userId(), after.id());
+        }
+        return page(MEMBERSHIPS, query.limit(limit), FirestoreMembershipStore::toIndexEntry);
+    }
+
+    @Override
+    public CompletableFuture<List<IndexEntry>> indexByUser(IndexEntry after, int limit) {
+        Query query = firestore.collection(MEMBERSHIPS).orderBy("userId").orderBy(FieldPath.documentId());
+        if (after != null) {
+            query = query.startAfter(after.userId(), after.id());
+        }
+        return page(MEMBERSHIPS, query.limit(limit), FirestoreMembershipStore::toIndexEntry);
+    }
+
+    @Override
+    public CompletableFuture<List<StoredUser>> users(StoredUser after, int limit) {
+        // Only the membership is needed, so the rest of each user document stays on the server
+        Query query = firestore.collection(USERS).select("householdMembership").orderBy(FieldPath.documentId());
+        if (after != null) {
+            query = query.startAfter(after.id());
+        }
+        return page(USERS, query.limit(limit), snapshot -> new StoredUser(snapshot.getId(),
+                snapshot.toObject(User.class).getHouseholdMembership(), FirestoreVersions.of(snapshot.getUpdateTime())));
+    }
+
+    @Override
+    public CompletableFuture<Integer> write(List<Repair> repairs) {
+        return commit(repairs).thenApply(committed -> 0).exceptionallyCompose(e -> {
+            if (!isConflict(FutureUtils.unwrap(e))) {
+                return CompletableFuture.failedFuture(e);
+            }
+            if (repairs.size() == 1) {
+                return CompletableFuture.completedFuture(1);
+            }
+            // One user changed since the scan fails the whole batch; the others still go through, one at a time
+            CompletableFuture<Integer> skipped = CompletableFuture.completedFuture(0);
+            for (Repair repair : repairs) {
+                skipped = skipped.thenCompose(count -> write(List.of(repair)).thenApply(conflict -> count + conflict));
+            }
+            return skipped;
+        });
+    }
+
+    private CompletableFuture<List<WriteResult>> commit(List<Repair> repairs) {
+        return metrics.firestore(MEMBERSHIPS, "reconcile", () -> {
+            WriteBatch batch = firestore.batch();
+            for (Repair repair : repairs) {
+                if (repair instanceof Repair.PutIndex put) {
+                    batch.set(firestore.collection(MEMBERSHIPS).document(put.id()), put.membership());
+                } else if (repair instanceof Repair.DeleteIndex delete) {
+                    batch.delete(firestore.collection(MEMBERSHIPS).document(delete.id()));
+                } else if (repair instanceof Repair.SetUserMembership user) {
+                    batch.update(firestore.collection(USERS).document(user.userId()), Precondition.updatedAt(FirestoreVersions.toUpdateTime(user.version())),
+                            "householdMembership", user.membership());
+                }
+            }
+            return FutureUtils.toCompletableFuture(batch.commit());
+        });
+    }
+
+    // A user written since the scan fails its precondition; one deleted since fails as not found
+    private static boolean isConflict(Throwable error) {
+        return FirestoreErrors.hasStatus(error, Status.Code.FAILED_PRECONDITION) || FirestoreErrors.hasStatus(error, Status.Code.NOT_FOUND);
+    }
+
+    private static IndexEntry toIndexEntry(DocumentSnapshot snapshot) {
+        return new IndexEntry(snapshot.getId(), snapshot.toObject(HouseholdMembership.class));
+    }
+
+    private <T> CompletableFuture<List<T>> page(String collection, Query query, Function<DocumentSnapshot, T> convert) {
+        return metrics.firestore(collection, "scan", () -> FutureUtils.toCompletableFuture(query.get()))
+                .thenApply(page -> page.getDocuments().stream().map(convert).toList());
+    }
+}
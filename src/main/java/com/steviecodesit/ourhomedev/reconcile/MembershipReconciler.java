@@ -0,0 +1,330 @@
+package com.steviecodesit.ourhomedev.reconcile;
+
+import com.steviecodesit.ourhomedev.household.Household;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import com.steviecodesit.ourhomedev.household.HouseholdMembershipStatus;
+import com.steviecodesit.ourhomedev.ratelimit.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Household membership is kept in three places: the household's members, which every decision reads and so
+// count as the truth, the user's householdMembership, and the householdMemberships collection. Writes to the
+// latter two are not atomic with the first, so they drift. Every interval this walks all three in key order and
+// puts the copies back in line, in two sorted merges that each hold only a page per collection:
+//  1. households against householdMemberships by householdId, then userId, so the collection holds exactly one
+//     entry per member of every household;
+//  2. users against householdMemberships by userId, so a user's householdMembership is their entry in the household
+//     it points at, or else their accepted entry, or else nothing.
+// Repairs are committed in batches at no more than the configured write rate. A user repair only lands if the user
+// is unchanged since the scan read them; a household written during the scan is caught by the next run. The first
+// run starts initial-delay-minutes after startup, so instances that rarely live a whole interval still run one.
+// Each instance with the reconciler enabled runs it, with no lease between them. Concurrent runs are safe, since
+// missing entries are added under their deterministic document id, but every one of them reads everything and
+// repeats the others' writes, so it is off unless enabled, which should be done on a single instance.
+@Log4j2
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "ourhome.household.reconciler.enabled", havingValue = "true", matchIfMissing = false)
+public class MembershipReconciler {
+
+    enum Drift {
+        // A household member without a householdMemberships entry
+        INDEX_MISSING("index-missing"),
+        // An entry that no longer matches the member's role, status or joinedAt
+        INDEX_STALE("index-stale"),
+        // An entry for a household or member that no longer exists, or a duplicate
+        INDEX_ORPHANED("index-orphaned"),
+        // A user with no householdMembership who has accepted a household
+        USER_MISSING("user-missing"),
+        USER_STALE("user-stale"),
+        // A user whose householdMembership points at a household they are no longer in
+        USER_ORPHANED("user-orphaned"),
+        // Entries for a user who no longer exists; counted but not repaired, as the household decides about its members
+        USER_DELETED("user-deleted");
+
+        private final String tag;
+
+        Drift(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final Comparator<Household> HOUSEHOLD_ORDER = Comparator.comparing(Household::getId, PagedCursor.KEY_ORDER);
+    private static final Comparator<MembershipStore.IndexEntry> INDEX_BY_HOUSEHOLD = Comparator
+            .comparing(MembershipStore.IndexEntry::householdId, PagedCursor.KEY_ORDER)
+            .thenComparing(MembershipStore.IndexEntry::userId, PagedCursor.KEY_ORDER)
+            .thenComparing(MembershipStore.IndexEntry::id, PagedCursor.KEY_ORDER);
+    private static final Comparator<MembershipStore.IndexEntry> INDEX_BY_USER = Comparator
+            .comparing(MembershipStore.IndexEntry::userId, PagedCursor.KEY_ORDER)
+            .thenComparing(MembershipStore.IndexEntry::id, PagedCursor.KEY_ORDER);
+    private static final Comparator<MembershipStore.StoredUser> USER_ORDER = Comparator.comparing(MembershipStore.StoredUser::id, PagedCursor.KEY_ORDER);
+
+    private final MembershipStore store;
+    private final int pageSize;
+    private final int batchSize;
+    private final long nanosPerWrite;
+    private final boolean dryRun;
+    private final long initialDelayMinutes;
+    private final long intervalMinutes;
+    private final Map<Drift, Counter> drift = new EnumMap<>(Drift.class);
+    private final Map<Drift, AtomicLong> lastRunDrift = new EnumMap<>(Drift.class);
+    private final Counter written;
+    private final Counter conflicts;
+    private final Timer runs;
+    private volatile boolean stopped;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public MembershipReconciler(MembershipStore store, MeterRegistry registry,
+                                @Value("${ourhome.household.reconciler.page-size:500}") int pageSize,
+                                @Value("${ourhome.household.reconciler.batch-size:100}") int batchSize,
+                                @Value("${ourhome.household.reconciler.writes-per-second:50}") int writesPerSecond,
+                                @Value("${ourhome.household.reconciler.dry-run:false}") boolean dryRun,
+                                @Value("${ourhome.household.reconciler.initial-delay-minutes:5}") long initialDelayMinutes,
+                                @Value("${ourhome.household.reconciler.interval-minutes:360}") long intervalMinutes) {
+        if (pageSize <= 0 || batchSize <= 0 || batchSize > 500 || writesPerSecond <= 0) {
+            throw new IllegalArgumentException("Reconciler page size and write rate must be positive, and batches hold 1 to 500 writes");
+        }
+        this.store = store;
+        this.pageSize = pageSize;
+        this.batchSize = batchSize;
+        this.nanosPerWrite = TimeUnit.SECONDS.toNanos(1) / writesPerSecond;
+        this.dryRun = dryRun;
+        this.initialDelayMinutes = initialDelayMinutes;
+        this.intervalMinutes = intervalMinutes;
+        for (Drift kind : Drift.values()) {
+            drift.put(kind, Counter.builder("household.reconcile.drift").tag("kind", kind.tag).register(registry));
+            AtomicLong found = new AtomicLong();
+            lastRunDrift.put(kind, found);
+            Gauge.builder("household.reconcile.last-run.drift", found, AtomicLong::get).tag("kind", kind.tag).register(registry);
+        }
+        written = Counter.builder("household.reconcile.repairs").tag("outcome", "written").register(registry);
+        conflicts = Counter.builder("household.reconcile.repairs").tag("outcome", "conflict").register(registry);
+        runs = Timer.builder("household.reconcile.runs").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "membership-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                // Whatever was repaired stays repaired; the next run starts over
+                log.warn("Membership reconciliation failed", e);
+            }
+        }, initialDelayMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // One full pass; answers the drift it found, by kind
+    Map<Drift, Long> run() {
+        Map<Drift, Long> found = new EnumMap<>(Drift.class);
+        Writer writer = new Writer();
+        long started = System.nanoTime();
+
+        PagedCursor<Household> households = new PagedCursor<>(store::households, HOUSEHOLD_ORDER, pageSize);
+        PagedCursor<MembershipStore.IndexEntry> index = new PagedCursor<>(store::indexByHousehold, INDEX_BY_HOUSEHOLD, pageSize);
+        while (!stopped && (households.peek() != null || index.peek() != null)) {
+            String householdId = households.peek() == null ? index.peek().householdId()
+                    : index.peek() == null ? households.peek().getId()
+                    : min(households.peek().getId(), index.peek().householdId());
+            Household household = households.peek() != null && Objects.equals(householdId, households.peek().getId()) ? households.next() : null;
+            List<MembershipStore.IndexEntry> entries = new ArrayList<>();
+            while (index.peek() != null && Objects.equals(householdId, index.peek().householdId())) {
+                entries.add(index.next());
+            }
+            reconcileIndex(householdId, household, entries, writer, found);
+        }
+        // The second merge reads the collection the first one repaired
+        writer.flush();
+        long indexScanned = index.count();
+
+        PagedCursor<MembershipStore.StoredUser> users = new PagedCursor<>(store::users, USER_ORDER, pageSize);
+        index = new PagedCursor<>(store::indexByUser, INDEX_BY_USER, pageSize);
+        while (!stopped && (users.peek() != null || index.peek() != null)) {
+            String userId = users.peek() == null ? index.peek().userId()
+                    : index.peek() == null ? users.peek().id()
+                    : min(users.peek().id(), index.peek().userId());
+            MembershipStore.StoredUser user = users.peek() != null && users.peek().id().equals(userId) ? users.next() : null;
+            List<HouseholdMembership> entries = new ArrayList<>();
+            while (index.peek() != null && Objects.equals(userId, index.peek().userId())) {
+                entries.add(index.next().membership());
+            }
+            reconcileUser(userId, user, entries, writer, found);
+        }
+        writer.flush();
+
+        runs.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        lastRunDrift.forEach((kind, count) -> count.set(found.getOrDefault(kind, 0L)));
+        log.info("Membership reconciliation {}: {} households, {} users, {} + {} index entries; drift {}; {} repairs written, {} skipped for newer writes",
+                stopped ? "stopped" : "finished", households.count(), users.count(), indexScanned, index.count(), found, writer.written, writer.conflicts);
+        return found;
+    }
+
+    // Merges the household's members with its householdMemberships entries, both by userId
+    private void reconcileIndex(String householdId, Household household, List<MembershipStore.IndexEntry> entries, Writer writer, Map<Drift, Long> found) {
+        List<HouseholdMembership> members = household == null ? List.of() : household.getMembers().stream()
+                .filter(member -> member.getUserId() != null)
+                .map(member -> member.toBuilder().householdId(householdId).build())
+                .sorted(Comparator.comparing(HouseholdMembership::getUserId, PagedCursor.KEY_ORDER))
+                .toList();
+        int m = 0;
+        int e = 0;
+        String previousUserId = null;
+        while (m < members.size() || e < entries.size()) {
+            HouseholdMembership member = m < members.size() ? members.get(m) : null;
+            MembershipStore.IndexEntry entry = e < entries.size() ? entries.get(e) : null;
+            if (member != null && member.getUserId().equals(previousUserId)) {
+                // A household should not list a user twice; the first entry is the one lookups find
+                m++;
+                continue;
+            }
+            int order = member == null ? 1 : entry == null ? -1 : PagedCursor.KEY_ORDER.compare(member.getUserId(), entry.userId());
+            if (order < 0) {
+                repair(Drift.INDEX_MISSING, new Repair.PutIndex(HouseholdMembership.documentId(householdId, member.getUserId()), member), writer, found);
+                previousUserId = member.getUserId();
+                m++;
+            } else if (order > 0) {
+                repair(Drift.INDEX_ORPHANED, new Repair.DeleteIndex(entry.id()), writer, found);
+                e++;
+            } else {
+                if (!sameMembership(member, entry.membership())) {
+                    repair(Drift.INDEX_STALE, new Repair.PutIndex(entry.id(), member), writer, found);
+                }
+                previousUserId = member.getUserId();
+                m++;
+                e++;
+                while (e < entries.size() && member.getUserId().equals(entries.get(e).userId())) {
+                    repair(Drift.INDEX_ORPHANED, new Repair.DeleteIndex(entries.get(e).id()), writer, found);
+                    e++;
+                }
+            }
+        }
+    }
+
+    // entries are the user's householdMemberships entries, one per household they are listed in
+    private void reconcileUser(String userId, MembershipStore.StoredUser user, List<HouseholdMembership> entries, Writer writer, Map<Drift, Long> found) {
+        if (user == null) {
+            found.merge(Drift.USER_DELETED, 1L, Long::sum);
+            drift.get(Drift.USER_DELETED).increment();
+            log.debug("User {} no longer exists but is listed in {} households", userId, entries.size());
+            return;
+        }
+        HouseholdMembership current = user.membership();
+        HouseholdMembership expected = expectedMembership(current, entries);
+        if (sameMembership(current, expected)) {
+            return;
+        }
+        Drift kind = current == null ? Drift.USER_MISSING : expected == null ? Drift.USER_ORPHANED : Drift.USER_STALE;
+        repair(kind, new Repair.SetUserMembership(user.id(), user.version(), expected), writer, found);
+    }
+
+    // The household the user points at keeps them while it still lists them, a pending request included; otherwise
+    // they belong to the household they have accepted, the longest-standing one should there somehow be several
+    static HouseholdMembership expectedMembership(HouseholdMembership current, List<HouseholdMembership> entries) {
+        if (current != null) {
+            for (HouseholdMembership entry : entries) {
+                if (Objects.equals(entry.getHouseholdId(), current.getHouseholdId()) && entry.getMemberStatus() != HouseholdMembershipStatus.DECLINED) {
+                    return entry;
+                }
+            }
+        }
+        return entries.stream()
+                .filter(entry -> entry.getMemberStatus() == HouseholdMembershipStatus.ACCEPTED)
+                .min(Comparator.comparing(HouseholdMembership::getJoinedAt, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .orElse(null);
+    }
+
+    static boolean sameMembership(HouseholdMembership a, HouseholdMembership b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.getHouseholdId(), b.getHouseholdId())
+                && Objects.equals(a.getUserId(), b.getUserId())
+                && a.getHouseholdRole() == b.getHouseholdRole()
+                && a.getMemberStatus() == b.getMemberStatus()
+                && Objects.equals(a.getJoinedAt(), b.getJoinedAt());
+    }
+
+    private void repair(Drift kind, Repair repair, Writer writer, Map<Drift, Long> found) {
+        found.merge(kind, 1L, Long::sum);
+        drift.get(kind).increment();
+        if (!dryRun) {
+            writer.write(repair);
+        }
+    }
+
+    private static String min(String a, String b) {
+        return PagedCursor.KEY_ORDER.compare(a, b) <= 0 ? a : b;
+    }
+
+    // Collects repairs into batches, taking a token per write so a run never writes faster than the configured rate
+    private final class Writer {
+
+        private final TokenBucket rate = new TokenBucket(batchSize, nanosPerWrite, System.nanoTime());
+        private final List<Repair> pending = new ArrayList<>();
+        private long written;
+        private long conflicts;
+
+        void write(Repair repair) {
+            long waitNanos;
+            while ((waitNanos = rate.tryAcquire(System.nanoTime())) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while pacing repairs", e);
+                }
+            }
+            pending.add(repair);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            int skipped = store.write(List.copyOf(pending)).join();
+            written += pending.size() - skipped;
+            conflicts += skipped;
+            MembershipReconciler.this.written.increment(pending.size() - skipped);
+            MembershipReconciler.this.conflicts.increment(skipped);
+            pending.clear();
+        }
+    }
+}
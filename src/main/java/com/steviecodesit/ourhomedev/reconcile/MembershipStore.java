@@ -0,0 +1,45 @@
+package com.steviecodesit.ourhomedev.reconcile;
+
+import com.steviecodesit.ourhomedev.household.Household;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// The three copies of household membership, read page by page in key order for the reconciler's merges. Each
+// page starts after the given item (null for the first page) and holds at most limit items; keys compare as
+// PagedCursor.KEY_ORDER does.
+public interface MembershipStore {
+
+    // Households by id
+    CompletableFuture<List<Household>> households(Household after, int limit);
+
+    // householdMemberships by householdId, then userId, then document id
+    CompletableFuture<List<IndexEntry>> indexByHousehold(IndexEntry after, int limit);
+
+    // householdMemberships by userId, then document id
+    CompletableFuture<List<IndexEntry>> indexByUser(IndexEntry after, int limit);
+
+    // Users by id
+    CompletableFuture<List<StoredUser>> users(StoredUser after, int limit);
+
+    // Commits the repairs together where it can; answers how many were skipped because the user they would have
+    // changed was written (or deleted) after it was read
+    CompletableFuture<Integer> write(List<Repair> repairs);
+
+    // One householdMemberships document
+    record IndexEntry(String id, HouseholdMembership membership) {
+
+        public String householdId() {
+            return membership.getHouseholdId();
+        }
+
+        public String userId() {
+            return membership.getUserId();
+        }
+    }
+
+    // A user's householdMembership as stored, with the version it was read at
+    record StoredUser(String id, HouseholdMembership membership, String version) {
+    }
+}
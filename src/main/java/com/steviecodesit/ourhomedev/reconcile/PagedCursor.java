@@ -0,0 +1,82 @@
+package com.steviecodesit.ourhomedev.reconcile;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Walks a collection in key order a page at a time, so a scan of any size holds one page. Each page is fetched
+// after the last item seen. The order is checked as items go by: a merge over keys that are out of order would
+// take entries that are present for missing ones, and repair them away.
+final class PagedCursor<T> {
+
+    // Firestore orders strings by their UTF-8 bytes, which is code point order rather than String.compareTo's
+    // UTF-16 order; missing values sort first
+    static final Comparator<String> KEY_ORDER = Comparator.nullsFirst(PagedCursor::compareCodePoints);
+
+    interface PageSource<T> {
+        CompletableFuture<List<T>> after(T last, int limit);
+    }
+
+    private final PageSource<T> source;
+    private final Comparator<T> order;
+    private final int pageSize;
+    private Iterator<T> page = List.<T>of().iterator();
+    private boolean lastPage;
+    private T last;
+    private T next;
+    private long count;
+
+    PagedCursor(PageSource<T> source, Comparator<T> order, int pageSize) {
+        this.source = source;
+        this.order = order;
+        this.pageSize = pageSize;
+    }
+
+    // The next item without taking it; null once the collection is exhausted
+    T peek() {
+        if (next == null && (page.hasNext() || !lastPage)) {
+            if (!page.hasNext()) {
+                List<T> items = source.after(last, pageSize).join();
+                lastPage = items.size() < pageSize;
+                page = items.iterator();
+            }
+            if (page.hasNext()) {
+                T item = page.next();
+                if (last != null && order.compare(last, item) >= 0) {
+                    throw new IllegalStateException("Items arrived out of order: " + item + " after " + last);
+                }
+                last = item;
+                next = item;
+                count++;
+            }
+        }
+        return next;
+    }
+
+    T next() {
+        T item = peek();
+        next = null;
+        return item;
+    }
+
+    // Items read so far
+    long count() {
+        return count;
+    }
+
+    private static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
@@ -0,0 +1,18 @@
+package com.steviecodesit.ourhomedev.reconcile;
+
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+
+// One write that brings a copy of a membership back in line with its household
+public sealed interface Repair {
+
+    // Writes the householdMemberships document, adding it if it does not exist
+    record PutIndex(String id, HouseholdMembership membership) implements Repair {
+    }
+
+    record DeleteIndex(String id) implements Repair {
+    }
+
+    // Sets the user's householdMembership (null clears it), only while the user is still at version
+    record SetUserMembership(String userId, String version, HouseholdMembership membership) implements Repair {
+    }
+}
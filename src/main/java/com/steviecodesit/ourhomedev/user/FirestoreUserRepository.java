@@ -0,0 +1,291 @@
+package com.steviecodesit.ourhomedev.user;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.etag.Versioned;
+import com.steviecodesit.ourhomedev.household.FirestoreErrors;
+import com.steviecodesit.ourhomedev.household.FirestoreVersions;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.grpc.Status;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+@Log4j2
+@Repository
+@Profile("!in-memory")
+public class FirestoreUserRepository implements UserRepository {
+
+    private static final String USERS = "users";
+    private static final String DISPLAY_NAME_RESERVATIONS = "displayNameReservations";
+    private static final String EMAIL_RESERVATIONS = "emailReservations";
+    // Not listened to, unlike users
+    private static final String PRESENCE = "presence";
+    private static final int WRITES_PER_BATCH = 500;
+    // A registration is three creates: the user and their two reservations
+    private static final int REGISTRATIONS_PER_BATCH = WRITES_PER_BATCH / 3;
+    // The most values an 'in' query takes
+    private static final int IN_QUERY_VALUES = 30;
+
+    private final Firestore firestore;
+    private final DownstreamMetrics metrics;
+
+    public FirestoreUserRepository(Firestore firestore, DownstreamMetrics metrics) {
+        this.firestore = firestore;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String newId() {
+        return firestore.collection(USERS).document().getId();
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> findById(String userId) {
+        return metrics.firestore(USERS, "get", () -> FutureUtils.toCompletableFuture(firestore.collection(USERS).document(userId).get()))
+                .thenApply(documentSnapshot -> documentSnapshot.exists()
+                        ? Optional.ofNullable(documentSnapshot.toObject(User.class))
+                        : Optional.empty());
+    }
+
+    @Override
+    public CompletableFuture<Optional<Versioned<User>>> findVersionedById(String userId) {
+        return metrics.firestore(USERS, "get", () -> FutureUtils.toCompletableFuture(firestore.collection(USERS).document(userId).get()))
+                .thenApply(documentSnapshot -> documentSnapshot.exists()
+                        ? Optional.ofNullable(documentSnapshot.toObject(User.class))
+                                .map(user -> new Versioned<>(user, FirestoreVersions.of(documentSnapshot.getUpdateTime())))
+                        : Optional.empty());
+    }
+
+    @Override
+    public CompletableFuture<Map<String, User>> findByEmail(String email) {
+        return findByField("email", email);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, User>> findByDisplayName(String displayName) {
+        return findByField("displayName", displayName);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsByEmail(String email) {
+        return existsByField("email", email);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsByDisplayName(String displayName) {
+        return existsByField("displayName", displayName);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String userId, User user) {
+        return metrics.firestore(USERS, "set", () -> FutureUtils.toCompletableFuture(firestore.collection(USERS).document(userId).set(user)))
+                .thenApply(writeResult -> null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> findLoggedIn(String userId) {
+        return metrics.firestore(PRESENCE, "get", () -> FutureUtils.toCompletableFuture(firestore.collection(PRESENCE).document(userId).get()))
+                .thenApply(documentSnapshot -> documentSnapshot.exists() && Boolean.TRUE.equals(documentSnapshot.getBoolean("loggedIn")));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateLoggedIn(String userId, boolean loggedIn) {
+        return metrics.firestore(PRESENCE, "set", () -> FutureUtils.toCompletableFuture(firestore.collection(PRESENCE).document(userId).set(presence(loggedIn))))
+                .thenApply(writeResult -> null);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateLoggedIn(Map<String, Boolean> loggedIn) {
+        List<Map.Entry<String, Boolean>> entries = List.copyOf(loggedIn.entrySet());
+        CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+        for (int from = 0; from < entries.size(); from += WRITES_PER_BATCH) {
+            List<Map.Entry<String, Boolean>> chunk = entries.subList(from, Math.min(from + WRITES_PER_BATCH, entries.size()));
+            written = written.thenCompose(ignored -> commitLoggedIn(chunk));
+        }
+        return written;
+    }
+
+    @Override
+    public CompletableFuture<RegistrationResult> reserveRegistration(String userId, User user) {
+        String displayName = user.getDisplayName();
+        String email = user.getEmail();
+        DocumentReference displayNameRef = firestore.collection(DISPLAY_NAME_RESERVATIONS).document(reservationId(displayName));
+        DocumentReference emailRef = firestore.collection(EMAIL_RESERVATIONS).document(reservationId(email));
+        DocumentReference userRef = firestore.collection(USERS).document(userId);
+        CollectionReference usersCollection = firestore.collection(USERS);
+
+        // Reservation documents make the name and email claims atomic; the user queries cover accounts created before reservations existed
+        return metrics.firestore(USERS, "reserveRegistration", () -> FutureUtils.toCompletableFuture(firestore.runTransaction(tx -> {
+            ApiFuture<List<DocumentSnapshot>> reservations = tx.getAll(displayNameRef, emailRef);
+            ApiFuture<QuerySnapshot> displayNameUsers = tx.get(usersCollection.whereEqualTo("displayName", displayName).limit(1));
+            ApiFuture<QuerySnapshot> emailUsers = tx.get(usersCollection.whereEqualTo("email", email).limit(1));
+
+            List<DocumentSnapshot> reserved = reservations.get();
+            if (reserved.get(0).exists() || !displayNameUsers.get().isEmpty()) {
+                return RegistrationResult.DISPLAY_NAME_TAKEN;
+            }
+            if (reserved.get(1).exists() || !emailUsers.get().isEmpty()) {
+                return RegistrationResult.EMAIL_TAKEN;
+            }
+
+            tx.create(displayNameRef, Map.of("userId", userId, "displayName", displayName));
+            tx.create(emailRef, Map.of("userId", userId, "email", email));
+            tx.create(userRef, user);
+            return RegistrationResult.RESERVED;
+        })));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RegistrationResult>> reserveRegistrations(Map<String, User> users) {
+        List<Map.Entry<String, User>> entries = List.copyOf(users.entrySet());
+        Map<String, RegistrationResult> results = new LinkedHashMap<>();
+        CompletableFuture<Void> reserved = CompletableFuture.completedFuture(null);
+        for (int from = 0; from < entries.size(); from += REGISTRATIONS_PER_BATCH) {
+            List<Map.Entry<String, User>> chunk = entries.subList(from, Math.min(from + REGISTRATIONS_PER_BATCH, entries.size()));
+            reserved = reserved.thenCompose(ignored -> reserveChunk(chunk, results));
+        }
+        return reserved.thenApply(done -> results);
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseRegistration(String userId, String displayName, String email) {
+        WriteBatch batch = firestore.batch();
+        batch.delete(firestore.collection(DISPLAY_NAME_RESERVATIONS).document(reservationId(displayName)));
+        batch.delete(firestore.collection(EMAIL_RESERVATIONS).document(reservationId(email)));
+        batch.delete(firestore.collection(USERS).document(userId));
+        return metrics.firestore(USERS, "releaseRegistration", () -> FutureUtils.toCompletableFuture(batch.commit()))
+                .thenApply(writeResults -> null);
+    }
+
+    @Override
+    public Runnable listen(ChangeListener listener) {
+        ListenerRegistration registration = firestore.collection(USERS).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                log.warn("Users listener failed", error);
+                return;
+            }
+            metrics.firestoreListenerChanges(USERS, snapshot.getDocumentChanges().size());
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                QueryDocumentSnapshot document = change.getDocument();
+                listener.onChanged(document.getId(), change.getType() == DocumentChange.Type.REMOVED ? null : document.toObject(User.class));
+            }
+            // The first snapshot carries the whole collection
+            listener.onSynced();
+        });
+        return registration::remove;
+    }
+
+    private CompletableFuture<Void> commitLoggedIn(List<Map.Entry<String, Boolean>> chunk) {
+        WriteBatch batch = firestore.batch();
+        chunk.forEach(entry -> batch.set(firestore.collection(PRESENCE).document(entry.getKey()), presence(entry.getValue())));
+        return metrics.firestore(PRESENCE, "setBatch", () -> FutureUtils.toCompletableFuture(batch.commit()))
+                .thenApply(writeResults -> null);
+    }
+
+    private static Map<String, Object> presence(boolean loggedIn) {
+        return Map.of("loggedIn", loggedIn);
+    }
+
+    // Claims a chunk of registrations in one batch of creates, after checking the users collection for accounts from before
+    // reservations existed with a few 'in' queries rather than two queries per user. A reservation taken since then fails
+    // the whole batch, and the chunk falls back to one transaction per user.
+    private CompletableFuture<Void> reserveChunk(List<Map.Entry<String, User>> chunk, Map<String, RegistrationResult> results) {
+        List<String> displayNames = chunk.stream().map(entry -> entry.getValue().getDisplayName()).toList();
+        List<String> emails = chunk.stream().map(entry -> entry.getValue().getEmail()).toList();
+        return existingValues("displayName", displayNames).thenCombine(existingValues("email", emails), (takenDisplayNames, takenEmails) -> {
+            Set<String> displayNameIds = new HashSet<>();
+            Set<String> emailIds = new HashSet<>();
+            List<Map.Entry<String, User>> claimed = new ArrayList<>();
+            for (Map.Entry<String, User> entry : chunk) {
+                User user = entry.getValue();
+                String displayNameId = reservationId(user.getDisplayName());
+                String emailId = reservationId(user.getEmail());
+                if (takenDisplayNames.contains(user.getDisplayName()) || displayNameIds.contains(displayNameId)) {
+                    results.put(entry.getKey(), RegistrationResult.DISPLAY_NAME_TAKEN);
+                } else if (takenEmails.contains(user.getEmail()) || emailIds.contains(emailId)) {
+                    results.put(entry.getKey(), RegistrationResult.EMAIL_TAKEN);
+                } else {
+                    displayNameIds.add(displayNameId);
+                    emailIds.add(emailId);
+                    claimed.add(entry);
+                }
+            }
+            return claimed;
+        }).thenCompose(claimed -> {
+            if (claimed.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            WriteBatch batch = firestore.batch();
+            for (Map.Entry<String, User> entry : claimed) {
+                User user = entry.getValue();
+                batch.create(firestore.collection(DISPLAY_NAME_RESERVATIONS).document(reservationId(user.getDisplayName())),
+                        Map.of("userId", entry.getKey(), "displayName", user.getDisplayName()));
+                batch.create(firestore.collection(EMAIL_RESERVATIONS).document(reservationId(user.getEmail())), Map.of("userId", entry.getKey(), "email", user.getEmail()));
+                batch.create(firestore.collection(USERS).document(entry.getKey()), user);
+            }
+            return metrics.firestore(USERS, "reserveRegistrations", () -> FutureUtils.toCompletableFuture(batch.commit()))
+                    .thenRun(() -> claimed.forEach(entry -> results.put(entry.getKey(), RegistrationResult.RESERVED)))
+                    .exceptionallyCompose(e -> {
+                        if (!FirestoreErrors.hasStatus(FutureUtils.unwrap(e), Status.Code.ALREADY_EXISTS)) {
+                            return CompletableFuture.failedFuture(FutureUtils.unwrap(e));
+                        }
+                        CompletableFuture<Void> oneByOne = CompletableFuture.completedFuture(null);
+                        for (Map.Entry<String, User> entry : claimed) {
+                            oneByOne = oneByOne.thenCompose(ignored -> reserveRegistration(entry.getKey(), entry.getValue()))
+                                    .thenAccept(result -> results.put(entry.getKey(), result));
+                        }
+                        return oneByOne;
+                    });
+        });
+    }
+
+    // Which of the values some user already has in field
+    private CompletableFuture<Set<String>> existingValues(String field, List<String> values) {
+        List<CompletableFuture<QuerySnapshot>> queries = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += IN_QUERY_VALUES) {
+            Query query = firestore.collection(USERS).whereIn(field, List.copyOf(values.subList(from, Math.min(from + IN_QUERY_VALUES, values.size())))).select(field);
+            queries.add(metrics.firestore(USERS, "query", () -> FutureUtils.toCompletableFuture(query.get())));
+        }
+        return CompletableFuture.allOf(queries.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            Set<String> existing = new HashSet<>();
+            queries.forEach(query -> query.join().getDocuments().forEach(document -> existing.add(document.getString(field))));
+            return existing;
+        });
+    }
+
+    private CompletableFuture<Map<String, User>> findByField(String field, String value) {
+        return metrics.firestore(USERS, "query", () -> FutureUtils.toCompletableFuture(firestore.collection(USERS).whereEqualTo(field, value).get()))
+                .thenApply(querySnapshot -> {
+                    Map<String, User> users = new LinkedHashMap<>();
+                    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+                        users.put(document.getId(), document.toObject(User.class));
+                    }
+                    return users;
+                });
+    }
+
+    private CompletableFuture<Boolean> existsByField(String field, String value) {
+        Query query = firestore.collection(USERS).whereEqualTo(field, value).limit(1);
+        return metrics.firestore(USERS, "query", () -> FutureUtils.toCompletableFuture(query.get()))
+                .thenApply(querySnapshot -> !querySnapshot.isEmpty());
+    }
+
+    // Reservations are keyed case-insensitively; hashing keeps characters like '/' out of document ids
+    private static String reservationId(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.steviecodesit.ourhomedev.user;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.etag.Versioned;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Keeps users in process memory for load tests and benchmarks. Stored users are copied on the way
+// in and out, so callers can mutate what they get back just like a Firestore-mapped object. Each user has a
+// version from a counter, bumped on every write, standing in for Firestore's update time.
+@Repository
+@Profile("in-memory")
+public class InMemoryUserRepository implements UserRepository {
+
+    private final SimulatedLatency latency;
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> presence = new ConcurrentHashMap<>();
+    private final AtomicLong versionCounter = new AtomicLong();
+    private final Map<String, String> displayNameReservations = new HashMap<>();
+    private final Map<String, String> emailReservations = new HashMap<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public InMemoryUserRepository(SimulatedLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> findById(String userId) {
+        return latency.apply(() -> Optional.ofNullable(users.get(userId)).map(InMemoryUserRepository::copyOf));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Versioned<User>>> findVersionedById(String userId) {
+        return latency.apply(() -> {
+            // Read the version first: a write landing in between leaves an older version with a newer user, which
+            // costs a client one refetch, where the other order could let it keep stale data
+            String version = versions.get(userId);
+            return Optional.ofNullable(users.get(userId)).map(user -> new Versioned<>(copyOf(user), version));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, User>> findByEmail(String email) {
+        return latency.apply(() -> findBy(User::getEmail, email));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, User>> findByDisplayName(String displayName) {
+        return latency.apply(() -> findBy(User::getDisplayName, displayName));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsByEmail(String email) {
+        return latency.apply(() -> users.values().stream().anyMatch(user -> email.equals(user.getEmail())));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsByDisplayName(String displayName) {
+        return latency.apply(() -> users.values().stream().anyMatch(user -> displayName.equals(user.getDisplayName())));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String userId, User user) {
+        User stored = copyOf(user);
+        return latency.apply(() -> {
+            users.put(userId, stored);
+            notifyChanged(userId, stored);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> findLoggedIn(String userId) {
+        return latency.apply(() -> presence.getOrDefault(userId, false));
+    }
+
+    @Override
+    public CompletableFuture<Void> updateLoggedIn(String userId, boolean loggedIn) {
+        return latency.apply(() -> {
+            presence.put(userId, loggedIn);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> updateLoggedIn(Map<String, Boolean> loggedIn) {
+        Map<String, Boolean> updates = Map.copyOf(loggedIn);
+        return latency.apply(() -> {
+            presence.putAll(updates);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<RegistrationResult> reserveRegistration(String userId, User user) {
+        User stored = copyOf(user);
+        String displayNameKey = reservationKey(user.getDisplayName());
+        String emailKey = reservationKey(user.getEmail());
+        return latency.apply(() -> {
+            synchronized (this) {
+                if (displayNameReservations.containsKey(displayNameKey)) {
+                    return RegistrationResult.DISPLAY_NAME_TAKEN;
+                }
+                if (emailReservations.containsKey(emailKey)) {
+                    return RegistrationResult.EMAIL_TAKEN;
+                }
+                displayNameReservations.put(displayNameKey, userId);
+                emailReservations.put(emailKey, userId);
+                users.put(userId, stored);
+            }
+            notifyChanged(userId, stored);
+            return RegistrationResult.RESERVED;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RegistrationResult>> reserveRegistrations(Map<String, User> users) {
+        Map<String, RegistrationResult> results = new LinkedHashMap<>();
+        CompletableFuture<Void> reserved = CompletableFuture.completedFuture(null);
+        for (Map.Entry<String, User> user : users.entrySet()) {
+            reserved = reserved.thenCompose(previous -> reserveRegistration(user.getKey(), user.getValue()))
+                    .thenAccept(result -> results.put(user.getKey(), result));
+        }
+        return reserved.thenApply(done -> results);
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseRegistration(String userId, String displayName, String email) {
+        return latency.apply(() -> {
+            synchronized (this) {
+                displayNameReservations.remove(reservationKey(displayName), userId);
+                emailReservations.remove(reservationKey(email), userId);
+                users.remove(userId);
+            }
+            notifyChanged(userId, null);
+            return null;
+        });
+    }
+
+    // Sets the user's household membership, or clears it for null, if it still points at householdId. The in-memory
+    // households use this to update their members' users as Firestore does within the household's transaction.
+    public void replaceMembership(String userId, String householdId, HouseholdMembership membership) {
+        AtomicBoolean replaced = new AtomicBoolean();
+        User updated = users.computeIfPresent(userId, (id, user) -> {
+            if (user.getHouseholdMembership() == null || !householdId.equals(user.getHouseholdMembership().getHouseholdId())) {
+                return user;
+            }
+            replaced.set(true);
+            return copyOf(user).toBuilder().householdMembership(membership == null ? null : membership.toBuilder().build()).build();
+        });
+        if (replaced.get()) {
+            notifyChanged(userId, updated);
+        }
+    }
+
+    @Override
+    public Runnable listen(ChangeListener listener) {
+        // Register before replaying so no change is missed; a change seen twice is harmless
+        listeners.add(listener);
+        users.forEach((userId, user) -> listener.onChanged(userId, copyOf(user)));
+        listener.onSynced();
+        return () -> listeners.remove(listener);
+    }
+
+    private Map<String, User> findBy(Function<User, String> field, String value) {
+        Map<String, User> matches = new LinkedHashMap<>();
+        users.forEach((userId, user) -> {
+            if (value.equals(field.apply(user))) {
+                matches.put(userId, copyOf(user));
+            }
+        });
+        return matches;
+    }
+
+    // Every write ends here, after the stored user has changed, so this is also where its version moves on
+    private void notifyChanged(String userId, User user) {
+        if (user == null) {
+            versions.remove(userId);
+        } else {
+            versions.put(userId, Long.toString(versionCounter.incrementAndGet()));
+        }
+        for (ChangeListener listener : listeners) {
+            listener.onChanged(userId, user == null ? null : copyOf(user));
+        }
+    }
+
+    private static String reservationKey(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static User copyOf(User user) {
+        return user.toBuilder()
+                .householdMembership(user.getHouseholdMembership() == null ? null : user.getHouseholdMembership().toBuilder().build())
+                .build();
+    }
+}
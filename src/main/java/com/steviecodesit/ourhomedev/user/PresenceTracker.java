@@ -0,0 +1,134 @@
+package com.steviecodesit.ourhomedev.user;
+
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+
+// Logged-in flags, answered from memory and written behind. Logins and logouts only update the table;
+// a background flusher writes whatever changed since the last flush in batched commits, so a user who
+// toggles several times between flushes costs one write, carrying the latest state. The table holds the users
+// this instance has checked or changed, up to max-size of them, least recently checked dropped first; an entry is
+// read again once it is max-age-seconds old, which is how logins and logouts on other instances reach this one.
+// Flags are stored apart from the user documents, so flushes never wake the users listener. Unwritten changes are
+// held apart from the table, so a change is never lost to eviction.
+@Log4j2
+@Component
+public class PresenceTracker {
+
+    private final UserRepository userRepository;
+    private final long flushIntervalMillis;
+    private final long maxAgeMillis;
+    // Guarded by this, together with unwritten, so a change and an observed state cannot interleave
+    private final ExpiringLruCache<String, Boolean> loggedIn;
+    // Changes not yet stored; an entry only leaves once the value it holds has been written
+    private final Map<String, Boolean> unwritten = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public PresenceTracker(UserRepository userRepository, MeterRegistry registry,
+                           @Value("${ourhome.user.presence.flush-interval-millis:1000}") long flushIntervalMillis,
+                           @Value("${ourhome.user.presence.max-size:100000}") int maxSize,
+                           @Value("${ourhome.user.presence.max-age-seconds:30}") long maxAgeSeconds) {
+        this(userRepository, registry, flushIntervalMillis, maxSize, maxAgeSeconds, System::currentTimeMillis);
+    }
+
+    public PresenceTracker(UserRepository userRepository, MeterRegistry registry, long flushIntervalMillis, int maxSize,
+                           long maxAgeSeconds, LongSupplier clock) {
+        this.userRepository = userRepository;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        this.loggedIn = new ExpiringLruCache<>(maxSize, clock);
+        loggedIn.bindTo(registry, "presence");
+        Gauge.builder("user.presence.unwritten", unwritten, Map::size).register(registry);
+        coalesced = Counter.builder("user.presence.coalesced").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Each flush finishes before the next starts, so two writes of one user can never land out of order
+        flusher.scheduleWithFixedDelay(() -> flush().join(), flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(flushIntervalMillis + 5_000, TimeUnit.MILLISECONDS);
+        }
+        try {
+            flush().get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Could not write presence for {} users on shutdown", unwritten.size(), e);
+        }
+    }
+
+    public synchronized void set(String userId, boolean isLoggedIn) {
+        if (unwritten.put(userId, isLoggedIn) != null) {
+            coalesced.increment();
+        }
+        loggedIn.put(userId, isLoggedIn, expiry());
+    }
+
+    public CompletableFuture<Boolean> isLoggedIn(String userId) {
+        Boolean known = known(userId);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        return FutureUtils.call(() -> userRepository.findLoggedIn(userId)).thenApply(stored -> remember(userId, stored));
+    }
+
+    private synchronized Boolean known(String userId) {
+        Boolean pending = unwritten.get(userId);
+        return pending != null ? pending : loggedIn.get(userId);
+    }
+
+    // A login or logout recorded while the read was out wins over what it found
+    private synchronized boolean remember(String userId, boolean stored) {
+        Boolean current = unwritten.get(userId);
+        if (current == null) {
+            current = loggedIn.peek(userId);
+        }
+        if (current != null) {
+            return current;
+        }
+        loggedIn.put(userId, stored, expiry());
+        return stored;
+    }
+
+    private long expiry() {
+        return loggedIn.currentTimeMillis() + maxAgeMillis;
+    }
+
+    // Writes every unwritten change; failed writes stay queued for the next flush
+    public CompletableFuture<Void> flush() {
+        if (unwritten.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, Boolean> pending = Map.copyOf(unwritten);
+        return FutureUtils.call(() -> userRepository.updateLoggedIn(pending))
+                // Users who changed again during the write keep their newer entry
+                .thenRun(() -> pending.forEach(unwritten::remove))
+                .exceptionally(e -> {
+                    log.warn("Could not write presence for {} users, retrying on the next flush", pending.size(), FutureUtils.unwrap(e));
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,7 @@
+package com.steviecodesit.ourhomedev.user;
+
+public enum RegistrationResult {
+    RESERVED,
+    DISPLAY_NAME_TAKEN,
+    EMAIL_TAKEN
+}
@@ -1,16 +1,22 @@
 package com.steviecodesit.ourhomedev.user;
 
+import com.google.cloud.firestore.annotation.IgnoreExtraProperties;
 import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-@Builder
+// Users stored before presence moved to its own collection still carry a loggedIn field, which is ignored
+@IgnoreExtraProperties
+@Builder(toBuilder = true)
 @Getter
 @Setter
+@NoArgsConstructor
+@AllArgsConstructor
 public class User {
     private String email;
     private String displayName;
-    private boolean isLoggedIn;
     private HouseholdMembership householdMembership;
 }
@@ -2,18 +2,22 @@ package com.steviecodesit.ourhomedev.user;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
-import com.google.firebase.auth.FirebaseToken;
-import com.google.firebase.auth.UserRecord;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
 import com.steviecodesit.ourhomedev.auth.FirebaseAuthService;
+import com.steviecodesit.ourhomedev.etag.ETags;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
 import com.steviecodesit.ourhomedev.request.LoginRequest;
 import com.steviecodesit.ourhomedev.request.RegistrationRequest;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+
 @Log4j2
 @RestController
 @RequestMapping("/api/users")
@@ -22,115 +26,129 @@ public class UserController {
     private final FirebaseAuthService firebaseAuthService;
     private final UserService userService;
     private final FirebaseAuth firebaseAuth;
+    private final DownstreamMetrics metrics;
 
-    public UserController(FirebaseAuthService firebaseAuthService, UserService userService, FirebaseAuth firebaseAuth) {
+    public UserController(FirebaseAuthService firebaseAuthService, UserService userService, FirebaseAuth firebaseAuth, DownstreamMetrics metrics) {
         this.firebaseAuthService = firebaseAuthService;
         this.userService = userService;
         this.firebaseAuth = firebaseAuth;
+        this.metrics = metrics;
     }
 
 
     @PostMapping("/register")
-    public ResponseEntity<String> registerUser(@RequestBody RegistrationRequest registrationRequest, HttpServletResponse response) {
-        try {
-            // Validate input data
-            if (registrationRequest.getEmail() == null || registrationRequest.getEmail().isEmpty() ||
-                    registrationRequest.getPassword() == null || registrationRequest.getPassword().isEmpty() ||
-                    registrationRequest.getUsername() == null || registrationRequest.getUsername().isEmpty()) {
-                return ResponseEntity.badRequest().body("Email, password, and userName are required.");
-            }
-
-            // Check if password is valid
-            String password = registrationRequest.getPassword();
-            if (password == null || !userService.isValidPassword(password)) {
-                return ResponseEntity.badRequest().body("Password must meet the required criteria.");
-            }
-
-            // Check if the display name is unique
-            if (!userService.isDisplayNameUnique(registrationRequest.getUsername())) {
-                return ResponseEntity.badRequest().body("Display name is already taken.");
-            }
-
-            // Check if the email is unique
-            if (!userService.isEmailUnique(registrationRequest.getEmail())) {
-                return ResponseEntity.badRequest().body("A user has already registered with that email.");
-            }
-
-            UserRecord userRecord = firebaseAuthService.registerUser(registrationRequest.getEmail(), registrationRequest.getPassword(), registrationRequest.getUsername());
-
-            // Save userRecord to Firestore
-            userService.saveUser(userRecord);
-
-            // Generate custom token
-            String customToken = firebaseAuth.createCustomToken(userRecord.getUid());
-
-            // Create a new cookie
-            Cookie tokenCookie = new Cookie("customToken", customToken);
-            tokenCookie.setHttpOnly(true);  // This makes the cookie HTTP-only
-            tokenCookie.setSecure(true);  // This makes the cookie secure (works only over HTTPS)
-            tokenCookie.setMaxAge(7 * 24 * 60 * 60); // Sets the cookie's age, e.g., 7 days
-            tokenCookie.setPath("/"); // Sets the path for the cookie
-            response.addCookie(tokenCookie); // Adds the cookie to the response
-
-            return ResponseEntity.ok("User registered successfully!");
-        } catch (FirebaseAuthException e) {
-            log.error("Error during registration: ", e);
-            return ResponseEntity.internalServerError().body("Registration failed.");
+    public CompletableFuture<ResponseEntity<String>> registerUser(@RequestBody RegistrationRequest registrationRequest, HttpServletResponse response) {
+        // Validate input data
+        if (registrationRequest.getEmail() == null || registrationRequest.getEmail().isEmpty() ||
+                registrationRequest.getPassword() == null || registrationRequest.getPassword().isEmpty() ||
+                registrationRequest.getUsername() == null || registrationRequest.getUsername().isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Email, password, and userName are required."));
         }
+
+        // Check if password is valid
+        String password = registrationRequest.getPassword();
+        if (password == null || !userService.isValidPassword(password)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Password must meet the required criteria."));
+        }
+
+        // Check both names at once and claim them together, so concurrent sign-ups cannot take the same ones
+        String userId = userService.newUserId();
+        return FutureUtils.call(() -> userService.reserveRegistration(userId, registrationRequest.getUsername(), registrationRequest.getEmail())).thenCompose(result -> switch (result) {
+            case DISPLAY_NAME_TAKEN -> CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Display name is already taken."));
+            case EMAIL_TAKEN -> CompletableFuture.completedFuture(ResponseEntity.badRequest().body("A user has already registered with that email."));
+            case RESERVED -> firebaseAuthService.registerUser(userId, registrationRequest.getEmail(), registrationRequest.getPassword(), registrationRequest.getUsername())
+                    .thenCompose(userRecord -> {
+                        // A new user starts out logged in
+                        userService.updateIsLoggedInStatus(userRecord.getUid(), true);
+
+                        // Generate custom token
+                        return metrics.firebaseAuth("createCustomToken", () -> FutureUtils.toCompletableFuture(firebaseAuth.createCustomTokenAsync(userRecord.getUid())));
+                    })
+                    .thenApply(customToken -> {
+                        // Create a new cookie
+                        Cookie tokenCookie = new Cookie("customToken", customToken);
+                        tokenCookie.setHttpOnly(true);  // This makes the cookie HTTP-only
+                        tokenCookie.setSecure(true);  // This makes the cookie secure (works only over HTTPS)
+                        tokenCookie.setMaxAge(7 * 24 * 60 * 60); // Sets the cookie's age, e.g., 7 days
+                        tokenCookie.setPath("/"); // Sets the path for the cookie
+                        response.addCookie(tokenCookie); // Adds the cookie to the response
+
+                        return ResponseEntity.ok("User registered successfully!");
+                    });
+        }).exceptionally(e -> {
+            log.error("Error during registration: ", FutureUtils.unwrap(e));
+            return ResponseEntity.internalServerError().body("Registration failed.");
+        });
     }
 
     @PostMapping("/login")
-    public ResponseEntity<String> loginUser(@RequestBody LoginRequest loginRequest, HttpServletResponse response) {
-        try {
-            UserRecord userRecord = firebaseAuth.getUserByEmail(loginRequest.getEmail());
-
-            // Check if the user is already logged in
-            if (userService.isUserLoggedIn(userRecord.getUid())) {
-                return ResponseEntity.badRequest().body("User is already logged in.");
-            }
-
-            // Update isLoggedIn to true for the logged-in user
-             userService.updateIsLoggedInStatus(userRecord.getUid(), true);
-
-            // Generate custom token
-            String customToken = firebaseAuth.createCustomToken(userRecord.getUid());
-
-            // Create a new cookie
-            Cookie tokenCookie = new Cookie("customToken", customToken);
-            tokenCookie.setHttpOnly(true);  // This makes the cookie HTTP-only
-            tokenCookie.setSecure(true);  // This makes the cookie secure (works only over HTTPS)
-            tokenCookie.setMaxAge(7 * 24 * 60 * 60); // Sets the cookie's age, e.g., 7 days
-            tokenCookie.setPath("/"); // Sets the path for the cookie
-            response.addCookie(tokenCookie); // Adds the cookie to the response
-
-            return ResponseEntity.ok("User logged in successfully!");
-        } catch (FirebaseAuthException e) {
-            log.error("Error during login: ", e);
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        }
+    public CompletableFuture<ResponseEntity<String>> loginUser(@RequestBody LoginRequest loginRequest, HttpServletResponse response) {
+        return metrics.firebaseAuth("getUserByEmail", () -> FutureUtils.toCompletableFuture(firebaseAuth.getUserByEmailAsync(loginRequest.getEmail())))
+                .thenCompose(userRecord -> userService.isUserLoggedIn(userRecord.getUid()).thenCompose(isLoggedIn -> {
+                    // Check if the user is already logged in
+                    if (isLoggedIn) {
+                        return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("User is already logged in."));
+                    }
+
+                    // Update isLoggedIn to true for the logged-in user
+                    userService.updateIsLoggedInStatus(userRecord.getUid(), true);
+
+                    // Generate custom token
+                    return metrics.firebaseAuth("createCustomToken", () -> FutureUtils.toCompletableFuture(firebaseAuth.createCustomTokenAsync(userRecord.getUid()))).thenApply(customToken -> {
+                        // Create a new cookie
+                        Cookie tokenCookie = new Cookie("customToken", customToken);
+                        tokenCookie.setHttpOnly(true);  // This makes the cookie HTTP-only
+                        tokenCookie.setSecure(true);  // This makes the cookie secure (works only over HTTPS)
+                        tokenCookie.setMaxAge(7 * 24 * 60 * 60); // Sets the cookie's age, e.g., 7 days
+                        tokenCookie.setPath("/"); // Sets the path for the cookie
+                        response.addCookie(tokenCookie); // Adds the cookie to the response
+
+                        return ResponseEntity.ok("User logged in successfully!");
+                    });
+                }))
+                .exceptionally(e -> {
+                    Throwable cause = FutureUtils.unwrap(e);
+                    log.error("Error during login: ", cause);
+                    if (cause instanceof FirebaseAuthException) {
+                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+                    }
+                    return ResponseEntity.internalServerError().build();
+                });
+    }
+
+    // The caller's own user; answers 304 without a body when If-None-Match holds the current ETag
+    @GetMapping("/me")
+    public CompletableFuture<ResponseEntity<User>> getCurrentUser(@RequestHeader("Authorization") String idToken,
+                                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return FutureUtils.call(() -> userService.verifyTokenAndGetUserId(idToken))
+                .handle((userId, e) -> e == null
+                        ? userService.getVersionedUserById(userId)
+                                .thenApply(user -> ETags.okOrNotModified(user, ifNoneMatch))
+                                .exceptionally(error -> ResponseEntity.status(HttpStatus.NOT_FOUND).build())
+                        : CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED).<User>build()))
+                .thenCompose(response -> response);
     }
 
     @PostMapping("/logout")
-    public ResponseEntity<String> logoutUser(@RequestHeader("Authorization") String idToken, HttpServletResponse response) {
-        try {
-            // Verify and decode the Firebase ID token
-            FirebaseToken decodedToken = firebaseAuth.verifyIdToken(idToken);
-            String userId = decodedToken.getUid();
-
-            // Update isLoggedIn to false for the logged-out user
-            userService.updateIsLoggedInStatus(userId, false);
-
-            // Clear the cookie on successful logout
-            Cookie clearTokenCookie = new Cookie("customToken", null);
-            clearTokenCookie.setMaxAge(0);
-            clearTokenCookie.setHttpOnly(true);
-            clearTokenCookie.setSecure(true);
-            clearTokenCookie.setPath("/");
-            response.addCookie(clearTokenCookie);
-
-            return ResponseEntity.ok("User logged out successfully!");
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Logout failed");
-        }
+    public CompletableFuture<ResponseEntity<String>> logoutUser(@RequestHeader("Authorization") String idToken, HttpServletResponse response) {
+        // Verify and decode the Firebase ID token
+        return metrics.firebaseAuth("verifyIdToken", () -> FutureUtils.toCompletableFuture(firebaseAuth.verifyIdTokenAsync(idToken)))
+                .thenApply(decodedToken -> {
+                    String userId = decodedToken.getUid();
+
+                    // Update isLoggedIn to false for the logged-out user
+                    userService.updateIsLoggedInStatus(userId, false);
+
+                    // Clear the cookie on successful logout
+                    Cookie clearTokenCookie = new Cookie("customToken", null);
+                    clearTokenCookie.setMaxAge(0);
+                    clearTokenCookie.setHttpOnly(true);
+                    clearTokenCookie.setSecure(true);
+                    clearTokenCookie.setPath("/");
+                    response.addCookie(clearTokenCookie);
+
+                    return ResponseEntity.ok("User logged out successfully!");
+                })
+                .exceptionally(e -> ResponseEntity.internalServerError().body("Logout failed"));
     }
 }
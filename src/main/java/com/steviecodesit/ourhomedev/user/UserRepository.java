@@ -0,0 +1,57 @@
+package com.steviecodesit.ourhomedev.user;
+
+import com.steviecodesit.ourhomedev.etag.Versioned;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+public interface UserRepository {
+
+    String newId();
+
+    CompletableFuture<Optional<User>> findById(String userId);
+
+    // The user with the version it is stored at, which changes with every write to it
+    CompletableFuture<Optional<Versioned<User>>> findVersionedById(String userId);
+
+    // Matches keyed by user id, in the store's order
+    CompletableFuture<Map<String, User>> findByEmail(String email);
+
+    CompletableFuture<Map<String, User>> findByDisplayName(String displayName);
+
+    CompletableFuture<Boolean> existsByEmail(String email);
+
+    CompletableFuture<Boolean> existsByDisplayName(String displayName);
+
+    CompletableFuture<Void> save(String userId, User user);
+
+    // Logged-in flags are kept apart from the users themselves, so presence writes never reach users listeners;
+    // a user with no flag stored is logged out
+    CompletableFuture<Boolean> findLoggedIn(String userId);
+
+    CompletableFuture<Void> updateLoggedIn(String userId, boolean loggedIn);
+
+    // Writes many users' flags in batches
+    CompletableFuture<Void> updateLoggedIn(Map<String, Boolean> loggedIn);
+
+    // Claims the user's display name and email and creates the user in one atomic step
+    CompletableFuture<RegistrationResult> reserveRegistration(String userId, User user);
+
+    // Claims many registrations as reserveRegistration would, each on its own: one name or email that is taken, by an
+    // earlier user or another in the same call, does not hold up the rest. Results are keyed by user id.
+    CompletableFuture<Map<String, RegistrationResult>> reserveRegistrations(Map<String, User> users);
+
+    CompletableFuture<Void> releaseRegistration(String userId, String displayName, String email);
+
+    // Replays every stored user, then reports each later change; returns a handle that stops the listener
+    Runnable listen(ChangeListener listener);
+
+    interface ChangeListener {
+
+        // user is null when the user was deleted
+        void onChanged(String userId, User user);
+
+        void onSynced();
+    }
+}
@@ -0,0 +1,251 @@
+package com.steviecodesit.ourhomedev.user;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory autocomplete index over display names. Prefix matches come from a sorted term map; typo-tolerant
+// matches come from a trigram index, confirmed with a bounded edit distance. Emails are only ever matched whole,
+// so a partial address cannot be used to page through everyone's email.
+@Component
+public class UserSearchIndex {
+
+    private static final int GRAM_SIZE = 3;
+    private static final double EXACT_SCORE = 3.0;
+    private static final double PREFIX_SCORE = 2.0;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexedUser> users = new HashMap<>();
+    private final NavigableMap<String, Set<String>> terms = new TreeMap<>();
+    private final Map<String, Set<String>> grams = new HashMap<>();
+    private final Map<String, Set<String>> emails = new HashMap<>();
+    private volatile boolean ready;
+
+    private record IndexedUser(String displayName, String email, List<String> terms, List<String> fuzzyTerms) {
+    }
+
+    private record Match(String userId, String displayName, double score) {
+    }
+
+    public void put(String userId, User user) {
+        List<String> fuzzyTerms = fuzzyTermsOf(user);
+        List<String> userTerms = new ArrayList<>(fuzzyTerms);
+        if (user.getDisplayName() != null) {
+            userTerms.add(normalize(user.getDisplayName()));
+        }
+        String email = user.getEmail() == null ? null : normalize(user.getEmail());
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(userId);
+            users.put(userId, new IndexedUser(user.getDisplayName(), email, userTerms, fuzzyTerms));
+            for (String term : userTerms) {
+                terms.computeIfAbsent(term, t -> new HashSet<>()).add(userId);
+            }
+            for (String term : fuzzyTerms) {
+                for (String gram : gramsOf(term)) {
+                    grams.computeIfAbsent(gram, g -> new HashSet<>()).add(userId);
+                }
+            }
+            if (email != null) {
+                emails.computeIfAbsent(email, e -> new HashSet<>()).add(userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String userId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<UserSummary> search(String query, int offset, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Map<String, Double> scores = new HashMap<>();
+            for (String userId : emails.getOrDefault(normalized, Set.of())) {
+                scores.put(userId, EXACT_SCORE);
+            }
+
+            // Prefix matches, with exact matches and closer-length terms ranked first
+            for (Map.Entry<String, Set<String>> entry : terms.subMap(normalized, true, normalized + Character.MAX_VALUE, true).entrySet()) {
+                double score = entry.getKey().equals(normalized)
+                        ? EXACT_SCORE
+                        : PREFIX_SCORE + (double) normalized.length() / entry.getKey().length() / 2;
+                for (String userId : entry.getValue()) {
+                    scores.merge(userId, score, Math::max);
+                }
+            }
+
+            // Typo-tolerant matches: strings within k edits share at least (grams - k * GRAM_SIZE) trigrams
+            int maxEdits = maxEditsFor(normalized);
+            if (maxEdits > 0) {
+                List<String> queryGrams = gramsOf(normalized);
+                int minSharedGrams = Math.max(1, queryGrams.size() - maxEdits * GRAM_SIZE);
+                Map<String, Integer> sharedGrams = new HashMap<>();
+                for (String gram : queryGrams) {
+                    for (String userId : grams.getOrDefault(gram, Set.of())) {
+                        sharedGrams.merge(userId, 1, Integer::sum);
+                    }
+                }
+                for (Map.Entry<String, Integer> candidate : sharedGrams.entrySet()) {
+                    String userId = candidate.getKey();
+                    if (candidate.getValue() < minSharedGrams || scores.containsKey(userId)) {
+                        continue;
+                    }
+                    int distance = closestDistance(normalized, users.get(userId).fuzzyTerms(), maxEdits);
+                    if (distance <= maxEdits) {
+                        scores.put(userId, 1.0 - (double) distance / (maxEdits + 1));
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                matches.add(new Match(score.getKey(), users.get(score.getKey()).displayName(), score.getValue()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return matches.stream()
+                .sorted(Comparator.comparingDouble(Match::score).reversed()
+                        .thenComparing(match -> Objects.toString(match.displayName(), ""), String.CASE_INSENSITIVE_ORDER)
+                        .thenComparing(Match::userId))
+                .skip(Math.max(0, offset))
+                .limit(limit)
+                .map(match -> new UserSummary(match.userId(), match.displayName()))
+                .toList();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void markReady() {
+        ready = true;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return users.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(String userId) {
+        IndexedUser existing = users.remove(userId);
+        if (existing == null) {
+            return;
+        }
+        for (String term : existing.terms()) {
+            removeFrom(terms, term, userId);
+        }
+        for (String term : existing.fuzzyTerms()) {
+            for (String gram : gramsOf(term)) {
+                removeFrom(grams, gram, userId);
+            }
+        }
+        if (existing.email() != null) {
+            removeFrom(emails, existing.email(), userId);
+        }
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String key, String userId) {
+        Set<String> userIds = index.get(key);
+        if (userIds != null) {
+            userIds.remove(userId);
+            if (userIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    // The words of the display name
+    private static List<String> fuzzyTermsOf(User user) {
+        List<String> fuzzyTerms = new ArrayList<>();
+        if (user.getDisplayName() != null) {
+            for (String word : normalize(user.getDisplayName()).split("\\s+")) {
+                if (!word.isEmpty()) {
+                    fuzzyTerms.add(word);
+                }
+            }
+        }
+        return fuzzyTerms;
+    }
+
+    // Terms are padded with boundary markers so a typo in a short word still leaves shared grams at its ends
+    private static List<String> gramsOf(String term) {
+        String padded = "\u0002" + term + "\u0003";
+        List<String> termGrams = new ArrayList<>();
+        for (int i = 0; i + GRAM_SIZE <= padded.length(); i++) {
+            termGrams.add(padded.substring(i, i + GRAM_SIZE));
+        }
+        return termGrams;
+    }
+
+    private static int maxEditsFor(String query) {
+        if (query.length() <= 3) {
+            return 0;
+        }
+        return query.length() <= 7 ? 1 : 2;
+    }
+
+    // Compares against the whole term and against a prefix of the query's length, so partially typed names still match
+    private static int closestDistance(String query, List<String> candidates, int maxEdits) {
+        int best = Integer.MAX_VALUE;
+        for (String candidate : candidates) {
+            best = Math.min(best, editDistance(query, candidate, maxEdits));
+            if (candidate.length() > query.length()) {
+                best = Math.min(best, editDistance(query, candidate.substring(0, query.length()), maxEdits));
+            }
+        }
+        return best;
+    }
+
+    // Levenshtein distance that gives up once every cell in a row exceeds maxEdits
+    private static int editDistance(String a, String b, int maxEdits) {
+        if (Math.abs(a.length() - b.length()) > maxEdits) {
+            return maxEdits + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > maxEdits) {
+                return maxEdits + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
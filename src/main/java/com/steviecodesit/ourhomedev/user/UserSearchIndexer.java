@@ -0,0 +1,53 @@
+package com.steviecodesit.ourhomedev.user;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+// Loads the users collection into the search index and keeps it current from the repository's change
+// listener, so profile changes made outside this instance still show up in search. It reads every user on startup
+// and every user write after, on each instance that runs it, so it is off unless ourhome.user.search-index.enabled
+// is set; search then stays on exact matches.
+@Component
+@ConditionalOnProperty(name = "ourhome.user.search-index.enabled", havingValue = "true")
+public class UserSearchIndexer {
+
+    private final UserRepository userRepository;
+    private final UserSearchIndex userSearchIndex;
+    private Runnable registration;
+
+    public UserSearchIndexer(UserRepository userRepository, UserSearchIndex userSearchIndex) {
+        this.userRepository = userRepository;
+        this.userSearchIndex = userSearchIndex;
+    }
+
+    // Started once the context is up rather than during it, so a lazily built Firestore client is not waited for
+    // on the startup path; until the first snapshot arrives, search falls back to exact matches anyway
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        registration = userRepository.listen(new UserRepository.ChangeListener() {
+            @Override
+            public void onChanged(String userId, User user) {
+                if (user == null) {
+                    userSearchIndex.remove(userId);
+                } else {
+                    userSearchIndex.put(userId, user);
+                }
+            }
+
+            @Override
+            public void onSynced() {
+                userSearchIndex.markReady();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (registration != null) {
+            registration.run();
+        }
+    }
+}
@@ -1,96 +1,89 @@
 package com.steviecodesit.ourhomedev.user;
 
-import com.google.cloud.firestore.*;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
-import com.google.firebase.auth.UserRecord;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import com.steviecodesit.ourhomedev.etag.Versioned;
 import com.steviecodesit.ourhomedev.household.HouseholdMembership;
 import com.steviecodesit.ourhomedev.household.HouseholdMembershipStatus;
 import com.steviecodesit.ourhomedev.household.HouseholdRole;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+@Log4j2
 @Service
 public class UserService {
 
-    private final Firestore firestore;
-    private final FirebaseAuth firebaseAuth;
+    private final UserRepository userRepository;
+    private final IdTokenVerifier idTokenVerifier;
+    private final UserSearchIndex userSearchIndex;
+    private final PresenceTracker presenceTracker;
 
-    public UserService(Firestore firestore, FirebaseAuth firebaseAuth) {
-        this.firestore = firestore;
-        this.firebaseAuth = firebaseAuth;
+    public UserService(UserRepository userRepository, IdTokenVerifier idTokenVerifier, UserSearchIndex userSearchIndex, PresenceTracker presenceTracker) {
+        this.userRepository = userRepository;
+        this.idTokenVerifier = idTokenVerifier;
+        this.userSearchIndex = userSearchIndex;
+        this.presenceTracker = presenceTracker;
     }
 
-    public void saveUser(UserRecord userRecord) {
-        // Map UserRecord data to your User model
-        User user = User.builder()
-                .email(userRecord.getEmail())
-                .displayName(userRecord.getDisplayName())
-                .isLoggedIn(true)
-                .householdMembership(null)
-                .build();
-
-        // Save the user to Firestore
-        firestore.collection("users").document(userRecord.getUid()).set(user);
-    }
-
-    public void updateIsLoggedInStatus(String userId, boolean isLoggedIn) {
-        firestore.collection("users").document(userId).update("loggedIn", isLoggedIn);
+    public String newUserId() {
+        return userRepository.newId();
     }
 
-    public boolean isUserLoggedIn(String userId) {
-        DocumentReference userDocument = firestore.collection("users").document(userId);
-        try {
-            DocumentSnapshot documentSnapshot = userDocument.get().get();
-            if (documentSnapshot.exists()) {
-                User user = documentSnapshot.toObject(User.class);
-                return user != null && user.isLoggedIn();
+    public CompletableFuture<RegistrationResult> reserveRegistration(String userId, String displayName, String email) {
+        User user = newUser(email, displayName);
+        return userRepository.reserveRegistration(userId, user).thenApply(result -> {
+            if (result == RegistrationResult.RESERVED) {
+                userSearchIndex.put(userId, user);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt(); // Preserve the interruption status
-            // Log the exception or take appropriate action
-            System.err.println("InterruptedException occurred: " + e.getMessage());
-        } catch (ExecutionException e) {
-            // Log the exception or take appropriate action
-            System.err.println("ExecutionException occurred: " + e.getMessage());
-        }
-        return false;
+            return result;
+        });
     }
 
-    public boolean isDisplayNameUnique(String displayName) {
-        CollectionReference usersCollection = firestore.collection("users");
+    // Claims registrations for many users at once, stored as given; see UserRepository.reserveRegistrations
+    public CompletableFuture<Map<String, RegistrationResult>> reserveRegistrations(Map<String, User> users) {
+        return userRepository.reserveRegistrations(users).thenApply(results -> {
+            results.forEach((userId, result) -> {
+                if (result == RegistrationResult.RESERVED) {
+                    userSearchIndex.put(userId, users.get(userId));
+                }
+            });
+            return results;
+        });
+    }
 
-        try {
-            // Query Firestore to check if any document has the same display name
-            Query query = usersCollection.whereEqualTo("displayName", displayName).limit(1);
-            QuerySnapshot querySnapshot = query.get().get();
+    // Undoes reserveRegistration when the Firebase Auth account could not be created
+    public CompletableFuture<Void> releaseRegistration(String userId, String displayName, String email) {
+        userSearchIndex.remove(userId);
+        return userRepository.releaseRegistration(userId, displayName, email);
+    }
 
-            return querySnapshot.isEmpty(); // Return true if no documents match
-        } catch (InterruptedException | ExecutionException e) {
-            // Log the exception or take appropriate action
-            System.err.println("Exception occurred: " + e.getMessage());
-            return false;
-        }
+    // Recorded in memory straight away and written to the store by the presence flusher
+    public void updateIsLoggedInStatus(String userId, boolean isLoggedIn) {
+        presenceTracker.set(userId, isLoggedIn);
     }
 
-    public boolean isEmailUnique(String email) {
-        CollectionReference usersCollection = firestore.collection("users");
+    public CompletableFuture<Boolean> isUserLoggedIn(String userId) {
+        return presenceTracker.isLoggedIn(userId)
+                .exceptionally(e -> {
+                    log.warn("Could not read logged-in status for user {}", userId, FutureUtils.unwrap(e));
+                    return false;
+                });
+    }
 
-        try {
-            // Query Firestore to check if any document has the same email
-            Query query = usersCollection.whereEqualTo("email", email).limit(1);
-            QuerySnapshot querySnapshot = query.get().get();
+    public CompletableFuture<Boolean> isDisplayNameUnique(String displayName) {
+        // Query the store to check if any user has the same display name
+        return isUnique(FutureUtils.call(() -> userRepository.existsByDisplayName(displayName)));
+    }
 
-            return querySnapshot.isEmpty(); // Return true if no documents match
-        } catch (InterruptedException | ExecutionException e) {
-            // Log the exception or take appropriate action
-            System.err.println("Exception occurred: " + e.getMessage());
-            return false;
-        }
+    public CompletableFuture<Boolean> isEmailUnique(String email) {
+        // Query the store to check if any user has the same email
+        return isUnique(FutureUtils.call(() -> userRepository.existsByEmail(email)));
     }
 
     public boolean isValidPassword(String password) {
@@ -103,41 +96,48 @@ public class UserService {
                 && (password.matches(".*[A-Z].*")) && (password.matches(".*[!@#$%^&*()_+\\-=\\[\\]{};':\",.<>/?].*"));
     }
 
-    public List<User> findUserByEmailOrUsername(String query) {
-        CollectionReference usersCollection = firestore.collection("users");
-        List<User> matchingUsers = new ArrayList<>();
+    public CompletableFuture<List<User>> findUserByEmailOrUsername(String query) {
+        return findByEmailOrUsername(query).thenApply(matchingUsers -> List.copyOf(matchingUsers.values()));
+    }
 
-        // Find users by email
-        Query emailQuery = usersCollection.whereEqualTo("email", query);
-        try {
-            QuerySnapshot emailSnapshot = emailQuery.get().get();
-            for (DocumentSnapshot document : emailSnapshot.getDocuments()) {
-                matchingUsers.add(document.toObject(User.class));
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            // Handle exceptions
-        }
+    // Users by id whose email or display name is exactly the query
+    private CompletableFuture<Map<String, User>> findByEmailOrUsername(String query) {
+        // Find users by email and by username at the same time; a failed lookup just contributes no matches
+        CompletableFuture<Map<String, User>> emailMatches = FutureUtils.call(() -> userRepository.findByEmail(query))
+                .exceptionally(e -> {
+                    log.warn("User lookup by email failed", FutureUtils.unwrap(e));
+                    return Map.of();
+                });
+        CompletableFuture<Map<String, User>> usernameMatches = FutureUtils.call(() -> userRepository.findByDisplayName(query))
+                .exceptionally(e -> {
+                    log.warn("User lookup by display name failed", FutureUtils.unwrap(e));
+                    return Map.of();
+                });
+
+        return emailMatches.thenCombine(usernameMatches, (byEmail, byUsername) -> {
+            // Avoid duplicates if any user matches both email and username
+            Map<String, User> matchingUsers = new LinkedHashMap<>(byEmail);
+            byUsername.forEach(matchingUsers::putIfAbsent);
+            return matchingUsers;
+        });
+    }
 
-        // Find users by username (avoid duplicates if any user matches both email and username)
-        Query usernameQuery = usersCollection.whereEqualTo("displayName", query);
-        try {
-            QuerySnapshot usernameSnapshot = usernameQuery.get().get();
-            for (DocumentSnapshot document : usernameSnapshot.getDocuments()) {
-                User user = document.toObject(User.class);
-                if (!matchingUsers.contains(user)) {
-                    matchingUsers.add(user);
-                }
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            // Handle exceptions
+    public CompletableFuture<List<UserSummary>> searchUsers(String query, int offset, int limit) {
+        if (userSearchIndex.isReady()) {
+            return CompletableFuture.completedFuture(userSearchIndex.search(query, offset, limit));
         }
 
-        return matchingUsers;
+        // Until the index has loaded, fall back to exact email / display name matches
+        return findByEmailOrUsername(query)
+                .thenApply(users -> users.entrySet().stream()
+                        .skip(Math.max(0, offset))
+                        .limit(Math.max(0, limit))
+                        .map(entry -> new UserSummary(entry.getKey(), entry.getValue().getDisplayName()))
+                        .toList());
     }
 
-    public void addMembershipToUser(String userId, String householdId, HouseholdRole role, HouseholdMembershipStatus status) throws Exception {
-        User user = getUserById(userId);
-        if (user != null) {
+    public CompletableFuture<Void> addMembershipToUser(String userId, String householdId, HouseholdRole role, HouseholdMembershipStatus status) {
+        return getUserById(userId).thenCompose(user -> {
             HouseholdMembership membership = HouseholdMembership.builder()
                     .householdId(householdId)
                     .userId(userId)
@@ -146,33 +146,51 @@ public class UserService {
                     .build();
 
             user.setHouseholdMembership(membership);
-            firestore.collection("users").document(userId).set(user);
-        }
+            return userRepository.save(userId, user);
+        });
     }
 
-    public void removeMembershipFromUser(String userId, String householdId) throws Exception {
-        User user = getUserById(userId);
+    public CompletableFuture<Void> removeMembershipFromUser(String userId, String householdId) {
+        return getUserById(userId).thenCompose(user -> {
+            if (user.getHouseholdMembership() != null && user.getHouseholdMembership().getHouseholdId().equals(householdId)) {
+                user.setHouseholdMembership(null);
+            }
 
-        if (user.getHouseholdMembership() != null && user.getHouseholdMembership().getHouseholdId().equals(householdId)) {
-            user.setHouseholdMembership(null);
-        }
+            return userRepository.save(userId, user);
+        });
+    }
 
-        firestore.collection("users").document(userId).set(user);
+    public CompletableFuture<String> verifyTokenAndGetUserId(String userIdToken) {
+        return idTokenVerifier.verify(userIdToken).thenApply(FirebaseToken::getUid);
     }
 
-    public String verifyTokenAndGetUserId(String userIdToken) throws FirebaseAuthException {
-        FirebaseToken decodedToken = firebaseAuth.verifyIdToken(userIdToken);
-        return decodedToken.getUid();
+    // The user with their stored version, for conditional reads
+    public CompletableFuture<Versioned<User>> getVersionedUserById(String userId) {
+        return FutureUtils.call(() -> userRepository.findVersionedById(userId)).thenCompose(user -> user
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> CompletableFuture.failedFuture(new Exception("User not found"))));
     }
 
-    public User getUserById(String userId) throws Exception {
-        DocumentReference docRef = firestore.collection("users").document(userId);
-        DocumentSnapshot documentSnapshot = docRef.get().get();
+    public CompletableFuture<User> getUserById(String userId) {
+        return FutureUtils.call(() -> userRepository.findById(userId)).thenCompose(user -> user
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> CompletableFuture.failedFuture(new Exception("User not found"))));
+    }
 
-        if (documentSnapshot.exists()) {
-            return documentSnapshot.toObject(User.class);
-        } else {
-            throw new Exception("User not found");
-        }
+    private static CompletableFuture<Boolean> isUnique(CompletableFuture<Boolean> exists) {
+        return exists
+                .thenApply(found -> !found) // Return true if no user matches
+                .exceptionally(e -> {
+                    log.warn("Uniqueness check failed", FutureUtils.unwrap(e));
+                    return false;
+                });
+    }
+
+    private static User newUser(String email, String displayName) {
+        return User.builder()
+                .email(email)
+                .displayName(displayName)
+                .householdMembership(null)
+                .build();
     }
 }
@@ -0,0 +1,5 @@
+package com.steviecodesit.ourhomedev.user;
+
+// What search shows of a user: enough to pick them for an invite, but not their email or household
+public record UserSummary(String userId, String displayName) {
+}
@@ -0,0 +1,39 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// How many records of an input have been dealt with, kept in a file beside it. Each write replaces the file in one
+// rename, so a crash leaves either the old count or the new one.
+final class ImportCheckpoint {
+
+    private final Path file;
+
+    ImportCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    static ImportCheckpoint beside(Path input) {
+        return new ImportCheckpoint(input.resolveSibling(input.getFileName() + ".checkpoint"));
+    }
+
+    long read() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(file, StandardCharsets.UTF_8).trim());
+    }
+
+    void write(long records) throws IOException {
+        Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(written, Long.toString(records), StandardCharsets.UTF_8);
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Path path() {
+        return file;
+    }
+}
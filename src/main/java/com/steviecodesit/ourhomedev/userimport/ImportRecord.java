@@ -0,0 +1,12 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+// One resident to import. position is the record's place in the input, counting from 1. uid (derived from the email
+// when missing), passwordHash (base64, in the configured hash) and householdId are optional. problem, when set, is
+// why the line could not be read.
+public record ImportRecord(long position, String uid, String email, String displayName, String passwordHash, String householdId,
+                           String problem) {
+
+    static ImportRecord unreadable(long position, String problem) {
+        return new ImportRecord(position, null, null, null, null, null, problem);
+    }
+}
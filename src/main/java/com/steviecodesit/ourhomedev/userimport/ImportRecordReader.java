@@ -0,0 +1,149 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Reads import records a line at a time, so only the current line is held however long the input. A .csv input
+// starts with a header row naming its columns; anything else is read as NDJSON, one object per line. Either way the
+// fields are uid, email, displayName, passwordHash and householdId. Quoted CSV fields may not span lines.
+final class ImportRecordReader implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final BufferedReader reader;
+    private final boolean csv;
+    private Map<String, Integer> columns;
+    private long position;
+
+    ImportRecordReader(Reader reader, boolean csv) {
+        this.reader = new BufferedReader(reader);
+        this.csv = csv;
+    }
+
+    static ImportRecordReader open(Path input) throws IOException {
+        boolean csv = input.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        return new ImportRecordReader(Files.newBufferedReader(input, StandardCharsets.UTF_8), csv);
+    }
+
+    // The next record, or null at the end of the input. A line that cannot be read still makes a record, with its problem.
+    ImportRecord next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isBlank());
+
+        if (csv && columns == null) {
+            columns = header(line);
+            return next();
+        }
+        position++;
+        try {
+            return csv ? fromCsv(line) : fromJson(line);
+        } catch (IllegalArgumentException | JsonProcessingException e) {
+            return ImportRecord.unreadable(position, e.getMessage());
+        }
+    }
+
+    // Passes over records already imported
+    void skip(long records) throws IOException {
+        while (position < records && next() != null) {
+            // Only the position matters
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static Map<String, Integer> header(String line) {
+        List<String> names = fields(line);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim(), i);
+        }
+        if (!columns.containsKey("email") || !columns.containsKey("displayName")) {
+            throw new IllegalArgumentException("The CSV header must name email and displayName columns, not " + line);
+        }
+        return columns;
+    }
+
+    private ImportRecord fromCsv(String line) {
+        List<String> fields = fields(line);
+        return new ImportRecord(position, column(fields, "uid"), column(fields, "email"), column(fields, "displayName"),
+                column(fields, "passwordHash"), column(fields, "householdId"), null);
+    }
+
+    private ImportRecord fromJson(String line) throws JsonProcessingException {
+        JsonNode node = MAPPER.readTree(line);
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object per line");
+        }
+        return new ImportRecord(position, text(node, "uid"), text(node, "email"), text(node, "displayName"),
+                text(node, "passwordHash"), text(node, "householdId"), null);
+    }
+
+    private String column(List<String> fields, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String text(JsonNode node, String name) {
+        JsonNode value = node.get(name);
+        return value == null || value.isNull() || value.asText().isBlank() ? null : value.asText().trim();
+    }
+
+    // Splits a CSV line on commas outside double quotes; a doubled quote inside quotes is a literal one
+    static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.toString().isBlank()) {
+                field.setLength(0);
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,49 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Runs a bulk import from the command line and exits, e.g.
+//   java -jar our-home-dev.jar --spring.main.web-application-type=none --ourhome.user-import.file=residents.csv
+// Exits 0 when every record was imported (or already had been), 2 when some failed (see <file>.errors), and 1 when the
+// import stopped early; running it again with the same file carries on from <file>.checkpoint.
+@Log4j2
+@Component
+@ConditionalOnProperty(name = "ourhome.user-import.file")
+public class UserImportRunner implements ApplicationRunner {
+
+    private final UserImporter userImporter;
+    private final ConfigurableApplicationContext context;
+    private final Path input;
+
+    public UserImportRunner(UserImporter userImporter, ConfigurableApplicationContext context, @Value("${ourhome.user-import.file}") String input) {
+        this.userImporter = userImporter;
+        this.context = context;
+        this.input = Path.of(input);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int exitCode;
+        try {
+            UserImporter.Report report = userImporter.importFile(input);
+            log.info("Import of {} finished after {} records: {} imported, {} already imported, {} failed",
+                    input, report.records(), report.imported(), report.alreadyImported(), report.failed());
+            exitCode = report.failed() > 0 ? 2 : 0;
+        } catch (IOException | RuntimeException e) {
+            log.error("Import of {} stopped; run it again to resume from the last checkpoint", input, e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
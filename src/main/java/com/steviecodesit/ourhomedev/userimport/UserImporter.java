@@ -0,0 +1,414 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.firebase.auth.ErrorInfo;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.ImportUserRecord;
+import com.google.firebase.auth.UidIdentifier;
+import com.google.firebase.auth.UserIdentifier;
+import com.google.firebase.auth.UserRecord;
+import com.google.firebase.auth.UserImportOptions;
+import com.google.firebase.auth.hash.Bcrypt;
+import com.steviecodesit.ourhomedev.async.FutureUtils;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import com.steviecodesit.ourhomedev.household.HouseholdMembershipStatus;
+import com.steviecodesit.ourhomedev.household.HouseholdRepository;
+import com.steviecodesit.ourhomedev.household.HouseholdRole;
+import com.steviecodesit.ourhomedev.household.MembershipChange;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import com.steviecodesit.ourhomedev.user.RegistrationResult;
+import com.steviecodesit.ourhomedev.user.User;
+import com.steviecodesit.ourhomedev.user.UserRepository;
+import com.steviecodesit.ourhomedev.user.UserService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Imports residents in bulk, for onboarding a property manager's existing tenants without a register call per person.
+// A batch of up to 1000 records costs one importUsers call to Firebase Auth, a write batch per 166 users (their user
+// document and name and email reservations, as registration writes them) and one member update per household named.
+// Records whose name or email is taken, or that Auth rejects, fail on their own and have their reservations released.
+// Imported users start logged out; one with a householdId joins that household as an accepted member. A record
+// without a uid gets one derived from its email, so a rerun of a batch that was cut short finds the same user.
+@Log4j2
+@Service
+public class UserImporter {
+
+    // importUsers takes at most 1000 users per call
+    static final int MAX_BATCH_SIZE = 1000;
+    // getUsers looks up at most 100
+    private static final int MAX_LOOKUP_SIZE = 100;
+
+    enum Outcome {
+        IMPORTED,
+        // The record's user and Auth account were both created by an earlier run that was cut short
+        ALREADY_IMPORTED,
+        FAILED
+    }
+
+    // reason says why a record failed, or what went wrong around one that was imported anyway
+    record Result(ImportRecord record, Outcome outcome, String reason) {
+    }
+
+    public record Report(long records, long imported, long alreadyImported, long failed) {
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final FirebaseAuth firebaseAuth;
+    private final UserService userService;
+    private final UserRepository userRepository;
+    private final HouseholdRepository householdRepository;
+    private final DownstreamMetrics metrics;
+    private final int batchSize;
+    // null when the input carries no password hashes
+    private final UserImportOptions options;
+    private final Map<Outcome, Counter> records = new EnumMap<>(Outcome.class);
+
+    @Autowired
+    public UserImporter(FirebaseAuth firebaseAuth, UserService userService, UserRepository userRepository, HouseholdRepository householdRepository,
+                        DownstreamMetrics metrics, MeterRegistry registry,
+                        @Value("${ourhome.user-import.batch-size:1000}") int batchSize,
+                        @Value("${ourhome.user-import.password-hash:NONE}") String passwordHash) {
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Import batches hold 1 to " + MAX_BATCH_SIZE + " records, not " + batchSize);
+        }
+        this.firebaseAuth = firebaseAuth;
+        this.userService = userService;
+        this.userRepository = userRepository;
+        this.householdRepository = householdRepository;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.options = switch (passwordHash.trim().toUpperCase(Locale.ROOT)) {
+            case "NONE" -> null;
+            case "BCRYPT" -> UserImportOptions.withHash(Bcrypt.getInstance());
+            default -> throw new IllegalArgumentException("Unsupported password hash " + passwordHash + ", expected NONE or BCRYPT");
+        };
+        for (Outcome outcome : Outcome.values()) {
+            records.put(outcome, Counter.builder("user.import.records").tag("outcome", outcome.name().toLowerCase(Locale.ROOT)).register(registry));
+        }
+    }
+
+    // Imports the input a batch at a time, holding one batch however long the input. After each batch its failures are
+    // appended to <input>.errors as NDJSON and the count of records done to <input>.checkpoint, where a later run
+    // picks up; a batch that fails as a whole stops the import before its checkpoint, so that run retries it.
+    public Report importFile(Path input) throws IOException {
+        ImportCheckpoint checkpoint = ImportCheckpoint.beside(input);
+        long done = checkpoint.read();
+        long imported = 0;
+        long alreadyImported = 0;
+        long failed = 0;
+        long started = System.nanoTime();
+        Path errorsFile = input.resolveSibling(input.getFileName() + ".errors");
+
+        try (ImportRecordReader reader = ImportRecordReader.open(input);
+             BufferedWriter errors = Files.newBufferedWriter(errorsFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (done > 0) {
+                log.info("Resuming the import of {} after {} records", input, done);
+                reader.skip(done);
+            }
+            List<ImportRecord> batch = new ArrayList<>(batchSize);
+            ImportRecord record;
+            do {
+                record = reader.next();
+                if (record != null) {
+                    batch.add(record);
+                }
+                if (batch.size() == batchSize || (record == null && !batch.isEmpty())) {
+                    for (Result result : importBatch(batch).join()) {
+                        switch (result.outcome()) {
+                            case IMPORTED -> imported++;
+                            case ALREADY_IMPORTED -> alreadyImported++;
+                            case FAILED -> failed++;
+                        }
+                        if (result.reason() != null) {
+                            errors.write(errorLine(result));
+                            errors.newLine();
+                        }
+                    }
+                    errors.flush();
+                    done = batch.get(batch.size() - 1).position();
+                    checkpoint.write(done);
+                    long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+                    log.info("Through record {} of {}: {} imported, {} already imported, {} failed this run, {} records/s",
+                            done, input.getFileName(), imported, alreadyImported, failed, (imported + alreadyImported + failed) / seconds);
+                    batch.clear();
+                }
+            } while (record != null);
+        }
+        return new Report(done, imported, alreadyImported, failed);
+    }
+
+    // Imports up to MAX_BATCH_SIZE records; results are in the records' order
+    public CompletableFuture<List<Result>> importBatch(List<ImportRecord> batch) {
+        if (batch.size() > MAX_BATCH_SIZE) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " records per batch"));
+        }
+        Map<Long, Result> results = new ConcurrentHashMap<>();
+        List<ImportRecord> valid = new ArrayList<>();
+        for (ImportRecord record : batch) {
+            String problem = problem(record);
+            if (problem != null) {
+                results.put(record.position(), new Result(record, Outcome.FAILED, problem));
+            } else {
+                valid.add(record);
+            }
+        }
+
+        return existingHouseholds(valid).thenCompose(households -> {
+            long joinedAt = System.currentTimeMillis();
+            Map<String, ImportRecord> byUserId = new LinkedHashMap<>();
+            Map<String, User> users = new LinkedHashMap<>();
+            for (ImportRecord record : valid) {
+                String userId = record.uid() != null ? record.uid() : derivedUid(record.email());
+                if (record.householdId() != null && !households.contains(record.householdId())) {
+                    results.put(record.position(), new Result(record, Outcome.FAILED, "No household " + record.householdId()));
+                } else if (byUserId.putIfAbsent(userId, record) != null) {
+                    results.put(record.position(), new Result(record, Outcome.FAILED, record.uid() != null
+                            ? "uid " + userId + " appears more than once"
+                            : "Email " + record.email() + " appears more than once"));
+                } else {
+                    users.put(userId, User.builder()
+                            .email(record.email())
+                            .displayName(record.displayName())
+                            .householdMembership(record.householdId() == null ? null : membership(record.householdId(), userId, joinedAt))
+                            .build());
+                }
+            }
+            return userService.reserveRegistrations(users).thenCompose(reservations -> {
+                List<String> creating = new ArrayList<>();
+                Map<String, RegistrationResult> taken = new LinkedHashMap<>();
+                reservations.forEach((userId, reservation) -> {
+                    if (reservation == RegistrationResult.RESERVED) {
+                        creating.add(userId);
+                    } else {
+                        taken.put(userId, reservation);
+                    }
+                });
+                return unfinished(taken, byUserId, results)
+                        .thenCompose(resumed -> {
+                            creating.addAll(resumed);
+                            return createAccounts(creating, users, byUserId, results);
+                        })
+                        .thenCompose(created -> joinHouseholds(users, byUserId, results));
+            });
+        }).thenApply(done -> {
+            List<Result> ordered = batch.stream().map(record -> results.get(record.position())).toList();
+            ordered.forEach(result -> records.get(result.outcome()).increment());
+            return ordered;
+        });
+    }
+
+    private String problem(ImportRecord record) {
+        if (record.problem() != null) {
+            return record.problem();
+        }
+        if (record.email() == null || record.displayName() == null) {
+            return "email and displayName are required";
+        }
+        if (record.passwordHash() != null) {
+            // Auth refuses hashes without the options naming their algorithm, which would fail the whole batch
+            if (options == null) {
+                return "Password hashes need ourhome.user-import.password-hash";
+            }
+            try {
+                Base64.getDecoder().decode(record.passwordHash());
+            } catch (IllegalArgumentException e) {
+                return "passwordHash is not base64";
+            }
+        }
+        return null;
+    }
+
+    // The households named in the batch that exist, one read each
+    private CompletableFuture<Set<String>> existingHouseholds(List<ImportRecord> records) {
+        Map<String, CompletableFuture<Boolean>> lookups = new HashMap<>();
+        for (ImportRecord record : records) {
+            if (record.householdId() != null) {
+                lookups.computeIfAbsent(record.householdId(), householdId -> FutureUtils.call(() -> householdRepository.findById(householdId)).thenApply(Optional::isPresent));
+            }
+        }
+        return CompletableFuture.allOf(lookups.values().toArray(CompletableFuture[]::new)).thenApply(done -> {
+            Set<String> existing = new HashSet<>();
+            lookups.forEach((householdId, exists) -> {
+                if (exists.join()) {
+                    existing.add(householdId);
+                }
+            });
+            return existing;
+        });
+    }
+
+    // A user stored under the record's uid with its email was reserved by an earlier run that stopped before its
+    // checkpoint. Those Firebase Auth has an account for are already imported; the rest are answered, to have their
+    // accounts created now. Anything else taken is somebody else's.
+    private CompletableFuture<List<String>> unfinished(Map<String, RegistrationResult> taken, Map<String, ImportRecord> byUserId, Map<Long, Result> results) {
+        Map<String, CompletableFuture<Boolean>> ours = new LinkedHashMap<>();
+        taken.forEach((userId, reservation) -> {
+            ImportRecord record = byUserId.get(userId);
+            ours.put(userId, FutureUtils.call(() -> userRepository.findById(userId)).thenApply(stored -> {
+                if (stored.filter(user -> record.email().equalsIgnoreCase(user.getEmail())).isPresent()) {
+                    return true;
+                }
+                String reason = reservation == RegistrationResult.DISPLAY_NAME_TAKEN ? "Display name is already taken" : "Email is already registered";
+                results.put(record.position(), new Result(record, Outcome.FAILED, reason));
+                return false;
+            }));
+        });
+        return CompletableFuture.allOf(ours.values().toArray(CompletableFuture[]::new))
+                .thenCompose(checked -> {
+                    List<String> reserved = ours.entrySet().stream().filter(entry -> entry.getValue().join()).map(Map.Entry::getKey).toList();
+                    return withAccounts(reserved).thenApply(accounts -> {
+                        List<String> resumed = new ArrayList<>();
+                        for (String userId : reserved) {
+                            if (accounts.contains(userId)) {
+                                ImportRecord record = byUserId.get(userId);
+                                results.put(record.position(), new Result(record, Outcome.ALREADY_IMPORTED, null));
+                            } else {
+                                resumed.add(userId);
+                            }
+                        }
+                        return resumed;
+                    });
+                });
+    }
+
+    // Which of the users have a Firebase Auth account, a getUsers call per 100
+    private CompletableFuture<Set<String>> withAccounts(List<String> userIds) {
+        List<CompletableFuture<Set<UserRecord>>> lookups = new ArrayList<>();
+        for (int from = 0; from < userIds.size(); from += MAX_LOOKUP_SIZE) {
+            List<UserIdentifier> identifiers = userIds.subList(from, Math.min(from + MAX_LOOKUP_SIZE, userIds.size())).stream()
+                    .<UserIdentifier>map(UidIdentifier::new)
+                    .toList();
+            lookups.add(metrics.firebaseAuth("getUsers", () -> FutureUtils.toCompletableFuture(firebaseAuth.getUsersAsync(identifiers)))
+                    .thenApply(found -> found.getUsers()));
+        }
+        return CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            Set<String> accounts = new HashSet<>();
+            lookups.forEach(found -> found.join().forEach(account -> accounts.add(account.getUid())));
+            return accounts;
+        });
+    }
+
+    // One importUsers call for every reserved user without an account; those Auth rejects are released again
+    private CompletableFuture<Void> createAccounts(List<String> reserved, Map<String, User> users, Map<String, ImportRecord> byUserId, Map<Long, Result> results) {
+        if (reserved.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<ImportUserRecord> accounts = new ArrayList<>();
+        for (String userId : reserved) {
+            ImportRecord record = byUserId.get(userId);
+            ImportUserRecord.Builder account = ImportUserRecord.builder().setUid(userId).setEmail(record.email()).setDisplayName(record.displayName());
+            if (record.passwordHash() != null) {
+                account.setPasswordHash(Base64.getDecoder().decode(record.passwordHash()));
+            }
+            accounts.add(account.build());
+        }
+        return metrics.firebaseAuth("importUsers", () -> FutureUtils.toCompletableFuture(options == null
+                        ? firebaseAuth.importUsersAsync(accounts)
+                        : firebaseAuth.importUsersAsync(accounts, options)))
+                .exceptionallyCompose(e -> release(reserved, users).handle((released, releaseError) -> null)
+                        .thenCompose(ignored -> CompletableFuture.failedFuture(e)))
+                .thenCompose(importResult -> {
+                    Map<String, String> rejected = new LinkedHashMap<>();
+                    for (ErrorInfo error : importResult.getErrors()) {
+                        rejected.put(reserved.get(error.getIndex()), error.getReason());
+                    }
+                    for (String userId : reserved) {
+                        ImportRecord record = byUserId.get(userId);
+                        results.put(record.position(), rejected.containsKey(userId)
+                                ? new Result(record, Outcome.FAILED, "Firebase Auth rejected the account: " + rejected.get(userId))
+                                : new Result(record, Outcome.IMPORTED, null));
+                    }
+                    return release(List.copyOf(rejected.keySet()), users);
+                });
+    }
+
+    // Adds the imported members of each household in one update, those an earlier run imported included in case it
+    // stopped before adding them. A household that cannot be updated leaves its users pointing at it without being
+    // listed, which the membership reconciler clears.
+    private CompletableFuture<Void> joinHouseholds(Map<String, User> users, Map<String, ImportRecord> byUserId, Map<Long, Result> results) {
+        Map<String, List<HouseholdMembership>> joining = new LinkedHashMap<>();
+        users.forEach((userId, user) -> {
+            Result result = results.get(byUserId.get(userId).position());
+            if (user.getHouseholdMembership() != null && result.outcome() != Outcome.FAILED) {
+                joining.computeIfAbsent(user.getHouseholdMembership().getHouseholdId(), householdId -> new ArrayList<>()).add(user.getHouseholdMembership());
+            }
+        });
+        List<CompletableFuture<Void>> updates = new ArrayList<>();
+        joining.forEach((householdId, members) -> updates.add(FutureUtils.call(() -> householdRepository.updateMembers(householdId, household -> {
+            MembershipChange change = MembershipChange.none();
+            members.stream().filter(member -> !household.isMember(member.getUserId())).forEach(change::put);
+            return change;
+        })).handle((updated, e) -> {
+            if (e != null || updated.isEmpty()) {
+                log.warn("Could not add {} imported users to household {}", members.size(), householdId, e == null ? null : FutureUtils.unwrap(e));
+                for (HouseholdMembership member : members) {
+                    ImportRecord record = byUserId.get(member.getUserId());
+                    Outcome outcome = results.get(record.position()).outcome();
+                    results.put(record.position(), new Result(record, outcome, "Imported, but could not be added to household " + householdId));
+                }
+            }
+            return null;
+        })));
+        return CompletableFuture.allOf(updates.toArray(CompletableFuture[]::new));
+    }
+
+    private CompletableFuture<Void> release(List<String> userIds, Map<String, User> users) {
+        return CompletableFuture.allOf(userIds.stream()
+                .map(userId -> userService.releaseRegistration(userId, users.get(userId).getDisplayName(), users.get(userId).getEmail()))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    // The uid of a record without one: the same for the same email on every run, and for no other email
+    static String derivedUid(String email) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hashed = digest.digest(email.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+            return "import-" + Base64.getUrlEncoder().withoutPadding().encodeToString(hashed);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static HouseholdMembership membership(String householdId, String userId, long joinedAt) {
+        return HouseholdMembership.builder()
+                .householdId(householdId)
+                .userId(userId)
+                .householdRole(HouseholdRole.MEMBER)
+                .memberStatus(HouseholdMembershipStatus.ACCEPTED)
+                .joinedAt(joinedAt)
+                .build();
+    }
+
+    private static String errorLine(Result result) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("position", result.record().position());
+        line.put("email", result.record().email());
+        line.put("outcome", result.outcome());
+        line.put("reason", result.reason());
+        try {
+            return MAPPER.writeValueAsString(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
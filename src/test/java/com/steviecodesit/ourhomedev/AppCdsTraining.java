@@ -0,0 +1,103 @@
+package com.steviecodesit.ourhomedev;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Records the class data archive for the appcds profile (see pom.xml) and reports what it buys. The training
+// run starts the thin jar with recording on, drives TrainingWorkload through it and stops it, which is when
+// the JVM writes the archive. On JDK 25+ the archive is an AOT cache, which also keeps the JIT's method
+// profiles from training. The report then starts the jar without and with the archive, and the native binary
+// when one was built, measuring time to ready and how long until request latency settles at its steady p99.
+public final class AppCdsTraining {
+
+    private static final int TRAINING_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 40;
+    private static final int WINDOW = 50;
+    // A window counts as settled once its p99 is within this factor of the steady-state p99
+    private static final double SETTLED = 1.2;
+
+    private record Measurement(String mode, long millisToReady, long millisToSteadyP99, double steadyP99Millis, long rssKilobytes, int failures) {
+    }
+
+    private AppCdsTraining() {
+    }
+
+    // Arguments: the appcds directory, the thin jar's file name in it, and optionally the native binary
+    public static void main(String[] args) throws Exception {
+        Path directory = Path.of(args[0]).toAbsolutePath();
+        String jar = directory.resolve(args[1]).toString();
+        Path nativeBinary = args.length > 2 ? Path.of(args[2]).toAbsolutePath() : null;
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+        boolean aotCache = Runtime.version().feature() >= 25;
+        Path archive = directory.resolve(aotCache ? "our-home-dev.aot" : "our-home-dev.jsa");
+        String recordArchive = aotCache ? "-XX:AOTCacheOutput=" + archive : "-XX:ArchiveClassesAtExit=" + archive;
+        String useArchive = aotCache ? "-XX:AOTCache=" + archive : "-XX:SharedArchiveFile=" + archive;
+        Files.deleteIfExists(archive);
+
+        Path credentials = StartupHarness.fakeServiceAccount();
+        try (StartupHarness.AuthEmulatorStub auth = new StartupHarness.AuthEmulatorStub()) {
+            Map<String, String> environment = Map.of(
+                    "GOOGLE_APPLICATION_CREDENTIALS", credentials.toString(),
+                    "FIREBASE_AUTH_EMULATOR_HOST", auth.host());
+
+            try (StartupHarness.Launched training = StartupHarness.launch("training", List.of(java, recordArchive, "-jar", jar),
+                    environment, directory.resolve("training.log"))) {
+                TrainingWorkload workload = new TrainingWorkload(training.baseUrl(), auth);
+                workload.run("training-", TRAINING_ROUNDS);
+                if (workload.getFailures() > 0) {
+                    System.out.printf("Training saw %d failed requests, see %s%n", workload.getFailures(), directory.resolve("training.log"));
+                }
+            }
+            if (!Files.exists(archive)) {
+                throw new IllegalStateException("The training run wrote no archive, see " + directory.resolve("training.log"));
+            }
+
+            List<Measurement> results = new ArrayList<>();
+            results.add(measure("jar", List.of(java, "-jar", jar), environment, auth, directory));
+            results.add(measure(aotCache ? "jar+aot" : "jar+appcds", List.of(java, useArchive, "-jar", jar), environment, auth, directory));
+            if (nativeBinary != null && Files.isExecutable(nativeBinary)) {
+                results.add(measure("native", List.of(nativeBinary.toString()), environment, auth, directory));
+            }
+
+            StringBuilder report = new StringBuilder(String.format("%-12s %12s %18s %14s %8s %9s%n",
+                    "mode", "ms to ready", "ms to steady p99", "steady p99 ms", "RSS MB", "failures"));
+            for (Measurement result : results) {
+                report.append(String.format("%-12s %12d %18d %14.2f %8d %9d%n", result.mode(), result.millisToReady(),
+                        result.millisToSteadyP99(), result.steadyP99Millis(), result.rssKilobytes() / 1024, result.failures()));
+            }
+            report.append(String.format("%nRun with: java %s -jar %s%n", useArchive, jar));
+            System.out.print(report);
+            Files.writeString(directory.resolve("startup-report.txt"), report);
+        }
+    }
+
+    private static Measurement measure(String mode, List<String> command, Map<String, String> environment,
+                                       StartupHarness.AuthEmulatorStub auth, Path directory) throws Exception {
+        try (StartupHarness.Launched app = StartupHarness.launch(mode, command, environment, directory.resolve(mode + ".log"))) {
+            TrainingWorkload workload = new TrainingWorkload(app.baseUrl(), auth);
+            workload.run(mode + "-", MEASURED_ROUNDS);
+
+            List<Long> latencies = workload.getLatencyNanos();
+            long steadyP99 = p99(latencies.subList(latencies.size() / 2, latencies.size()));
+            long settledAt = workload.getCompletedAtNanos().get(latencies.size() - 1);
+            for (int from = 0; from + WINDOW <= latencies.size(); from++) {
+                if (p99(latencies.subList(from, from + WINDOW)) <= steadyP99 * SETTLED) {
+                    settledAt = workload.getCompletedAtNanos().get(from + WINDOW - 1);
+                    break;
+                }
+            }
+            return new Measurement(mode, app.millisToReady(), (settledAt - app.startNanos()) / 1_000_000, steadyP99 / 1e6,
+                    StartupHarness.rssKilobytes(app.process().pid()), workload.getFailures());
+        }
+    }
+
+    private static long p99(List<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        sorted.sort(null);
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * 0.99) - 1));
+    }
+}
@@ -0,0 +1,54 @@
+package com.steviecodesit.ourhomedev;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Starts the native binary against the in-memory repositories, checks that it becomes ready and serves
+// requests, then compares time to ready and resident memory with the fat jar. Build both first (see the
+// native profile in pom.xml), then run with: ./mvnw test -Dtest=NativeImageSmokeTest -Dnative.smoke=true
+@EnabledIfSystemProperty(named = "native.smoke", matches = "true")
+public class NativeImageSmokeTest {
+
+    private static final Path BINARY = Path.of(System.getProperty("native.binary", "target/our-home-dev"));
+    private static final Path JAR = Path.of(System.getProperty("native.jar", "target/our-home-dev-0.0.1-SNAPSHOT.jar"));
+
+    private record Result(String mode, long millisToReady, long rssKilobytes) {
+    }
+
+    @Test
+    public void compareNativeWithJar() throws Exception {
+        assumeTrue(Files.isExecutable(BINARY), "Build the native image first: " + BINARY);
+        Path credentials = StartupHarness.fakeServiceAccount();
+
+        List<Result> results = new ArrayList<>();
+        results.add(run("native", List.of(BINARY.toAbsolutePath().toString()), credentials));
+        if (Files.exists(JAR)) {
+            results.add(run("jar", List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-jar", JAR.toAbsolutePath().toString()), credentials));
+        }
+
+        System.out.printf("%-8s %16s %12s%n", "mode", "ms to ready", "RSS");
+        for (Result result : results) {
+            System.out.printf("%-8s %16d %9d MB%n", result.mode(), result.millisToReady(), result.rssKilobytes() / 1024);
+        }
+    }
+
+    private Result run(String mode, List<String> command, Path credentials) throws Exception {
+        try (StartupHarness.Launched app = StartupHarness.launch(mode, command, Map.of("GOOGLE_APPLICATION_CREDENTIALS", credentials.toString()),
+                Path.of("target", "native-smoke-" + mode + ".log"))) {
+            // A bad token goes through the filters, a controller and Firebase token parsing
+            assertEquals(401, StartupHarness.get(app.baseUrl() + "/api/users/me/invites", "not-a-token").statusCode(), mode);
+            assertEquals(200, StartupHarness.get(app.baseUrl() + "/actuator/prometheus", null).statusCode(), mode);
+
+            return new Result(mode, app.millisToReady(), StartupHarness.rssKilobytes(app.process().pid()));
+        }
+    }
+}
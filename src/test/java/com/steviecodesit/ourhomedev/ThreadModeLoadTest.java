@@ -0,0 +1,144 @@
+package com.steviecodesit.ourhomedev;
+
+import com.steviecodesit.ourhomedev.config.VirtualThreads;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Drives the packaged app with ourhome.threads.virtual.enabled off and on, against the in-memory repositories with
+// a simulated Firestore round-trip on every read, and checks that virtual threads serve the same load at least as
+// well. Each run keeps more requests in flight than Tomcat has platform threads. Package the jar first, then run
+// with a Java 21 test JVM, which the app inherits:
+// ./mvnw test -Dtest=ThreadModeLoadTest -Dloadtest=true -Djvm=/path/to/java-21/bin/java
+@Log4j2
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+public class ThreadModeLoadTest {
+
+    private static final Path JAR = Path.of(System.getProperty("loadtest.jar", "target/our-home-dev-0.0.1-SNAPSHOT.jar"));
+    private static final int WARMUP_REQUESTS = 2_000;
+    private static final int REQUESTS = 20_000;
+    private static final int CONCURRENCY = 400;
+    private static final long FIRESTORE_LATENCY_MILLIS = 50;
+    // Run to run noise on a shared machine; virtual threads must not fall further behind than this
+    private static final double TOLERANCE = 0.9;
+
+    private record Result(String mode, double requestsPerSecond, double p99Millis, long peakThreads, long rssKilobytes, int failures) {
+    }
+
+    @Test
+    public void compareThreadModes() throws Exception {
+        assumeTrue(VirtualThreads.isSupported(), "Virtual threads require Java 21");
+        assumeTrue(Files.exists(JAR), "Package the jar first: " + JAR);
+        Path credentials = StartupHarness.fakeServiceAccount();
+
+        Result platform;
+        Result virtual;
+        try (StartupHarness.AuthEmulatorStub auth = new StartupHarness.AuthEmulatorStub()) {
+            Map<String, String> environment = Map.of(
+                    "GOOGLE_APPLICATION_CREDENTIALS", credentials.toString(),
+                    "FIREBASE_AUTH_EMULATOR_HOST", auth.host());
+            platform = run("platform", false, environment, auth);
+            virtual = run("virtual", true, environment, auth);
+        }
+
+        for (Result result : List.of(platform, virtual)) {
+            log.info("{}: {} req/s, p99 {} ms, peak {} threads, {} MB RSS, {} failures", result.mode(),
+                    Math.round(result.requestsPerSecond()), String.format("%.1f", result.p99Millis()), result.peakThreads(),
+                    result.rssKilobytes() / 1024, result.failures());
+        }
+        assertEquals(0, platform.failures(), "platform threads");
+        assertEquals(0, virtual.failures(), "virtual threads");
+        assertTrue(virtual.requestsPerSecond() >= platform.requestsPerSecond() * TOLERANCE,
+                () -> "Virtual threads served " + Math.round(virtual.requestsPerSecond()) + " req/s against "
+                        + Math.round(platform.requestsPerSecond()) + " on platform threads");
+    }
+
+    private Result run(String mode, boolean virtualThreads, Map<String, String> environment, StartupHarness.AuthEmulatorStub auth) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = List.of(java, "-jar", JAR.toAbsolutePath().toString(),
+                "--ourhome.threads.virtual.enabled=" + virtualThreads,
+                "--ourhome.repository.in-memory.latency-millis=" + FIRESTORE_LATENCY_MILLIS);
+        try (StartupHarness.Launched app = StartupHarness.launch(mode, command, environment, Path.of("target", "loadtest-" + mode + ".log"))) {
+            String email = mode + "@example.com";
+            assertEquals(200, StartupHarness.post(app.baseUrl() + "/api/users/register", null,
+                    "{\"username\": \"%s\", \"email\": \"%s\", \"password\": \"Loadtest1!\"}".formatted(mode, email)).statusCode(), mode);
+            // Reads the caller's user: one token check, answered from the verifier's cache after the first, and one
+            // repository round-trip
+            HttpRequest request = HttpRequest.newBuilder(URI.create(app.baseUrl() + "/api/users/me"))
+                    .header("Authorization", StartupHarness.idToken(auth.uidOf(email)))
+                    .build();
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            drive(client, request, WARMUP_REQUESTS, new long[WARMUP_REQUESTS]);
+
+            long pid = app.process().pid();
+            AtomicLong peakThreads = new AtomicLong();
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+            sampler.scheduleAtFixedRate(() -> {
+                try {
+                    peakThreads.accumulateAndGet(StartupHarness.threadCount(pid), Math::max);
+                } catch (Exception e) {
+                    // The process is going away
+                }
+            }, 0, 50, TimeUnit.MILLISECONDS);
+
+            long[] latencyNanos = new long[REQUESTS];
+            long start = System.nanoTime();
+            int failures;
+            try {
+                failures = drive(client, request, REQUESTS, latencyNanos);
+            } finally {
+                sampler.shutdownNow();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            Arrays.sort(latencyNanos);
+            double p99Millis = latencyNanos[(int) Math.ceil(REQUESTS * 0.99) - 1] / 1e6;
+            return new Result(mode, REQUESTS / (elapsedNanos / 1e9), p99Millis, peakThreads.get(),
+                    StartupHarness.rssKilobytes(pid), failures);
+        }
+    }
+
+    // Sends count requests, CONCURRENCY at a time, recording each one's latency; answers how many failed
+    private static int drive(HttpClient client, HttpRequest request, int count, long[] latencyNanos) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            inFlight.acquire();
+            int index = i;
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                latencyNanos[index] = System.nanoTime() - sent;
+                if (e != null || response.statusCode() != 200) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+}
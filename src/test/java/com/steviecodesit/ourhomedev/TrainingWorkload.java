@@ -0,0 +1,98 @@
+package com.steviecodesit.ourhomedev;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+// One round signs up an owner and a guest, logs the owner out and in, creates a household, searches for and
+// invites the guest, who reads their inbox, accepts and leaves again; the owner lists the members in between.
+// That covers every UserController endpoint and the everyday HouseholdController ones.
+final class TrainingWorkload {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final String baseUrl;
+    private final StartupHarness.AuthEmulatorStub auth;
+    private final List<Long> latencyNanos = new ArrayList<>();
+    private final List<Long> completedAtNanos = new ArrayList<>();
+    private int failures;
+
+    TrainingWorkload(String baseUrl, StartupHarness.AuthEmulatorStub auth) {
+        this.baseUrl = baseUrl;
+        this.auth = auth;
+    }
+
+    void run(String prefix, int rounds) throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            round(prefix + round);
+        }
+    }
+
+    // Per request, in order: how long it took and when it finished (System.nanoTime)
+    List<Long> getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    List<Long> getCompletedAtNanos() {
+        return completedAtNanos;
+    }
+
+    int getFailures() {
+        return failures;
+    }
+
+    private void round(String name) throws Exception {
+        String owner = register("owner-" + name);
+        String guest = register("guest-" + name);
+        String ownerToken = StartupHarness.idToken(owner);
+        String guestToken = StartupHarness.idToken(guest);
+
+        timed(() -> StartupHarness.post(baseUrl + "/api/users/logout", ownerToken, "{}"));
+        timed(() -> StartupHarness.post(baseUrl + "/api/users/login", null, json(Map.of("email", email("owner-" + name)))));
+
+        HttpResponse<String> created = timed(() -> StartupHarness.post(baseUrl + "/api/households", ownerToken, json(Map.of("householdName", "Home " + name))));
+        if (created.statusCode() != 200) {
+            return;
+        }
+        String householdId = JSON.readTree(created.body()).path("id").asText();
+        String household = baseUrl + "/api/households/" + householdId;
+
+        timed(() -> StartupHarness.get(baseUrl + "/api/households/search-users?query=guest-" + name, ownerToken));
+        timed(() -> StartupHarness.post(household + "/invites:batch", ownerToken, json(Map.of("inviteeUserIds", List.of(guest)))));
+        timed(() -> StartupHarness.get(baseUrl + "/api/users/me/invites", guestToken));
+        timed(() -> StartupHarness.post(baseUrl + "/api/households/accept-invite/" + householdId, guestToken, "{}"));
+        timed(() -> StartupHarness.get(household + "/members?limit=10", ownerToken));
+        timed(() -> StartupHarness.post(baseUrl + "/api/households/leaveHousehold/" + householdId, guestToken, "{}"));
+    }
+
+    // Registers through the API and answers the uid the server gave the account
+    private String register(String name) throws Exception {
+        timed(() -> StartupHarness.post(baseUrl + "/api/users/register", null,
+                json(Map.of("username", name, "email", email(name), "password", "Training1!"))));
+        return auth.uidOf(email(name));
+    }
+
+    private HttpResponse<String> timed(Callable<HttpResponse<String>> request) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<String> response = request.call();
+        long end = System.nanoTime();
+        latencyNanos.add(end - start);
+        completedAtNanos.add(end);
+        if (response.statusCode() >= 400) {
+            failures++;
+        }
+        return response;
+    }
+
+    private static String email(String name) {
+        return name + "@example.com";
+    }
+
+    private static String json(Object value) throws Exception {
+        return JSON.writeValueAsString(value);
+    }
+}
@@ -1,13 +1,19 @@
 package com.steviecodesit.ourhomedev.auth;
 
+import com.google.api.core.ApiFutures;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.UserRecord;
 import com.steviecodesit.ourhomedev.user.UserService;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import static org.mockito.ArgumentMatchers.any;
 
@@ -21,11 +27,11 @@ public class FirebaseAuthServiceTest {
     public void setUp() {
         firebaseAuth = mock(FirebaseAuth.class);
         userService = mock(UserService.class);
-        firebaseAuthService = new FirebaseAuthService(firebaseAuth, userService);
+        firebaseAuthService = new FirebaseAuthService(firebaseAuth, userService, new DownstreamMetrics(new SimpleMeterRegistry()));
     }
 
     @Test
-    void testRegisterUser() throws FirebaseAuthException {
+    void testRegisterUser() {
         String email = "test@example.com";
         String password = "password";
         String displayName = "Test User";
@@ -33,15 +39,28 @@ public class FirebaseAuthServiceTest {
         UserRecord userRecord = mock(UserRecord.class);
 
         // Use any() matcher to ignore the actual argument
-        when(firebaseAuth.createUser(any(UserRecord.CreateRequest.class))).thenReturn(userRecord);
+        when(firebaseAuth.createUserAsync(any(UserRecord.CreateRequest.class))).thenReturn(ApiFutures.immediateFuture(userRecord));
         // Call the method under test
-        UserRecord returnedUserRecord = firebaseAuthService.registerUser(email, password, displayName);
+        UserRecord returnedUserRecord = firebaseAuthService.registerUser("uid123", email, password, displayName).join();
 
-        // Verify interactions with mock objects
-        verify(firebaseAuth).createUser(any(UserRecord.CreateRequest.class));
-        verify(userService).saveUser(userRecord);
+        // Verify interactions with mock objects; the user document was already written when the names were reserved
+        verify(firebaseAuth).createUserAsync(any(UserRecord.CreateRequest.class));
+        verifyNoInteractions(userService);
 
         // Assert the result
         assertEquals(userRecord, returnedUserRecord);
     }
+
+    @Test
+    void testRegisterUser_AuthFailureReleasesReservation() {
+        FirebaseAuthException authError = mock(FirebaseAuthException.class);
+        when(firebaseAuth.createUserAsync(any(UserRecord.CreateRequest.class))).thenReturn(ApiFutures.immediateFailedFuture(authError));
+        when(userService.releaseRegistration("uid123", "Test User", "test@example.com")).thenReturn(CompletableFuture.completedFuture(null));
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> firebaseAuthService.registerUser("uid123", "test@example.com", "password", "Test User").join());
+
+        assertSame(authError, error.getCause());
+        verify(userService).releaseRegistration("uid123", "Test User", "test@example.com");
+    }
 }
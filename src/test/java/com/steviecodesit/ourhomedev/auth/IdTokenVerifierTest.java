@@ -0,0 +1,124 @@
+package com.steviecodesit.ourhomedev.auth;
+
+import com.google.api.core.ApiFutures;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class IdTokenVerifierTest {
+
+    private FirebaseAuth firebaseAuth;
+    private AtomicLong now;
+    private IdTokenVerifier idTokenVerifier;
+
+    @BeforeEach
+    public void setUp() {
+        firebaseAuth = mock(FirebaseAuth.class);
+        now = new AtomicLong(1_000_000L);
+        idTokenVerifier = new IdTokenVerifier(firebaseAuth, new ExpiringLruCache<>(2, now::get), new DownstreamMetrics(new SimpleMeterRegistry()));
+    }
+
+    private FirebaseToken tokenExpiringAt(long expSeconds) {
+        FirebaseToken token = mock(FirebaseToken.class);
+        when(token.getUid()).thenReturn("uid123");
+        when(token.getClaims()).thenReturn(Map.of("exp", expSeconds));
+        return token;
+    }
+
+    @Test
+    public void verify_SecondCallIsServedFromCache() {
+        FirebaseToken token = tokenExpiringAt(2_000L);
+        when(firebaseAuth.verifyIdTokenAsync("idToken")).thenReturn(ApiFutures.immediateFuture(token));
+
+        assertSame(token, idTokenVerifier.verify("idToken").join());
+        assertSame(token, idTokenVerifier.verify("idToken").join());
+
+        verify(firebaseAuth, times(1)).verifyIdTokenAsync("idToken");
+        assertEquals(1, idTokenVerifier.getCache().getHitCount());
+        assertEquals(1, idTokenVerifier.getCache().getMissCount());
+    }
+
+    @Test
+    public void cacheCountersAreExported() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        IdTokenVerifier exported = new IdTokenVerifier(firebaseAuth, 2, new DownstreamMetrics(registry), registry);
+        FirebaseToken token = tokenExpiringAt(Long.MAX_VALUE / 1000);
+        when(firebaseAuth.verifyIdTokenAsync("idToken")).thenReturn(ApiFutures.immediateFuture(token));
+
+        exported.verify("idToken").join();
+        exported.verify("idToken").join();
+
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "id-token").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "id-token").tag("result", "miss").functionCounter().count());
+        assertEquals(0.5, registry.get("cache.hit.ratio").tag("cache", "id-token").gauge().value());
+    }
+
+    @Test
+    public void verify_ExpiredEntryIsVerifiedAgain() {
+        FirebaseToken token = tokenExpiringAt(2_000L);
+        when(firebaseAuth.verifyIdTokenAsync("idToken")).thenReturn(ApiFutures.immediateFuture(token));
+
+        idTokenVerifier.verify("idToken").join();
+        now.set(2_000_000L);
+        idTokenVerifier.verify("idToken").join();
+
+        verify(firebaseAuth, times(2)).verifyIdTokenAsync("idToken");
+    }
+
+    @Test
+    public void verify_LeastRecentlyUsedTokenIsEvicted() {
+        FirebaseToken token = tokenExpiringAt(2_000L);
+        when(firebaseAuth.verifyIdTokenAsync(anyString())).thenReturn(ApiFutures.immediateFuture(token));
+
+        idTokenVerifier.verify("first").join();
+        idTokenVerifier.verify("second").join();
+        idTokenVerifier.verify("first").join();
+        idTokenVerifier.verify("third").join();
+        idTokenVerifier.verify("second").join();
+
+        verify(firebaseAuth, times(2)).verifyIdTokenAsync("second");
+        verify(firebaseAuth, times(1)).verifyIdTokenAsync("first");
+        assertEquals(2, idTokenVerifier.getCache().getEvictionCount());
+    }
+
+    @Test
+    public void cachedUserId_NeitherCountsNorReorders() {
+        FirebaseToken token = tokenExpiringAt(2_000L);
+        when(firebaseAuth.verifyIdTokenAsync(anyString())).thenReturn(ApiFutures.immediateFuture(token));
+
+        idTokenVerifier.verify("first").join();
+        idTokenVerifier.verify("second").join();
+        assertEquals(Optional.of("uid123"), idTokenVerifier.cachedUserId("first"));
+        assertEquals(Optional.empty(), idTokenVerifier.cachedUserId("unknown"));
+        idTokenVerifier.verify("third").join();
+
+        assertEquals(Optional.empty(), idTokenVerifier.cachedUserId("first"));
+        assertEquals(0, idTokenVerifier.getCache().getHitCount());
+        assertEquals(3, idTokenVerifier.getCache().getMissCount());
+    }
+
+    @Test
+    public void verify_FailedVerificationIsNotCached() {
+        when(firebaseAuth.verifyIdTokenAsync("badToken")).thenReturn(ApiFutures.immediateFailedFuture(mock(FirebaseAuthException.class)));
+
+        CompletionException error = assertThrows(CompletionException.class, () -> idTokenVerifier.verify("badToken").join());
+        assertInstanceOf(FirebaseAuthException.class, error.getCause());
+        assertThrows(CompletionException.class, () -> idTokenVerifier.verify("badToken").join());
+
+        verify(firebaseAuth, times(2)).verifyIdTokenAsync("badToken");
+        assertEquals(0, idTokenVerifier.getCache().size());
+    }
+}
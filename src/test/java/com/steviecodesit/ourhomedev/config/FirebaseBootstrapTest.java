@@ -0,0 +1,37 @@
+package com.steviecodesit.ourhomedev.config;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class FirebaseBootstrapTest {
+
+    @Test
+    public void deferred_CallsWaitForTheClientAndDelegate() {
+        Firestore client = mock(Firestore.class);
+        CollectionReference users = mock(CollectionReference.class);
+        when(client.collection("users")).thenReturn(users);
+        CompletableFuture<Firestore> pending = new CompletableFuture<>();
+
+        Firestore firestore = FirebaseBootstrap.deferred(pending);
+        assertNotNull(firestore.toString());
+        verifyNoInteractions(client);
+
+        pending.complete(client);
+        assertSame(users, firestore.collection("users"));
+    }
+
+    @Test
+    public void deferred_FailedClientSurfacesOnUse() {
+        Firestore firestore = FirebaseBootstrap.deferred(CompletableFuture.failedFuture(new IllegalStateException("no credentials")));
+
+        CompletionException error = assertThrows(CompletionException.class, () -> firestore.collection("users"));
+        assertEquals("no credentials", error.getCause().getMessage());
+    }
+}
@@ -0,0 +1,28 @@
+package com.steviecodesit.ourhomedev.config;
+
+import com.google.cloud.firestore.Firestore;
+import com.steviecodesit.ourhomedev.household.Household;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import com.steviecodesit.ourhomedev.user.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NativeHintsTest {
+
+    @Test
+    public void registersModelsClientsAndKey() {
+        RuntimeHints hints = new RuntimeHints();
+        new NativeHints().registerHints(hints, getClass().getClassLoader());
+
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(User.class, "setDisplayName").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(Household.class, "getMembers").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(HouseholdMembership.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(TypeReference.of("com.google.firebase.auth.internal.GetAccountInfoResponse")).test(hints));
+        assertTrue(RuntimeHintsPredicates.proxies().forInterfaces(Firestore.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.resource().forResource("serviceAccountKey.json").test(hints));
+    }
+}
@@ -0,0 +1,40 @@
+package com.steviecodesit.ourhomedev.etag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ETagsTest {
+
+    @Test
+    public void okOrNotModified_MatchingETagGetsEmpty304() {
+        ResponseEntity<String> response = ETags.okOrNotModified(new Versioned<>("body", "17"), "\"3\", W/\"17\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("\"17\"", response.getHeaders().getETag());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    public void okOrNotModified_OtherOrNoETagGetsBody() {
+        ResponseEntity<String> changed = ETags.okOrNotModified(new Versioned<>("body", "18"), "\"17\"");
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertEquals("\"18\"", changed.getHeaders().getETag());
+        assertEquals("body", changed.getBody());
+
+        assertEquals(HttpStatus.OK, ETags.okOrNotModified(new Versioned<>("body", "18"), null).getStatusCode());
+    }
+
+    @Test
+    public void requiredVersion() {
+        assertNull(ETags.requiredVersion(null));
+        assertNull(ETags.requiredVersion("*"));
+        assertEquals("17", ETags.requiredVersion(" \"17\" "));
+        // Weak ETags never match under If-Match's strong comparison
+        assertNotEquals("17", ETags.requiredVersion("W/\"17\""));
+        assertThrows(IllegalArgumentException.class, () -> ETags.requiredVersion("17"));
+        assertThrows(IllegalArgumentException.class, () -> ETags.requiredVersion("\"17\", \"18\""));
+    }
+}
@@ -0,0 +1,227 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import com.steviecodesit.ourhomedev.etag.VersionMismatchException;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class FirestoreHouseholdRepositoryTest {
+
+    private static final Map<String, Object> OWNER_ENTRY = Map.of("userId", "owner", "householdRole", "OWNER", "memberStatus", "ACCEPTED");
+    private static final Map<String, Object> MEMBER_ENTRY = Map.of("userId", "member", "householdRole", "MEMBER", "memberStatus", "PENDING");
+
+    private Firestore firestore;
+    private DocumentReference docRef;
+    private DocumentSnapshot snapshot;
+    private WriteBatch batch;
+    private FirestoreHouseholdRepository repository;
+    @Captor
+    private ArgumentCaptor<Map<String, Object>> fields;
+    private AutoCloseable mocks;
+
+    @BeforeEach
+    public void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        firestore = mock(Firestore.class);
+        CollectionReference households = mock(CollectionReference.class);
+        docRef = mock(DocumentReference.class);
+        snapshot = mock(DocumentSnapshot.class);
+        batch = mock(WriteBatch.class);
+
+        when(firestore.collection("households")).thenReturn(households);
+        when(households.document("household1")).thenReturn(docRef);
+        when(docRef.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+        when(snapshot.exists()).thenReturn(true);
+        when(snapshot.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(100, 0));
+        when(snapshot.get("members")).thenReturn(List.of(OWNER_ENTRY, MEMBER_ENTRY));
+        when(snapshot.toObject(Household.class)).thenAnswer(invocation -> household());
+        when(firestore.batch()).thenReturn(batch);
+        when(batch.update(any(DocumentReference.class), any(Precondition.class), anyString(), any())).thenReturn(batch);
+        when(batch.update(any(DocumentReference.class), anyString(), any())).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of()));
+
+        HouseholdCache householdCache = new HouseholdCache(new ExpiringLruCache<>(10), 60_000);
+        repository = new FirestoreHouseholdRepository(firestore, householdCache, new DownstreamMetrics(new SimpleMeterRegistry()));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        mocks.close();
+    }
+
+    private static Household household() {
+        Household household = new Household();
+        household.setId("household1");
+        household.setMembers(new ArrayList<>(List.of(
+                HouseholdMembership.builder().userId("owner").householdRole(HouseholdRole.OWNER).memberStatus(HouseholdMembershipStatus.ACCEPTED).build(),
+                HouseholdMembership.builder().userId("member").householdRole(HouseholdRole.MEMBER).memberStatus(HouseholdMembershipStatus.PENDING).build())));
+        return household;
+    }
+
+    private static MembershipChange accept(Household household) {
+        HouseholdMembership member = household.getMembers().get(1);
+        return MembershipChange.none().put(member.toBuilder().memberStatus(HouseholdMembershipStatus.ACCEPTED).build());
+    }
+
+    @Test
+    public void updateMembers_ReplacesOnlyTheChangedEntryUnderPrecondition() {
+        Household updated = repository.updateMembers("household1", FirestoreHouseholdRepositoryTest::accept).join().orElseThrow();
+
+        verify(batch).update(docRef, Precondition.updatedAt(Timestamp.ofTimeSecondsAndNanos(100, 0)), "members", FieldValue.arrayRemove(MEMBER_ENTRY));
+        verify(batch).update(eq(docRef), eq("members"), any(FieldValue.class));
+        verify(docRef, never()).set(any());
+        assertEquals(HouseholdMembershipStatus.ACCEPTED, updated.getMembers().get(1).getMemberStatus());
+    }
+
+    @Test
+    public void updateMembers_StalePreconditionRetriesOnFreshRead() {
+        when(batch.commit())
+                .thenReturn(ApiFutures.immediateFailedFuture(ApiExceptionFactory.createException(
+                        new RuntimeException("stale"), GrpcStatusCode.of(Status.Code.FAILED_PRECONDITION), false)))
+                .thenReturn(ApiFutures.immediateFuture(List.of()));
+
+        assertTrue(repository.updateMembers("household1", FirestoreHouseholdRepositoryTest::accept).join().isPresent());
+
+        verify(docRef, times(2)).get();
+        verify(batch, times(2)).commit();
+    }
+
+    @Test
+    public void updateMembers_RejectedChangeWritesNothing() {
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> repository.updateMembers("household1", household -> MembershipChange.reject("Only the owner can accept new members.")).join());
+
+        assertEquals("Only the owner can accept new members.", error.getCause().getMessage());
+        verify(firestore, never()).batch();
+    }
+
+    @Test
+    public void updateMembers_MissingHousehold() {
+        when(snapshot.exists()).thenReturn(false);
+
+        assertTrue(repository.updateMembers("household1", FirestoreHouseholdRepositoryTest::accept).join().isEmpty());
+    }
+
+    @Test
+    public void updateMembers_ExpectedVersionIsCheckedOnAFreshRead() {
+        // Cache the snapshot at 100s, then let the stored household move on
+        repository.findById("household1").join();
+        DocumentSnapshot fresh = mock(DocumentSnapshot.class);
+        when(fresh.exists()).thenReturn(true);
+        when(fresh.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(200, 0));
+        when(fresh.get("members")).thenReturn(List.of(OWNER_ENTRY, MEMBER_ENTRY));
+        when(fresh.toObject(Household.class)).thenAnswer(invocation -> household());
+        when(docRef.get()).thenReturn(ApiFutures.immediateFuture(fresh));
+
+        String version = FirestoreVersions.of(Timestamp.ofTimeSecondsAndNanos(200, 0));
+        Household updated = repository.updateMembers("household1", version, FirestoreHouseholdRepositoryTest::accept).join().orElseThrow();
+
+        verify(docRef, times(2)).get();
+        verify(batch).update(docRef, Precondition.updatedAt(Timestamp.ofTimeSecondsAndNanos(200, 0)), "members", FieldValue.arrayRemove(MEMBER_ENTRY));
+        assertEquals(HouseholdMembershipStatus.ACCEPTED, updated.getMembers().get(1).getMemberStatus());
+    }
+
+    @Test
+    public void updateMembers_OtherVersionFailsWithoutWriting() {
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> repository.updateMembers("household1", "42", FirestoreHouseholdRepositoryTest::accept).join());
+
+        assertInstanceOf(VersionMismatchException.class, error.getCause());
+        verify(firestore, never()).batch();
+    }
+
+    @Test
+    public void updateMembers_FailedPreconditionUnderExpectedVersionIsNotRetried() {
+        when(batch.commit()).thenReturn(ApiFutures.immediateFailedFuture(ApiExceptionFactory.createException(
+                new RuntimeException("stale"), GrpcStatusCode.of(Status.Code.FAILED_PRECONDITION), false)));
+
+        String version = repository.findById("household1").join().orElseThrow().version();
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> repository.updateMembers("household1", version, FirestoreHouseholdRepositoryTest::accept).join());
+
+        assertInstanceOf(VersionMismatchException.class, error.getCause());
+        verify(batch, times(1)).commit();
+    }
+
+    private Transaction transaction(Map<String, DocumentSnapshot> users) {
+        Transaction transaction = mock(Transaction.class);
+        CollectionReference usersCollection = mock(CollectionReference.class);
+        when(firestore.collection("users")).thenReturn(usersCollection);
+        List<DocumentSnapshot> userSnapshots = new ArrayList<>();
+        users.forEach((userId, user) -> {
+            DocumentReference userRef = mock(DocumentReference.class);
+            when(usersCollection.document(userId)).thenReturn(userRef);
+            when(user.getId()).thenReturn(userId);
+            when(user.getReference()).thenReturn(userRef);
+            userSnapshots.add(user);
+        });
+        when(transaction.get(docRef)).thenReturn(ApiFutures.immediateFuture(snapshot));
+        when(transaction.getAll(any(DocumentReference[].class))).thenReturn(ApiFutures.immediateFuture(userSnapshots));
+        when(firestore.runTransaction(any())).thenAnswer(invocation ->
+                ApiFutures.immediateFuture(invocation.<Transaction.Function<?>>getArgument(0).updateCallback(transaction)));
+        return transaction;
+    }
+
+    private static DocumentSnapshot userIn(String householdId) {
+        DocumentSnapshot user = mock(DocumentSnapshot.class);
+        when(user.exists()).thenReturn(true);
+        when(user.getString("householdMembership.householdId")).thenReturn(householdId);
+        return user;
+    }
+
+    @Test
+    public void leave_UpdatesHouseholdAndUserTogether() {
+        DocumentSnapshot member = userIn("household1");
+        Transaction transaction = transaction(Map.of("member", member));
+
+        Household left = repository.leave("household1", null, household -> MembershipChange.none().remove("member")).join().orElseThrow();
+
+        assertEquals(List.of("owner"), left.getMembers().stream().map(HouseholdMembership::getUserId).toList());
+        verify(transaction).update(eq(docRef), eq("members"), any());
+        verify(transaction).update(member.getReference(), "householdMembership", null);
+        verify(transaction, never()).delete(any(DocumentReference.class));
+    }
+
+    @Test
+    public void leave_HouseholdWithoutAcceptedMembersIsArchived() {
+        CollectionReference archive = mock(CollectionReference.class);
+        DocumentReference archivedRef = mock(DocumentReference.class);
+        when(firestore.collection("archivedHouseholds")).thenReturn(archive);
+        when(archive.document("household1")).thenReturn(archivedRef);
+        DocumentSnapshot owner = userIn("household1");
+        // The pending member has since joined another household, so their user document is left alone
+        DocumentSnapshot member = userIn("household2");
+        Transaction transaction = transaction(Map.of("owner", owner, "member", member));
+
+        repository.leave("household1", null, household -> MembershipChange.none().remove("owner")).join().orElseThrow();
+
+        verify(transaction).set(eq(archivedRef), fields.capture());
+        assertEquals("household1", fields.getValue().get("id"));
+        verify(transaction).delete(docRef);
+        verify(transaction).update(owner.getReference(), "householdMembership", null);
+        verify(transaction, never()).update(eq(member.getReference()), anyString(), any());
+    }
+}
@@ -0,0 +1,118 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class FirestoreInviteRepositoryTest {
+
+    private Firestore firestore;
+    private DocumentReference householdRef;
+    private DocumentSnapshot snapshot;
+    private WriteBatch batch;
+    private FirestoreInviteRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        firestore = mock(Firestore.class);
+        CollectionReference households = mock(CollectionReference.class);
+        CollectionReference invites = mock(CollectionReference.class);
+        CollectionReference users = mock(CollectionReference.class);
+        DocumentReference user = mock(DocumentReference.class);
+        CollectionReference inbox = mock(CollectionReference.class);
+        householdRef = mock(DocumentReference.class);
+        snapshot = mock(DocumentSnapshot.class);
+        batch = mock(WriteBatch.class);
+
+        when(firestore.collection("households")).thenReturn(households);
+        when(firestore.collection("householdInvites")).thenReturn(invites);
+        when(households.document("household1")).thenReturn(householdRef);
+        when(invites.document()).thenReturn(mock(DocumentReference.class));
+        when(firestore.collection("users")).thenReturn(users);
+        when(users.document(anyString())).thenReturn(user);
+        when(user.collection("inviteInbox")).thenReturn(inbox);
+        when(inbox.document(anyString())).thenReturn(mock(DocumentReference.class));
+        when(householdRef.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+        when(snapshot.exists()).thenReturn(true);
+        when(snapshot.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(100, 0));
+        when(snapshot.toObject(Household.class)).thenAnswer(invocation -> {
+            Household household = new Household();
+            household.setMembers(new ArrayList<>(List.of(HouseholdMembership.builder().userId("owner").householdRole(HouseholdRole.OWNER).build())));
+            return household;
+        });
+        when(firestore.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of()));
+
+        HouseholdCache householdCache = new HouseholdCache(new ExpiringLruCache<>(10), 60_000);
+        repository = new FirestoreInviteRepository(firestore, householdCache, new DownstreamMetrics(new SimpleMeterRegistry()));
+    }
+
+    private static List<HouseholdInvite> invites(int count) {
+        List<HouseholdInvite> invites = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            HouseholdInvite invite = new HouseholdInvite();
+            invite.setHouseholdId("household1");
+            invite.setInviterUserId("owner");
+            invite.setInviteeUserId("invitee" + i);
+            invites.add(invite);
+        }
+        return invites;
+    }
+
+    private static InviteResult admitAll(Household household, HouseholdInvite invite) {
+        household.getMembers().add(HouseholdMembership.builder().userId(invite.getInviteeUserId()).build());
+        return InviteResult.SENT;
+    }
+
+    @Test
+    public void createAll_SplitsWritesIntoBatchesOfAtMost500() {
+        Map<String, InviteResult> results = repository.createAll("household1", invites(600), FirestoreInviteRepositoryTest::admitAll).join();
+
+        assertEquals(600, results.size());
+        assertTrue(results.values().stream().allMatch(result -> result == InviteResult.SENT));
+        verify(householdRef, times(1)).get();
+        // 249 invites and inbox entries plus the member update fill a batch
+        verify(batch, times(3)).commit();
+        verify(batch, times(600)).create(any(DocumentReference.class), any(HouseholdInvite.class));
+        verify(batch, times(600)).set(any(DocumentReference.class), any(InboxInvite.class));
+        // Only the first batch depends on the household being unchanged since the read
+        verify(batch).update(eq(householdRef), eq(Precondition.updatedAt(Timestamp.ofTimeSecondsAndNanos(100, 0))), eq("members"), any(FieldValue.class));
+        verify(batch, times(2)).update(eq(householdRef), eq("members"), any(FieldValue.class));
+    }
+
+    @Test
+    public void createAll_FailedLaterBatchOnlyFailsItsInvitees() {
+        when(batch.commit())
+                .thenReturn(ApiFutures.immediateFuture(List.of()))
+                .thenReturn(ApiFutures.immediateFailedFuture(new RuntimeException("unavailable")));
+
+        Map<String, InviteResult> results = repository.createAll("household1", invites(600), FirestoreInviteRepositoryTest::admitAll).join();
+
+        assertEquals(InviteResult.SENT, results.get("invitee0"));
+        assertEquals(InviteResult.SENT, results.get("invitee248"));
+        assertEquals(InviteResult.FAILED, results.get("invitee249"));
+    }
+
+    @Test
+    public void createAll_NothingAdmittedWritesNothing() {
+        Map<String, InviteResult> results = repository.createAll("household1", invites(3), (household, invite) -> InviteResult.NOT_OWNER).join();
+
+        assertTrue(results.values().stream().allMatch(result -> result == InviteResult.NOT_OWNER));
+        verify(firestore, never()).batch();
+    }
+}
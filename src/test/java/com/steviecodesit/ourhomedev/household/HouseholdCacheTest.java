@@ -0,0 +1,105 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.steviecodesit.ourhomedev.cache.ExpiringLruCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class HouseholdCacheTest {
+
+    private AtomicLong now;
+    private HouseholdCache householdCache;
+    private DocumentSnapshot snapshot;
+    private Supplier<CompletableFuture<DocumentSnapshot>> loader;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        now = new AtomicLong(0);
+        householdCache = new HouseholdCache(new ExpiringLruCache<>(10, now::get), 1000);
+        snapshot = mock(DocumentSnapshot.class);
+        when(snapshot.exists()).thenReturn(true);
+        loader = mock(Supplier.class);
+        when(loader.get()).thenAnswer(invocation -> CompletableFuture.completedFuture(snapshot));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void get_LoadsOnceUntilTtlExpires() {
+        assertSame(snapshot, householdCache.get("household1", loader).join());
+        assertSame(snapshot, householdCache.get("household1", loader).join());
+        now.set(1000);
+        householdCache.get("household1", loader).join();
+
+        verify(loader, times(2)).get();
+        assertEquals(1, householdCache.getHitCount());
+    }
+
+    @Test
+    public void get_MissingHouseholdIsNotCached() {
+        when(snapshot.exists()).thenReturn(false);
+
+        householdCache.get("household1", loader).join();
+        householdCache.get("household1", loader).join();
+
+        verify(loader, times(2)).get();
+        assertEquals(0, householdCache.size());
+    }
+
+    @Test
+    public void invalidateOnCompletion_DropsEntryNowAndWhenWriteLands() {
+        SettableApiFuture<Object> write = SettableApiFuture.create();
+
+        householdCache.get("household1", loader).join();
+        householdCache.invalidateOnCompletion("household1", write);
+        householdCache.get("household1", loader).join();
+        write.set(null);
+        householdCache.get("household1", loader).join();
+
+        verify(loader, times(3)).get();
+    }
+
+    @Test
+    public void get_RequestScopedSnapshotsSurviveProcessEviction() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+
+        householdCache.get("household1", loader).join();
+        now.set(1000);
+        householdCache.get("household1", loader).join();
+
+        verify(loader, times(1)).get();
+        assertEquals(1, householdCache.getRequestHitCount());
+    }
+
+    @Test
+    public void countersAreExported() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HouseholdCache exported = new HouseholdCache(1, 60, registry);
+
+        exported.get("household1", loader).join();
+        exported.get("household1", loader).join();
+        exported.get("household2", loader).join();
+
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "household").tag("result", "hit").functionCounter().count());
+        assertEquals(2.0, registry.get("cache.gets").tag("cache", "household").tag("result", "miss").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.evictions").tag("cache", "household").functionCounter().count());
+        assertEquals(1.0 / 3, registry.get("cache.hit.ratio").tag("cache", "household").gauge().value(), 1e-9);
+    }
+}
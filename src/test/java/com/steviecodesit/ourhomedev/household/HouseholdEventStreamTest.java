@@ -0,0 +1,166 @@
+package com.steviecodesit.ourhomedev.household;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class HouseholdEventStreamTest {
+
+    private HouseholdRepository householdRepository;
+    private InviteRepository inviteRepository;
+    private Runnable stopHouseholdListener;
+    private Runnable stopInviteListener;
+    private HouseholdEventStream eventStream;
+
+    @BeforeEach
+    public void setUp() {
+        householdRepository = mock(HouseholdRepository.class);
+        inviteRepository = mock(InviteRepository.class);
+        stopHouseholdListener = mock(Runnable.class);
+        stopInviteListener = mock(Runnable.class);
+        when(householdRepository.listen(eq("household1"), any())).thenReturn(stopHouseholdListener);
+        when(inviteRepository.listen(eq("household1"), any())).thenReturn(stopInviteListener);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventStream.shutdown();
+    }
+
+    private HouseholdEventStream eventStream(Executor sender, int queueCapacity) {
+        eventStream = new HouseholdEventStream(householdRepository, inviteRepository, new SimpleMeterRegistry(), sender, 0, queueCapacity, 60_000);
+        return eventStream;
+    }
+
+    private HouseholdRepository.ChangeListener householdListener() {
+        ArgumentCaptor<HouseholdRepository.ChangeListener> listener = ArgumentCaptor.forClass(HouseholdRepository.ChangeListener.class);
+        verify(householdRepository).listen(eq("household1"), listener.capture());
+        return listener.getValue();
+    }
+
+    private static Household household(String name) {
+        Household household = new Household();
+        household.setId("household1");
+        household.setHouseholdName(name);
+        return household;
+    }
+
+    @Test
+    public void subscribe_ClientsShareOneListenerAndStartFromTheLatestState() {
+        eventStream(Runnable::run, 10);
+        RecordingEmitter first = new RecordingEmitter();
+        eventStream.subscribe("household1", first);
+        householdListener().onChanged(household("Before"));
+        householdListener().onChanged(household("After"));
+
+        RecordingEmitter second = new RecordingEmitter();
+        eventStream.subscribe("household1", second);
+
+        verify(householdRepository, times(1)).listen(eq("household1"), any());
+        assertEquals(1, eventStream.listenerCount());
+        assertEquals(List.of("Before", "After"), first.householdNames());
+        assertEquals(List.of("After"), second.householdNames());
+    }
+
+    @Test
+    public void leave_LastClientLeavingStopsTheListenersAfterTheIdleTimeout() {
+        eventStream(Runnable::run, 10);
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter second = new RecordingEmitter();
+        eventStream.subscribe("household1", first);
+        eventStream.subscribe("household1", second);
+
+        first.disconnect();
+        verify(stopHouseholdListener, after(100).never()).run();
+
+        second.disconnect();
+        verify(stopHouseholdListener, timeout(1000)).run();
+        verify(stopInviteListener, timeout(1000)).run();
+    }
+
+    @Test
+    public void publish_ClientTooFarBehindIsDisconnected() {
+        // Sends never run, so everything offered stays queued
+        List<Runnable> stalled = new ArrayList<>();
+        eventStream(stalled::add, 2);
+        RecordingEmitter slow = new RecordingEmitter();
+        eventStream.subscribe("household1", slow);
+
+        householdListener().onChanged(household("1"));
+        householdListener().onChanged(household("2"));
+        assertFalse(slow.completed);
+        householdListener().onChanged(household("3"));
+
+        assertTrue(slow.completed);
+    }
+
+    @Test
+    public void deleted_HouseholdEndsTheStream() {
+        eventStream(Runnable::run, 10);
+        RecordingEmitter client = new RecordingEmitter();
+        eventStream.subscribe("household1", client);
+
+        householdListener().onChanged(null);
+
+        assertEquals(List.of("deleted"), client.eventNames);
+        assertTrue(client.completed);
+    }
+
+    // Records what would be written to the response instead of needing a servlet container
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final List<String> eventNames = new CopyOnWriteArrayList<>();
+        private final List<Object> data = new CopyOnWriteArrayList<>();
+        private final List<Runnable> completionCallbacks = new CopyOnWriteArrayList<>();
+        private volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            for (DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof String text && text.startsWith("event:")) {
+                    eventNames.add(text.substring("event:".length()).lines().findFirst().orElse(""));
+                } else if (MediaType.APPLICATION_JSON.equals(part.getMediaType())) {
+                    data.add(part.getData());
+                }
+            }
+        }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            completionCallbacks.add(callback);
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+        }
+
+        List<String> householdNames() {
+            List<String> names = new ArrayList<>();
+            for (Object payload : data) {
+                if (payload instanceof Household household) {
+                    names.add(household.getHouseholdName());
+                }
+            }
+            return names;
+        }
+
+        void disconnect() {
+            completionCallbacks.forEach(Runnable::run);
+        }
+    }
+}
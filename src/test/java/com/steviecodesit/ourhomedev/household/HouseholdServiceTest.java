@@ -0,0 +1,195 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import com.steviecodesit.ourhomedev.etag.VersionMismatchException;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import com.steviecodesit.ourhomedev.user.InMemoryUserRepository;
+import com.steviecodesit.ourhomedev.user.PresenceTracker;
+import com.steviecodesit.ourhomedev.user.User;
+import com.steviecodesit.ourhomedev.user.UserSearchIndex;
+import com.steviecodesit.ourhomedev.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HouseholdServiceTest {
+
+    private InMemoryHouseholdRepository householdRepository;
+    private InMemoryUserRepository userRepository;
+    private HouseholdService householdService;
+
+    @BeforeEach
+    public void setUp() {
+        SimulatedLatency noLatency = new SimulatedLatency(0, 0);
+        userRepository = new InMemoryUserRepository(noLatency);
+        householdRepository = new InMemoryHouseholdRepository(noLatency, userRepository);
+        UserService userService = new UserService(userRepository, new IdTokenVerifier(null, 1, new DownstreamMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry()), new UserSearchIndex(),
+                new PresenceTracker(userRepository, new SimpleMeterRegistry(), 1000, 1000, 60));
+        householdService = new HouseholdService(householdRepository, new InMemoryInviteRepository(householdRepository), userRepository, userService);
+
+        // Stored out of userId order, as replaced entries end up at the back of the list
+        List<HouseholdMembership> members = new ArrayList<>(List.of(
+                membership("owner", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED),
+                membership("user4", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING),
+                membership("user2", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED),
+                membership("user1", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED),
+                membership("user3", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED)));
+        Household household = new Household();
+        household.setId("household1");
+        household.setHouseholdName("Home");
+        household.setMembers(members);
+        householdRepository.create(household, members.get(0)).join();
+    }
+
+    private static HouseholdMembership membership(String userId, HouseholdRole role, HouseholdMembershipStatus status) {
+        return HouseholdMembership.builder().householdId("household1").userId(userId).householdRole(role).memberStatus(status).build();
+    }
+
+    private static List<String> userIds(MemberPage page) {
+        return page.getMembers().stream().map(HouseholdMembership::getUserId).toList();
+    }
+
+    @Test
+    public void listMembers_PagesThroughFilteredMembersInUserIdOrder() {
+        MemberPage first = householdService.listMembers("household1", "owner", HouseholdMembershipStatus.ACCEPTED, HouseholdRole.MEMBER, null, 2)
+                .join().orElseThrow();
+        assertEquals(List.of("user1", "user2"), userIds(first));
+        assertNotNull(first.getNextCursor());
+
+        // Neither a member joining ahead of the cursor nor a replaced entry moving to the back shifts the next page
+        householdRepository.updateMembers("household1", household -> MembershipChange.none()
+                .put(membership("user0", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED))
+                .put(membership("user3", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED))).join();
+
+        MemberPage second = householdService.listMembers("household1", "owner", HouseholdMembershipStatus.ACCEPTED, HouseholdRole.MEMBER, first.getNextCursor(), 2)
+                .join().orElseThrow();
+        assertEquals(List.of("user3"), userIds(second));
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void listMembers_NonMemberGetsNothing() {
+        assertTrue(householdService.listMembers("household1", "stranger", null, null, null, 10).join().isEmpty());
+    }
+
+    @Test
+    public void listMembers_MalformedCursorIsRejected() {
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> householdService.listMembers("household1", "owner", null, null, "not a cursor!", 10).join());
+
+        assertInstanceOf(IllegalArgumentException.class, error.getCause());
+    }
+
+    @Test
+    public void getHousehold_MissingHouseholdFailsAsNotFound() {
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> householdService.getHousehold("no-such-household", "owner").join());
+        assertInstanceOf(NoSuchElementException.class, error.getCause());
+    }
+
+    @Test
+    public void getHousehold_VersionMovesOnWithEveryWrite() {
+        String before = householdService.getHousehold("household1", "owner").join().orElseThrow().version();
+        householdRepository.updateMembers("household1", household -> MembershipChange.none()
+                .put(membership("user5", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING))).join();
+        String after = householdService.getHousehold("household1", "owner").join().orElseThrow().version();
+
+        assertNotNull(before);
+        assertNotEquals(before, after);
+        assertTrue(householdService.getHousehold("household1", "stranger").join().isEmpty());
+    }
+
+    @Test
+    public void updateMembers_EmptyChangeKeepsTheVersion() {
+        String before = householdService.getHousehold("household1", "owner").join().orElseThrow().version();
+        Household unchanged = householdRepository.updateMembers("household1", before, household -> MembershipChange.none())
+                .join().orElseThrow();
+
+        assertEquals(before, unchanged.version());
+        assertEquals(before, householdService.getHousehold("household1", "owner").join().orElseThrow().version());
+    }
+
+    @Test
+    public void acceptOrRejectUserToHousehold_StaleVersionChangesNothing() {
+        String version = householdService.getHousehold("household1", "owner").join().orElseThrow().version();
+        householdRepository.updateMembers("household1", version, household -> MembershipChange.none()
+                .put(membership("user5", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING))).join();
+
+        CompletionException error = assertThrows(CompletionException.class, () -> householdService
+                .acceptOrRejectUserToHousehold("user4", "household1", "owner", HouseholdMembershipStatus.ACCEPTED, version).join());
+
+        assertInstanceOf(VersionMismatchException.class, error.getCause());
+        Household household = householdRepository.findById("household1").join().orElseThrow();
+        assertEquals(HouseholdMembershipStatus.PENDING, household.findMember("user4").orElseThrow().getMemberStatus());
+    }
+
+    private void storeHousehold(String householdId, List<HouseholdMembership> members) {
+        Household household = new Household();
+        household.setId(householdId);
+        household.setMembers(members);
+        householdRepository.create(household, members.get(0)).join();
+        for (HouseholdMembership member : members) {
+            userRepository.save(member.getUserId(), User.builder().displayName(member.getUserId()).householdMembership(member).build()).join();
+        }
+    }
+
+    private static HouseholdMembership joined(String householdId, String userId, HouseholdRole role, HouseholdMembershipStatus status, Long joinedAt) {
+        return HouseholdMembership.builder().householdId(householdId).userId(userId).householdRole(role).memberStatus(status).joinedAt(joinedAt).build();
+    }
+
+    @Test
+    public void leaveHousehold_OwnerHandsOverToLongestStandingAcceptedMember() {
+        storeHousehold("household2", new ArrayList<>(List.of(
+                joined("household2", "owner", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED, 100L),
+                joined("household2", "pending", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING, null),
+                joined("household2", "newer", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED, 300L),
+                joined("household2", "older", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED, 200L))));
+
+        assertEquals(LeaveResult.OWNERSHIP_PASSED, householdService.leaveHousehold("owner", "household2", null).join());
+
+        Household household = householdRepository.findById("household2").join().orElseThrow();
+        assertFalse(household.isMember("owner"));
+        assertTrue(household.isOwner("older"));
+        assertNull(userRepository.findById("owner").join().orElseThrow().getHouseholdMembership());
+        assertEquals(HouseholdRole.OWNER, userRepository.findById("older").join().orElseThrow().getHouseholdMembership().getHouseholdRole());
+    }
+
+    @Test
+    public void leaveHousehold_MemberLeavesWithoutSuccession() {
+        storeHousehold("household2", new ArrayList<>(List.of(
+                joined("household2", "owner", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED, 100L),
+                joined("household2", "member", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED, 200L))));
+
+        assertEquals(LeaveResult.LEFT, householdService.leaveHousehold("member", "household2", null).join());
+
+        assertTrue(householdRepository.findById("household2").join().orElseThrow().isOwner("owner"));
+        assertNull(userRepository.findById("member").join().orElseThrow().getHouseholdMembership());
+    }
+
+    @Test
+    public void leaveHousehold_WithoutAcceptedMembersLeftArchivesTheHousehold() {
+        storeHousehold("household2", new ArrayList<>(List.of(
+                joined("household2", "owner", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED, 100L),
+                joined("household2", "pending", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING, null))));
+
+        assertEquals(LeaveResult.ARCHIVED, householdService.leaveHousehold("owner", "household2", null).join());
+
+        assertTrue(householdRepository.findById("household2").join().isEmpty());
+        assertTrue(householdRepository.findArchived("household2").isPresent());
+        assertNull(userRepository.findById("owner").join().orElseThrow().getHouseholdMembership());
+        assertNull(userRepository.findById("pending").join().orElseThrow().getHouseholdMembership());
+    }
+
+    @Test
+    public void leaveHousehold_NonMemberIsRejected() {
+        assertThrows(CompletionException.class, () -> householdService.leaveHousehold("stranger", "household1", null).join());
+    }
+}
@@ -0,0 +1,78 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HouseholdTest {
+
+    private Household household;
+
+    @BeforeEach
+    public void setUp() {
+        household = new Household();
+        household.setId("household1");
+        household.setMembers(new ArrayList<>(List.of(
+                membership("owner", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED),
+                membership("member", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED),
+                membership("invitee", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING))));
+    }
+
+    private static HouseholdMembership membership(String userId, HouseholdRole role, HouseholdMembershipStatus status) {
+        return HouseholdMembership.builder().householdId("household1").userId(userId).householdRole(role).memberStatus(status).build();
+    }
+
+    @Test
+    public void lookups_ReflectTheMembersList() {
+        assertTrue(household.isOwner("owner"));
+        assertFalse(household.isOwner("member"));
+        assertTrue(household.isMember("invitee"));
+        assertFalse(household.isMember("stranger"));
+        assertEquals(HouseholdRole.MEMBER, household.findMember("member").orElseThrow().getHouseholdRole());
+        assertEquals(2, household.countWithStatus(HouseholdMembershipStatus.ACCEPTED));
+        assertEquals(1, household.countWithStatus(HouseholdMembershipStatus.PENDING));
+    }
+
+    @Test
+    public void lookups_FollowChangesMadeThroughTheList() {
+        household.getMembers().add(membership("newcomer", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING));
+        household.getMembers().removeIf(member -> member.getUserId().equals("owner"));
+
+        assertTrue(household.isMember("newcomer"));
+        assertFalse(household.isMember("owner"));
+        assertTrue(household.owner().isEmpty());
+        assertEquals(2, household.countWithStatus(HouseholdMembershipStatus.PENDING));
+    }
+
+    @Test
+    public void setMembers_AcceptsItsOwnList() {
+        household.setMembers(household.getMembers());
+
+        assertEquals(3, household.getMembers().size());
+        assertTrue(household.isOwner("owner"));
+    }
+
+    @Test
+    public void json_OnlyCarriesStoredFields() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode json = objectMapper.valueToTree(household);
+
+        assertEquals(List.of("id", "householdName", "members"), fieldNames(json.fieldNames()));
+        Household read = objectMapper.treeToValue(json, Household.class);
+        assertTrue(read.isOwner("owner"));
+        assertEquals(3, read.getMembers().size());
+    }
+
+    private static List<String> fieldNames(Iterator<String> names) {
+        List<String> list = new ArrayList<>();
+        names.forEachRemaining(list::add);
+        return list;
+    }
+}
@@ -0,0 +1,133 @@
+package com.steviecodesit.ourhomedev.household;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.user.InMemoryUserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryInviteRepositoryTest {
+
+    private InMemoryHouseholdRepository householdRepository;
+    private InMemoryInviteRepository inviteRepository;
+
+    @BeforeEach
+    public void setUp() {
+        SimulatedLatency noLatency = new SimulatedLatency(0, 0);
+        householdRepository = new InMemoryHouseholdRepository(noLatency, new InMemoryUserRepository(noLatency));
+        inviteRepository = new InMemoryInviteRepository(householdRepository);
+
+        Household household = new Household();
+        household.setId("household1");
+        household.setMembers(new ArrayList<>(List.of(HouseholdMembership.builder().userId("owner").build())));
+        householdRepository.create(household, household.getMembers().get(0)).join();
+    }
+
+    private HouseholdInvite invite(String householdId) {
+        HouseholdInvite invite = new HouseholdInvite();
+        invite.setHouseholdId(householdId);
+        invite.setInviteeUserId("invitee");
+        return invite;
+    }
+
+    @Test
+    public void create_SentStoresMemberAndInviteTogether() {
+        InviteResult result = inviteRepository.create(invite("household1"), household -> {
+            household.getMembers().add(HouseholdMembership.builder().userId("invitee").build());
+            return InviteResult.SENT;
+        }).join();
+
+        assertEquals(InviteResult.SENT, result);
+        assertEquals(2, householdRepository.findById("household1").join().orElseThrow().getMembers().size());
+        assertEquals(1, inviteRepository.size());
+    }
+
+    @Test
+    public void create_RejectedAdmitLeavesHouseholdUnchanged() {
+        InviteResult result = inviteRepository.create(invite("household1"), household -> {
+            household.getMembers().add(HouseholdMembership.builder().userId("invitee").build());
+            return InviteResult.NOT_OWNER;
+        }).join();
+
+        assertEquals(InviteResult.NOT_OWNER, result);
+        assertEquals(1, householdRepository.findById("household1").join().orElseThrow().getMembers().size());
+        assertEquals(0, inviteRepository.size());
+    }
+
+    @Test
+    public void create_MissingHousehold() {
+        assertEquals(InviteResult.HOUSEHOLD_NOT_FOUND, inviteRepository.create(invite("missing"), household -> InviteResult.SENT).join());
+    }
+
+    @Test
+    public void createAll_ReadsOnceAndKeysResultsByInvitee() {
+        HouseholdInvite first = invite("household1");
+        HouseholdInvite repeated = invite("household1");
+        HouseholdInvite owner = invite("household1");
+        owner.setInviteeUserId("owner");
+
+        Map<String, InviteResult> results = inviteRepository.createAll("household1", List.of(first, repeated, owner), (household, invite) -> {
+            if (household.isMember(invite.getInviteeUserId())) {
+                return InviteResult.ALREADY_MEMBER;
+            }
+            household.getMembers().add(HouseholdMembership.builder().userId(invite.getInviteeUserId()).build());
+            return InviteResult.SENT;
+        }).join();
+
+        assertEquals(Map.of("invitee", InviteResult.SENT, "owner", InviteResult.ALREADY_MEMBER), results);
+        assertEquals(2, householdRepository.findById("household1").join().orElseThrow().getMembers().size());
+        assertEquals(1, inviteRepository.size());
+    }
+
+    @Test
+    public void createAll_MissingHousehold() {
+        Map<String, InviteResult> results = inviteRepository.createAll("missing", List.of(invite("missing")), (household, invite) -> InviteResult.SENT).join();
+
+        assertEquals(Map.of("invitee", InviteResult.HOUSEHOLD_NOT_FOUND), results);
+    }
+
+    @Test
+    public void findPending_PagesThroughTheInboxNewestFirst() {
+        for (int i = 0; i < 5; i++) {
+            Household household = new Household();
+            household.setId("household" + (i + 2));
+            householdRepository.create(household, HouseholdMembership.builder().userId("owner").build()).join();
+            inviteRepository.create(invite(household.getId()), admitted -> InviteResult.SENT).join();
+        }
+
+        InvitePage first = inviteRepository.findPending("invitee", null, 3).join();
+        InvitePage second = inviteRepository.findPending("invitee", first.getNextCursor(), 3).join();
+
+        assertEquals(3, first.getInvites().size());
+        assertNotNull(first.getNextCursor());
+        assertEquals(2, second.getInvites().size());
+        assertNull(second.getNextCursor());
+        List<String> listed = new ArrayList<>();
+        first.getInvites().forEach(invite -> listed.add(invite.getHouseholdId()));
+        second.getInvites().forEach(invite -> listed.add(invite.getHouseholdId()));
+        assertEquals(5, listed.stream().distinct().count());
+        assertTrue(first.getInvites().get(0).getCreatedAt() >= second.getInvites().get(1).getCreatedAt());
+    }
+
+    @Test
+    public void resolve_RemovesTheInboxEntry() {
+        inviteRepository.create(invite("household1"), household -> InviteResult.SENT).join();
+
+        inviteRepository.resolve("invitee", "household1").join();
+
+        assertTrue(inviteRepository.findPending("invitee", null, 10).join().getInvites().isEmpty());
+    }
+
+    @Test
+    public void findPending_RejectsForeignCursor() {
+        CompletionException error = assertThrows(CompletionException.class, () -> inviteRepository.findPending("invitee", "not-a-cursor", 10).join());
+
+        assertInstanceOf(IllegalArgumentException.class, error.getCause());
+    }
+}
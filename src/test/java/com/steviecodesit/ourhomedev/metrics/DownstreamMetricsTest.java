@@ -0,0 +1,86 @@
+package com.steviecodesit.ourhomedev.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownstreamMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private DownstreamMetrics metrics;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new DownstreamMetrics(registry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RequestTimings.set(null);
+    }
+
+    private double inFlight() {
+        return registry.get("firestore.operations.in.flight").tag("collection", "users").tag("operation", "get").gauge().value();
+    }
+
+    @Test
+    public void firestore_RecordsOutcomeAndInFlightCalls() {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> call = metrics.firestore("users", "get", () -> pending);
+
+        assertEquals(1.0, inFlight());
+        pending.complete("done");
+
+        assertEquals("done", call.join());
+        assertEquals(0.0, inFlight());
+        assertEquals(1, registry.get("firestore.operations").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    public void firebaseAuth_SynchronousThrowIsRecordedAsError() {
+        CompletableFuture<String> call = metrics.firebaseAuth("verifyIdToken", () -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertTrue(call.isCompletedExceptionally());
+        assertEquals(1, registry.get("firebase.auth.operations")
+                .tag("outcome", "error")
+                .tag("exception", "IllegalStateException")
+                .timer().count());
+    }
+
+    @Test
+    public void requestTimings_OverlappingCallsCountOnce() {
+        RequestTimings timings = new RequestTimings();
+
+        timings.downstreamStarted(100);
+        timings.downstreamStarted(150);
+        timings.downstreamFinished(200);
+        timings.downstreamFinished(300);
+        timings.downstreamStarted(400);
+        timings.downstreamFinished(450);
+
+        assertEquals(250, timings.getDownstreamNanos(500));
+    }
+
+    @Test
+    public void firestore_CountsTowardsCurrentRequest() {
+        RequestTimings timings = new RequestTimings();
+        RequestTimings.set(timings);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        metrics.firestore("users", "get", () -> pending);
+        long whileInFlight = timings.getDownstreamNanos(System.nanoTime());
+        pending.complete("done");
+
+        assertTrue(whileInFlight >= 0);
+        long afterwards = timings.getDownstreamNanos(System.nanoTime());
+        assertEquals(afterwards, timings.getDownstreamNanos(System.nanoTime() + 1_000_000_000L));
+    }
+}
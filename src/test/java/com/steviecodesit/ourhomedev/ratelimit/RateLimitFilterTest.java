@@ -0,0 +1,121 @@
+package com.steviecodesit.ourhomedev.ratelimit;
+
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class RateLimitFilterTest {
+
+    private IdTokenVerifier idTokenVerifier;
+    private AtomicLong now;
+    private SimpleMeterRegistry registry;
+    private RateLimitFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        idTokenVerifier = mock(IdTokenVerifier.class);
+        when(idTokenVerifier.cachedUserId(anyString())).thenReturn(Optional.empty());
+        now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+        registry = new SimpleMeterRegistry();
+        filter = new RateLimitFilter(idTokenVerifier, registry, Map.of("/api/users/login", "2/10s", "/api/households/search-users", ""),
+                "100/1s", 60, now::get);
+    }
+
+    private MockHttpServletResponse send(String path, String remoteAddr, String idToken) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.setRemoteAddr(remoteAddr);
+        if (idToken != null) {
+            request.addHeader("Authorization", idToken);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, mock(FilterChain.class));
+        return response;
+    }
+
+    @Test
+    public void rejectsOnceTheBurstIsSpent_WithRetryAfterUntilTheNextToken() throws Exception {
+        assertEquals(200, send("/api/users/login", "10.0.0.1", null).getStatus());
+        assertEquals(200, send("/api/users/login", "10.0.0.1", null).getStatus());
+
+        MockHttpServletResponse rejected = send("/api/users/login", "10.0.0.1", null);
+        assertEquals(429, rejected.getStatus());
+        assertEquals("5", rejected.getHeader("Retry-After"));
+        assertEquals(1.0, registry.get("ratelimit.rejected").tag("uri", "/api/users/login").counter().count());
+
+        // Other clients and other endpoints have their own buckets
+        assertEquals(200, send("/api/users/login", "10.0.0.2", null).getStatus());
+        assertEquals(200, send("/api/users/register", "10.0.0.1", null).getStatus());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertEquals(200, send("/api/users/login", "10.0.0.1", null).getStatus());
+    }
+
+    @Test
+    public void keysByUserOnceTheirTokenIsVerified() throws Exception {
+        when(idTokenVerifier.cachedUserId("token-a")).thenReturn(Optional.of("uid-a"));
+
+        send("/api/users/login", "10.0.0.1", "token-a");
+        send("/api/users/login", "10.0.0.1", "token-a");
+        assertEquals(429, send("/api/users/login", "10.0.0.9", "token-a").getStatus());
+        // A token not verified yet counts against the client address, whose bucket is still full
+        assertEquals(200, send("/api/users/login", "10.0.0.1", "token-b").getStatus());
+    }
+
+    @Test
+    public void endpointWithAnEmptyLimitIsNotLimited() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            assertEquals(200, send("/api/households/search-users", "10.0.0.1", null).getStatus());
+        }
+        assertEquals(0, filter.bucketCount());
+    }
+
+    @Test
+    public void pathVariantsSpringRoutesAlikeShareABucket() throws Exception {
+        assertEquals(200, send("/api/users/login;jsessionid=x", "10.0.0.1", null).getStatus());
+        assertEquals(200, send("/api/users//login", "10.0.0.1", null).getStatus());
+
+        assertEquals(429, send("/api/users/%6Cogin", "10.0.0.1", null).getStatus());
+    }
+
+    @Test
+    public void nonApiPathsAreNotLimited() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            assertEquals(200, send("/actuator/health", "10.0.0.1", null).getStatus());
+        }
+        assertEquals(0, filter.bucketCount());
+    }
+
+    @Test
+    public void evictIdle_DropsOnlyRefilledBuckets() throws Exception {
+        send("/api/users/login", "10.0.0.1", null);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(3));
+        send("/api/users/login", "10.0.0.2", null);
+        assertEquals(2, filter.bucketCount());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(3));
+        filter.evictIdle();
+
+        assertEquals(1, filter.bucketCount());
+    }
+
+    @Test
+    public void rejectsMalformedLimits() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new RateLimitFilter(idTokenVerifier, registry, Map.of("/api/users/login", "20"), "", 60, now::get));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RateLimitFilter(idTokenVerifier, registry, Map.of("/api/users/login", "0/1m"), "", 60, now::get));
+    }
+}
@@ -0,0 +1,236 @@
+package com.steviecodesit.ourhomedev.reconcile;
+
+import com.steviecodesit.ourhomedev.household.Household;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import com.steviecodesit.ourhomedev.household.HouseholdMembershipStatus;
+import com.steviecodesit.ourhomedev.household.HouseholdRole;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MembershipReconcilerTest {
+
+    private FakeStore store;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        store = new FakeStore();
+        registry = new SimpleMeterRegistry();
+    }
+
+    private MembershipReconciler reconciler(boolean dryRun) {
+        // Pages of two make every merge cross page boundaries
+        return new MembershipReconciler(store, registry, 2, 3, 1_000_000, dryRun, 1, 60);
+    }
+
+    private static HouseholdMembership membership(String householdId, String userId, HouseholdRole role, HouseholdMembershipStatus status) {
+        return HouseholdMembership.builder().householdId(householdId).userId(userId).householdRole(role).memberStatus(status).build();
+    }
+
+    private void household(String householdId, HouseholdMembership... members) {
+        Household household = new Household();
+        household.setId(householdId);
+        household.setMembers(new ArrayList<>(List.of(members)));
+        store.households.put(householdId, household);
+    }
+
+    // A household whose three copies all agree: each member indexed and pointing at it
+    private void consistentHousehold(String householdId, HouseholdMembership... members) {
+        household(householdId, members);
+        for (HouseholdMembership member : members) {
+            store.index(member);
+            store.user(member.getUserId(), member);
+        }
+    }
+
+    @Test
+    public void run_ConsistentMembershipsAreLeftAlone() {
+        consistentHousehold("h1", membership("h1", "a", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED),
+                membership("h1", "b", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED),
+                membership("h1", "c", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED));
+        consistentHousehold("h2", membership("h2", "d", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED));
+        store.user("e", null);
+
+        assertTrue(reconciler(false).run().isEmpty());
+        assertEquals(0, store.writes);
+    }
+
+    @Test
+    public void run_RepairsTheIndexFromTheHousehold() {
+        HouseholdMembership owner = membership("h1", "a", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED);
+        HouseholdMembership member = membership("h1", "b", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED);
+        household("h1", owner, member, membership("h1", "c", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING));
+        store.user("a", owner);
+        store.user("b", member);
+        store.user("c", null);
+        store.index(owner);
+        store.index(owner);
+        store.index(membership("h1", "b", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING));
+        // Left over from a household that was archived
+        store.index(membership("gone", "a", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED));
+
+        Map<MembershipReconciler.Drift, Long> drift = reconciler(false).run();
+
+        assertEquals(Map.of(MembershipReconciler.Drift.INDEX_MISSING, 1L, MembershipReconciler.Drift.INDEX_STALE, 1L,
+                MembershipReconciler.Drift.INDEX_ORPHANED, 2L), drift);
+        assertEquals(List.of("a", "b", "c"), store.index.values().stream().map(HouseholdMembership::getUserId).sorted().toList());
+        assertTrue(store.index.values().stream().allMatch(entry -> entry.getHouseholdId().equals("h1")));
+        // The missing entry is added under the id the household repository gives it
+        assertTrue(store.index.containsKey("h1_c"));
+        assertTrue(reconciler(false).run().isEmpty());
+    }
+
+    @Test
+    public void run_RepairsUsersFromTheirHouseholds() {
+        HouseholdMembership owner = membership("h1", "a", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED);
+        HouseholdMembership newOwner = membership("h2", "b", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED);
+        HouseholdMembership request = membership("h2", "c", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING);
+        consistentHousehold("h1", owner);
+        consistentHousehold("h2", newOwner, request);
+        // Created the household but was never pointed at it
+        store.user("a", null);
+        // Was promoted to owner, but still holds their old member entry
+        store.user("b", membership("h2", "b", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED));
+        // Points at a household that has since dropped them
+        store.user("d", membership("h1", "d", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED));
+
+        Map<MembershipReconciler.Drift, Long> drift = reconciler(false).run();
+
+        assertEquals(Map.of(MembershipReconciler.Drift.USER_MISSING, 1L, MembershipReconciler.Drift.USER_STALE, 1L,
+                MembershipReconciler.Drift.USER_ORPHANED, 1L), drift);
+        assertTrue(MembershipReconciler.sameMembership(owner, store.users.get("a").membership()));
+        assertTrue(MembershipReconciler.sameMembership(newOwner, store.users.get("b").membership()));
+        assertTrue(MembershipReconciler.sameMembership(request, store.users.get("c").membership()));
+        assertNull(store.users.get("d").membership());
+    }
+
+    @Test
+    public void run_UsersChangedSinceTheScanAreSkipped() {
+        HouseholdMembership owner = membership("h1", "a", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED);
+        consistentHousehold("h1", owner);
+        store.user("a", null);
+        store.conflicting.add("a");
+
+        reconciler(false).run();
+
+        assertNull(store.users.get("a").membership());
+        assertEquals(1.0, registry.get("household.reconcile.repairs").tag("outcome", "conflict").counter().count());
+    }
+
+    @Test
+    public void run_DryRunOnlyCountsDrift() {
+        HouseholdMembership owner = membership("h1", "a", HouseholdRole.OWNER, HouseholdMembershipStatus.ACCEPTED);
+        consistentHousehold("h1", owner);
+        store.index(membership("h1", "ghost", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED));
+
+        Map<MembershipReconciler.Drift, Long> drift = reconciler(true).run();
+
+        assertEquals(Map.of(MembershipReconciler.Drift.INDEX_ORPHANED, 1L, MembershipReconciler.Drift.USER_DELETED, 1L), drift);
+        assertEquals(0, store.writes);
+        assertEquals(1.0, registry.get("household.reconcile.last-run.drift").tag("kind", "index-orphaned").gauge().value());
+    }
+
+    @Test
+    public void expectedMembership_PrefersTheLongestStandingAcceptedHousehold() {
+        HouseholdMembership older = membership("h1", "a", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED).toBuilder().joinedAt(100L).build();
+        HouseholdMembership newer = membership("h2", "a", HouseholdRole.MEMBER, HouseholdMembershipStatus.ACCEPTED).toBuilder().joinedAt(200L).build();
+        HouseholdMembership invite = membership("h3", "a", HouseholdRole.MEMBER, HouseholdMembershipStatus.PENDING);
+
+        assertSame(older, MembershipReconciler.expectedMembership(null, List.of(invite, newer, older)));
+        assertSame(newer, MembershipReconciler.expectedMembership(newer, List.of(invite, newer, older)));
+        assertNull(MembershipReconciler.expectedMembership(null, List.of(invite)));
+    }
+
+    @Test
+    public void pagedCursor_RejectsItemsOutOfOrder() {
+        PagedCursor<String> cursor = new PagedCursor<>((last, limit) -> CompletableFuture.completedFuture(last == null ? List.of("b", "a") : List.of()),
+                PagedCursor.KEY_ORDER, 2);
+
+        assertEquals("b", cursor.next());
+        assertThrows(IllegalStateException.class, cursor::next);
+    }
+
+    @Test
+    public void pagedCursor_OrdersByCodePoint() {
+        // U+1F600 is a surrogate pair in UTF-16, which String.compareTo puts before U+FF21
+        assertTrue(PagedCursor.KEY_ORDER.compare("Ａ", "😀") < 0);
+    }
+
+    // Keeps each collection in its key order and pages through it as Firestore would
+    private static final class FakeStore implements MembershipStore {
+
+        private final NavigableMap<String, Household> households = new TreeMap<>(PagedCursor.KEY_ORDER);
+        private final NavigableMap<String, HouseholdMembership> index = new TreeMap<>(PagedCursor.KEY_ORDER);
+        private final NavigableMap<String, StoredUser> users = new TreeMap<>(PagedCursor.KEY_ORDER);
+        private final Set<String> conflicting = new HashSet<>();
+        private int nextId;
+        private int writes;
+
+        void index(HouseholdMembership membership) {
+            index.put(String.format("m%04d", nextId++), membership);
+        }
+
+        void user(String userId, HouseholdMembership membership) {
+            users.put(userId, new StoredUser(userId, membership, "1"));
+        }
+
+        @Override
+        public CompletableFuture<List<Household>> households(Household after, int limit) {
+            return CompletableFuture.completedFuture(page(households.values(), after, limit, Comparator.comparing(Household::getId, PagedCursor.KEY_ORDER)));
+        }
+
+        @Override
+        public CompletableFuture<List<IndexEntry>> indexByHousehold(IndexEntry after, int limit) {
+            return CompletableFuture.completedFuture(page(entries(), after, limit, Comparator
+                    .comparing(IndexEntry::householdId, PagedCursor.KEY_ORDER)
+                    .thenComparing(IndexEntry::userId, PagedCursor.KEY_ORDER)
+                    .thenComparing(IndexEntry::id, PagedCursor.KEY_ORDER)));
+        }
+
+        @Override
+        public CompletableFuture<List<IndexEntry>> indexByUser(IndexEntry after, int limit) {
+            return CompletableFuture.completedFuture(page(entries(), after, limit, Comparator
+                    .comparing(IndexEntry::userId, PagedCursor.KEY_ORDER)
+                    .thenComparing(IndexEntry::id, PagedCursor.KEY_ORDER)));
+        }
+
+        @Override
+        public CompletableFuture<List<StoredUser>> users(StoredUser after, int limit) {
+            return CompletableFuture.completedFuture(page(users.values(), after, limit, Comparator.comparing(StoredUser::id, PagedCursor.KEY_ORDER)));
+        }
+
+        @Override
+        public CompletableFuture<Integer> write(List<Repair> repairs) {
+            int skipped = 0;
+            for (Repair repair : repairs) {
+                writes++;
+                if (repair instanceof Repair.PutIndex put) {
+                    index.put(put.id(), put.membership());
+                } else if (repair instanceof Repair.DeleteIndex delete) {
+                    index.remove(delete.id());
+                } else if (repair instanceof Repair.SetUserMembership set) {
+                    if (conflicting.contains(set.userId())) {
+                        skipped++;
+                    } else {
+                        users.put(set.userId(), new StoredUser(set.userId(), set.membership(), "2"));
+                    }
+                }
+            }
+            return CompletableFuture.completedFuture(skipped);
+        }
+
+        private List<IndexEntry> entries() {
+            return index.entrySet().stream().map(entry -> new IndexEntry(entry.getKey(), entry.getValue())).toList();
+        }
+
+        private static <T> List<T> page(Collection<T> items, T after, int limit, Comparator<T> order) {
+            return items.stream().sorted(order).filter(item -> after == null || order.compare(item, after) > 0).limit(limit).toList();
+        }
+    }
+}
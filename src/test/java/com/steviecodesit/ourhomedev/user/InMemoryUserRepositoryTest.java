@@ -0,0 +1,72 @@
+package com.steviecodesit.ourhomedev.user;
+
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryUserRepositoryTest {
+
+    private InMemoryUserRepository userRepository;
+
+    @BeforeEach
+    public void setUp() {
+        userRepository = new InMemoryUserRepository(new SimulatedLatency(0, 0));
+    }
+
+    private User user(String displayName, String email) {
+        return User.builder().displayName(displayName).email(email).build();
+    }
+
+    @Test
+    public void reserveRegistration_ConcurrentSignUpsClaimNameOnce() {
+        List<CompletableFuture<RegistrationResult>> attempts = IntStream.range(0, 20)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> "uid" + i)
+                        .thenCompose(uid -> userRepository.reserveRegistration(uid, user("Sam", uid + "@example.com"))))
+                .toList();
+
+        long reserved = attempts.stream().map(CompletableFuture::join).filter(result -> result == RegistrationResult.RESERVED).count();
+
+        assertEquals(1, reserved);
+    }
+
+    @Test
+    public void reserveRegistration_EmailIsCaseInsensitive() {
+        userRepository.reserveRegistration("uid1", user("Sam", "sam@example.com")).join();
+
+        assertEquals(RegistrationResult.EMAIL_TAKEN, userRepository.reserveRegistration("uid2", user("Alex", "SAM@example.com")).join());
+    }
+
+    @Test
+    public void releaseRegistration_FreesNameAndRemovesUser() {
+        userRepository.reserveRegistration("uid1", user("Sam", "sam@example.com")).join();
+        userRepository.releaseRegistration("uid1", "Sam", "sam@example.com").join();
+
+        assertTrue(userRepository.findById("uid1").join().isEmpty());
+        assertEquals(RegistrationResult.RESERVED, userRepository.reserveRegistration("uid2", user("Sam", "sam@example.com")).join());
+    }
+
+    @Test
+    public void findById_ReturnsCopy() {
+        userRepository.save("uid1", user("Sam", "sam@example.com")).join();
+
+        userRepository.findById("uid1").join().orElseThrow().setDisplayName("Changed");
+
+        assertEquals("Sam", userRepository.findById("uid1").join().orElseThrow().getDisplayName());
+    }
+
+    @Test
+    public void findById_CompletesAfterSimulatedLatency() {
+        userRepository = new InMemoryUserRepository(new SimulatedLatency(50, 0));
+
+        long start = System.nanoTime();
+        userRepository.findById("uid1").join();
+
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+}
@@ -0,0 +1,113 @@
+package com.steviecodesit.ourhomedev.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+public class PresenceTrackerTest {
+
+    private UserRepository userRepository;
+    private AtomicLong now;
+    private PresenceTracker presenceTracker;
+
+    @BeforeEach
+    public void setUp() {
+        userRepository = mock(UserRepository.class);
+        when(userRepository.updateLoggedIn(anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+        now = new AtomicLong(TimeUnit.HOURS.toMillis(1));
+        presenceTracker = new PresenceTracker(userRepository, new SimpleMeterRegistry(), 1000, 2, 30, now::get);
+    }
+
+    @Test
+    public void flush_CoalescesTogglesIntoOneBatchedWrite() {
+        presenceTracker.set("user1", true);
+        presenceTracker.set("user1", false);
+        presenceTracker.set("user1", true);
+        presenceTracker.set("user2", false);
+
+        presenceTracker.flush().join();
+        presenceTracker.flush().join();
+
+        verify(userRepository, times(1)).updateLoggedIn(Map.of("user1", true, "user2", false));
+        verify(userRepository, never()).updateLoggedIn(anyString(), anyBoolean());
+    }
+
+    @Test
+    public void flush_FailedWriteIsRetriedWithTheLatestState() {
+        when(userRepository.updateLoggedIn(anyMap()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("unavailable")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        presenceTracker.set("user1", true);
+        presenceTracker.flush().join();
+        presenceTracker.set("user1", false);
+        presenceTracker.flush().join();
+
+        verify(userRepository).updateLoggedIn(Map.of("user1", true));
+        verify(userRepository).updateLoggedIn(Map.of("user1", false));
+    }
+
+    @Test
+    public void isLoggedIn_ReadsTheStoreOncePerUser() {
+        when(userRepository.findLoggedIn("user1")).thenReturn(CompletableFuture.completedFuture(true));
+
+        assertTrue(presenceTracker.isLoggedIn("user1").join());
+        assertTrue(presenceTracker.isLoggedIn("user1").join());
+
+        verify(userRepository, times(1)).findLoggedIn("user1");
+    }
+
+    @Test
+    public void isLoggedIn_ReadsTheStoreAgainOnceMaxAgeHasPassed() {
+        when(userRepository.findLoggedIn("user1"))
+                .thenReturn(CompletableFuture.completedFuture(true))
+                .thenReturn(CompletableFuture.completedFuture(false));
+
+        assertTrue(presenceTracker.isLoggedIn("user1").join());
+        now.addAndGet(TimeUnit.SECONDS.toMillis(29));
+        assertTrue(presenceTracker.isLoggedIn("user1").join());
+        // Logged out on another instance in the meantime
+        now.addAndGet(TimeUnit.SECONDS.toMillis(1));
+        assertFalse(presenceTracker.isLoggedIn("user1").join());
+
+        verify(userRepository, times(2)).findLoggedIn("user1");
+    }
+
+    @Test
+    public void isLoggedIn_UnwrittenChangeIsAnsweredWithoutARead() {
+        presenceTracker.set("user1", false);
+        assertFalse(presenceTracker.isLoggedIn("user1").join());
+
+        presenceTracker.flush().join();
+        assertFalse(presenceTracker.isLoggedIn("user1").join());
+        verify(userRepository, never()).findLoggedIn("user1");
+    }
+
+    @Test
+    public void isLoggedIn_LeastRecentlyCheckedUserIsReadAgain() {
+        when(userRepository.findLoggedIn(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        // Unwritten changes are kept whatever the table's size
+        presenceTracker.set("user0", false);
+
+        presenceTracker.isLoggedIn("user1").join();
+        presenceTracker.isLoggedIn("user2").join();
+        presenceTracker.isLoggedIn("user3").join();
+        presenceTracker.isLoggedIn("user2").join();
+
+        assertFalse(presenceTracker.isLoggedIn("user0").join());
+        verify(userRepository, never()).findLoggedIn("user0");
+        verify(userRepository, times(1)).findLoggedIn("user2");
+        presenceTracker.isLoggedIn("user1").join();
+        verify(userRepository, times(2)).findLoggedIn("user1");
+    }
+}
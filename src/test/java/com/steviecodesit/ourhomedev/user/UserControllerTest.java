@@ -1,5 +1,6 @@
 package com.steviecodesit.ourhomedev.user;
 
+import com.google.api.core.ApiFutures;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
@@ -7,6 +8,8 @@ import com.google.firebase.auth.UserRecord;
 import com.steviecodesit.ourhomedev.auth.FirebaseAuthService;
 import com.steviecodesit.ourhomedev.request.LoginRequest;
 import com.steviecodesit.ourhomedev.request.RegistrationRequest;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,6 +19,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -33,11 +37,11 @@ public class UserControllerTest {
         firebaseAuthService = mock(FirebaseAuthService.class);
         userService = mock(UserService.class);
         firebaseAuth = mock(FirebaseAuth.class);
-        userController = new UserController(firebaseAuthService, userService, firebaseAuth);
+        userController = new UserController(firebaseAuthService, userService, firebaseAuth, new DownstreamMetrics(new SimpleMeterRegistry()));
     }
 
     @Test
-    public void registerUser_Success() throws FirebaseAuthException {
+    public void registerUser_Success() {
         RegistrationRequest request = new RegistrationRequest();
         request.setEmail("email@example.com");
         request.setPassword("Password1!");
@@ -46,17 +50,18 @@ public class UserControllerTest {
         UserRecord userRecord = mock(UserRecord.class);
         when(userRecord.getUid()).thenReturn("uid123");
         when(userService.isValidPassword(anyString())).thenReturn(true);
-        when(userService.isDisplayNameUnique(anyString())).thenReturn(true);
-        when(userService.isEmailUnique(anyString())).thenReturn(true);
-        when(firebaseAuthService.registerUser(anyString(), anyString(), anyString())).thenReturn(userRecord);
-        when(firebaseAuth.createCustomToken("uid123")).thenReturn("customToken");
+        when(userService.newUserId()).thenReturn("uid123");
+        when(userService.reserveRegistration("uid123", "username", "email@example.com")).thenReturn(CompletableFuture.completedFuture(RegistrationResult.RESERVED));
+        when(firebaseAuthService.registerUser(anyString(), anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(userRecord));
+        when(firebaseAuth.createCustomTokenAsync("uid123")).thenReturn(ApiFutures.immediateFuture("customToken"));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.registerUser(request, mockResponse);
+        ResponseEntity<String> response = userController.registerUser(request, mockResponse).join();
 
         // Verify the response status and body
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("User registered successfully!", response.getBody());
+        verify(userService).updateIsLoggedInStatus("uid123", true);
 
         // Verify that the cookie was added to the response
         verify(mockResponse).addCookie(argThat(cookie ->
@@ -73,7 +78,7 @@ public class UserControllerTest {
         RegistrationRequest request = new RegistrationRequest();
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.registerUser(request, mockResponse);
+        ResponseEntity<String> response = userController.registerUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertEquals("Email, password, and userName are required.", response.getBody());
@@ -91,7 +96,7 @@ public class UserControllerTest {
         when(userService.isValidPassword(anyString())).thenReturn(false);
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.registerUser(request, mockResponse);
+        ResponseEntity<String> response = userController.registerUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertEquals("Password must meet the required criteria.", response.getBody());
@@ -107,10 +112,11 @@ public class UserControllerTest {
         request.setUsername("username");
 
         when(userService.isValidPassword(anyString())).thenReturn(true);
-        when(userService.isDisplayNameUnique(anyString())).thenReturn(false);
+        when(userService.newUserId()).thenReturn("uid123");
+        when(userService.reserveRegistration(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(RegistrationResult.DISPLAY_NAME_TAKEN));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.registerUser(request, mockResponse);
+        ResponseEntity<String> response = userController.registerUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertEquals("Display name is already taken.", response.getBody());
@@ -126,11 +132,11 @@ public class UserControllerTest {
         request.setUsername("username");
 
         when(userService.isValidPassword(anyString())).thenReturn(true);
-        when(userService.isDisplayNameUnique(anyString())).thenReturn(true);
-        when(userService.isEmailUnique(anyString())).thenReturn(false);
+        when(userService.newUserId()).thenReturn("uid123");
+        when(userService.reserveRegistration(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(RegistrationResult.EMAIL_TAKEN));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.registerUser(request, mockResponse);
+        ResponseEntity<String> response = userController.registerUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertEquals("A user has already registered with that email.", response.getBody());
@@ -139,19 +145,19 @@ public class UserControllerTest {
     }
 
     @Test
-    public void registerUser_InternalServiceError() throws FirebaseAuthException {
+    public void registerUser_InternalServiceError() {
         RegistrationRequest request = new RegistrationRequest();
         request.setEmail("email@example.com");
         request.setPassword("Password1!");
         request.setUsername("username");
 
         when(userService.isValidPassword(anyString())).thenReturn(true);
-        when(userService.isDisplayNameUnique(anyString())).thenReturn(true);
-        when(userService.isEmailUnique(anyString())).thenReturn(true);
-        when(firebaseAuthService.registerUser(anyString(), anyString(), anyString())).thenThrow(FirebaseAuthException.class);
+        when(userService.newUserId()).thenReturn("uid123");
+        when(userService.reserveRegistration("uid123", "username", "email@example.com")).thenReturn(CompletableFuture.completedFuture(RegistrationResult.RESERVED));
+        when(firebaseAuthService.registerUser(anyString(), anyString(), anyString(), anyString())).thenReturn(CompletableFuture.failedFuture(mock(FirebaseAuthException.class)));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.registerUser(request, mockResponse);
+        ResponseEntity<String> response = userController.registerUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
         assertEquals("Registration failed.", response.getBody());
@@ -160,18 +166,18 @@ public class UserControllerTest {
     }
 
     @Test
-    public void loginUser_Success() throws FirebaseAuthException {
+    public void loginUser_Success() {
         LoginRequest request = new LoginRequest();
         request.setEmail("email@example.com");
 
         UserRecord userRecord = mock(UserRecord.class);
         when(userRecord.getUid()).thenReturn("uid123");
-        when(userService.isUserLoggedIn(anyString())).thenReturn(false);
-        when(firebaseAuth.getUserByEmail(anyString())).thenReturn(userRecord);
-        when(firebaseAuth.createCustomToken("uid123")).thenReturn("customToken");
+        when(userService.isUserLoggedIn(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+        when(firebaseAuth.getUserByEmailAsync(anyString())).thenReturn(ApiFutures.immediateFuture(userRecord));
+        when(firebaseAuth.createCustomTokenAsync("uid123")).thenReturn(ApiFutures.immediateFuture("customToken"));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.loginUser(request, mockResponse);
+        ResponseEntity<String> response = userController.loginUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("User logged in successfully!", response.getBody());
@@ -186,18 +192,18 @@ public class UserControllerTest {
     }
 
     @Test
-    public void loginUser_UserAlreadyLoggedIn() throws FirebaseAuthException {
+    public void loginUser_UserAlreadyLoggedIn() {
         LoginRequest request = new LoginRequest();
         request.setEmail("email@example.com");
 
         UserRecord userRecord = mock(UserRecord.class);
         when(userRecord.getUid()).thenReturn("uid123");
-        when(userService.isUserLoggedIn(anyString())).thenReturn(true);
+        when(userService.isUserLoggedIn(anyString())).thenReturn(CompletableFuture.completedFuture(true));
 
-        when(firebaseAuth.getUserByEmail(request.getEmail())).thenReturn(userRecord);
+        when(firebaseAuth.getUserByEmailAsync(request.getEmail())).thenReturn(ApiFutures.immediateFuture(userRecord));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.loginUser(request, mockResponse);
+        ResponseEntity<String> response = userController.loginUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertEquals("User is already logged in.", response.getBody());
@@ -206,17 +212,17 @@ public class UserControllerTest {
     }
 
     @Test
-    public void loginUser_UnauthorizedRequest() throws FirebaseAuthException {
+    public void loginUser_UnauthorizedRequest() {
         LoginRequest request = new LoginRequest();
         request.setEmail("email@example.com");
 
         UserRecord userRecord = mock(UserRecord.class);
         when(userRecord.getUid()).thenReturn("uid123");
-        when(userService.isUserLoggedIn(anyString())).thenReturn(false);
-        when(firebaseAuth.getUserByEmail(anyString())).thenThrow(FirebaseAuthException.class);
+        when(userService.isUserLoggedIn(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+        when(firebaseAuth.getUserByEmailAsync(anyString())).thenReturn(ApiFutures.immediateFailedFuture(mock(FirebaseAuthException.class)));
 
         HttpServletResponse mockResponse = mock(HttpServletResponse.class);
-        ResponseEntity<String> response = userController.loginUser(request, mockResponse);
+        ResponseEntity<String> response = userController.loginUser(request, mockResponse).join();
 
         assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
 
@@ -224,16 +230,16 @@ public class UserControllerTest {
     }
 
     @Test
-    public void logoutUser_Success() throws Exception {
+    public void logoutUser_Success() {
         String uid = "uid123";
         String token = "someToken";
 
         FirebaseToken firebaseToken = mock(FirebaseToken.class);
         when(firebaseToken.getUid()).thenReturn(uid);
-        when(firebaseAuth.verifyIdToken(token)).thenReturn(firebaseToken);
+        when(firebaseAuth.verifyIdTokenAsync(token)).thenReturn(ApiFutures.immediateFuture(firebaseToken));
 
         MockHttpServletResponse mockResponse = new MockHttpServletResponse();
-        ResponseEntity<String> response = userController.logoutUser(token, mockResponse);
+        ResponseEntity<String> response = userController.logoutUser(token, mockResponse).join();
 
         Cookie[] cookies = mockResponse.getCookies();
         Cookie customTokenCookie = Arrays.stream(cookies)
@@ -251,13 +257,13 @@ public class UserControllerTest {
     }
 
     @Test
-    public void logoutUser_InternalServiceError() throws Exception {
+    public void logoutUser_InternalServiceError() {
         String token = "someToken";
 
-        when(firebaseAuth.verifyIdToken(token)).thenThrow(RuntimeException.class);
+        when(firebaseAuth.verifyIdTokenAsync(token)).thenThrow(RuntimeException.class);
 
         MockHttpServletResponse mockResponse = new MockHttpServletResponse();
-        ResponseEntity<String> response = userController.logoutUser(token, mockResponse);
+        ResponseEntity<String> response = userController.logoutUser(token, mockResponse).join();
 
         Cookie[] cookies = mockResponse.getCookies();
         Cookie customTokenCookie = Arrays.stream(cookies)
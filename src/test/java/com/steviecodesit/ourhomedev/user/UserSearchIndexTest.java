@@ -0,0 +1,76 @@
+package com.steviecodesit.ourhomedev.user;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserSearchIndexTest {
+
+    private UserSearchIndex userSearchIndex;
+
+    @BeforeEach
+    public void setUp() {
+        userSearchIndex = new UserSearchIndex();
+        userSearchIndex.put("u1", user("Johnny Appleseed", "johnny@example.com"));
+        userSearchIndex.put("u2", user("John", "jdoe@example.com"));
+        userSearchIndex.put("u3", user("Mary Jones", "mary@example.com"));
+    }
+
+    private User user(String displayName, String email) {
+        return User.builder().displayName(displayName).email(email).build();
+    }
+
+    private List<String> displayNames(List<UserSummary> users) {
+        return users.stream().map(UserSummary::displayName).toList();
+    }
+
+    @Test
+    public void search_PrefixMatchesRankExactFirst() {
+        assertEquals(List.of("John", "Johnny Appleseed"), displayNames(userSearchIndex.search("john", 0, 10)));
+    }
+
+    @Test
+    public void search_MatchesLaterWords() {
+        assertEquals(List.of("Johnny Appleseed"), displayNames(userSearchIndex.search("Apple", 0, 10)));
+    }
+
+    @Test
+    public void search_MatchesOnlyWholeEmails() {
+        assertEquals(List.of(new UserSummary("u3", "Mary Jones")), userSearchIndex.search("Mary@Example.com", 0, 10));
+        assertTrue(userSearchIndex.search("mary@ex", 0, 10).isEmpty());
+        assertTrue(userSearchIndex.search("jdoe", 0, 10).isEmpty());
+        assertTrue(userSearchIndex.search("example.com", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void search_ToleratesTypos() {
+        assertEquals(List.of("Johnny Appleseed"), displayNames(userSearchIndex.search("apelseed", 0, 10)));
+        assertEquals(List.of("Mary Jones"), displayNames(userSearchIndex.search("jomes", 0, 10)));
+    }
+
+    @Test
+    public void search_Paginates() {
+        assertEquals(List.of("Johnny Appleseed"), displayNames(userSearchIndex.search("joh", 1, 1)));
+        assertTrue(userSearchIndex.search("joh", 5, 10).isEmpty());
+    }
+
+    @Test
+    public void put_ReplacesPreviousTerms() {
+        userSearchIndex.put("u2", user("Jane", "jane@example.com"));
+
+        assertEquals(List.of("Johnny Appleseed"), displayNames(userSearchIndex.search("john", 0, 10)));
+        assertEquals(List.of("Jane"), displayNames(userSearchIndex.search("jan", 0, 10)));
+        assertEquals(3, userSearchIndex.size());
+    }
+
+    @Test
+    public void remove_DropsUserFromResults() {
+        userSearchIndex.remove("u3");
+
+        assertTrue(userSearchIndex.search("mary", 0, 10).isEmpty());
+        assertEquals(2, userSearchIndex.size());
+    }
+}
@@ -4,14 +4,21 @@ import com.google.api.core.ApiFuture;
 import com.google.api.core.ApiFutures;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.UserRecord;
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -22,7 +29,10 @@ public class UserServiceTest {
     private FirebaseAuth firebaseAuth;
     private CollectionReference usersCollection;
     private DocumentReference userDocument;
+    private CollectionReference presenceCollection;
+    private DocumentReference presenceDocument;
     private Query query;
+    private PresenceTracker presenceTracker;
 
     @BeforeEach
     public void setUp() {
@@ -35,69 +45,80 @@ public class UserServiceTest {
         when(firestore.collection("users")).thenReturn(usersCollection);
         when(usersCollection.document(anyString())).thenReturn(userDocument);
         when(usersCollection.whereEqualTo(anyString(), anyString())).thenReturn(query);
-
-        userService = new UserService(firestore, firebaseAuth);
+        presenceCollection = mock(CollectionReference.class);
+        presenceDocument = mock(DocumentReference.class);
+        when(firestore.collection("presence")).thenReturn(presenceCollection);
+        when(presenceCollection.document(anyString())).thenReturn(presenceDocument);
+
+        DownstreamMetrics metrics = new DownstreamMetrics(new SimpleMeterRegistry());
+        FirestoreUserRepository userRepository = new FirestoreUserRepository(firestore, metrics);
+        presenceTracker = new PresenceTracker(userRepository, new SimpleMeterRegistry(), 1000, 1000, 60);
+        userService = new UserService(userRepository, new IdTokenVerifier(firebaseAuth, 100, metrics, new SimpleMeterRegistry()), new UserSearchIndex(), presenceTracker);
     }
 
     @Test
-    public void testSaveUser() {
-        UserRecord userRecord = mock(UserRecord.class);
-
-        when(userRecord.getEmail()).thenReturn("test@example.com");
-        when(userRecord.getUid()).thenReturn("uid");
-        when(userRecord.getDisplayName()).thenReturn("Test User");
+    public void testReserveRegistration_ReservedUserIsSearchable() {
+        UserSearchIndex userSearchIndex = new UserSearchIndex();
+        UserService inMemoryService = new UserService(new InMemoryUserRepository(new SimulatedLatency(0, 0)),
+                new IdTokenVerifier(firebaseAuth, 100, new DownstreamMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry()), userSearchIndex, presenceTracker);
 
-        userService.saveUser(userRecord);
+        assertEquals(RegistrationResult.RESERVED, inMemoryService.reserveRegistration("uid", "Test User", "test@example.com").join());
+        assertEquals(RegistrationResult.EMAIL_TAKEN, inMemoryService.reserveRegistration("uid2", "Other User", "test@example.com").join());
 
-        verify(usersCollection).document(userRecord.getUid());
-        verify(userDocument).set(any(User.class));
+        assertEquals(List.of(new UserSummary("uid", "Test User")), userSearchIndex.search("test", 0, 10));
     }
 
     @Test
     public void testUpdateIsLoggedInStatus() {
         String userId = "userId";
 
+        WriteBatch batch = mock(WriteBatch.class);
+        when(firestore.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of()));
+
+        userService.updateIsLoggedInStatus(userId, false);
         userService.updateIsLoggedInStatus(userId, true);
-        verify(usersCollection).document(userId);
-        verify(userDocument).update("loggedIn", true);
+        verify(firestore, never()).batch();
+        assertTrue(userService.isUserLoggedIn(userId).join());
+
+        // The two changes go out as a single write of the latest state
+        presenceTracker.flush().join();
+        verify(presenceCollection).document(userId);
+        verify(batch).set(presenceDocument, Map.<String, Object>of("loggedIn", true));
+        verify(batch, times(1)).set(any(DocumentReference.class), anyMap());
+        verify(batch).commit();
+        verify(presenceDocument, never()).get();
+        verify(usersCollection, never()).document(anyString());
     }
 
     @Test
     public void testIsUserLoggedIn_UserExistsAndIsLoggedIn() {
         String userId = "userId";
-        User user = User.builder()
-                .isLoggedIn(true)
-                .build();
-
         DocumentSnapshot documentSnapshot = mock(DocumentSnapshot.class);
         ApiFuture<DocumentSnapshot> futureSnapshot = ApiFutures.immediateFuture(documentSnapshot);
         when(documentSnapshot.exists()).thenReturn(true);
-        when(documentSnapshot.toObject(User.class)).thenReturn(user);
-        when(userDocument.get()).thenReturn(futureSnapshot);
+        when(documentSnapshot.getBoolean("loggedIn")).thenReturn(true);
+        when(presenceDocument.get()).thenReturn(futureSnapshot);
 
-        boolean isLoggedIn = userService.isUserLoggedIn(userId);
+        boolean isLoggedIn = userService.isUserLoggedIn(userId).join();
 
         assertTrue(isLoggedIn);
-        verify(firestore.collection("users")).document(userId);
+        verify(presenceCollection).document(userId);
     }
 
     @Test
     public void testIsUserLoggedIn_UserExistsAndIsNotLoggedIn() {
         String userId = "userId";
-        User user = User.builder()
-                .isLoggedIn(false)
-                .build();
-
         DocumentSnapshot documentSnapshot = mock(DocumentSnapshot.class);
         ApiFuture<DocumentSnapshot> futureSnapshot = ApiFutures.immediateFuture(documentSnapshot);
         when(documentSnapshot.exists()).thenReturn(true);
-        when(documentSnapshot.toObject(User.class)).thenReturn(user);
-        when(userDocument.get()).thenReturn(futureSnapshot);
+        when(documentSnapshot.getBoolean("loggedIn")).thenReturn(false);
+        when(presenceDocument.get()).thenReturn(futureSnapshot);
 
-        boolean isLoggedIn = userService.isUserLoggedIn(userId);
+        boolean isLoggedIn = userService.isUserLoggedIn(userId).join();
 
         assertFalse(isLoggedIn);
-        verify(firestore.collection("users")).document(userId);
+        verify(presenceCollection).document(userId);
     }
 
     @Test
@@ -107,40 +128,38 @@ public class UserServiceTest {
         DocumentSnapshot documentSnapshot = mock(DocumentSnapshot.class);
         ApiFuture<DocumentSnapshot> futureSnapshot = ApiFutures.immediateFuture(documentSnapshot);
         when(documentSnapshot.exists()).thenReturn(false);
-        when(userDocument.get()).thenReturn(futureSnapshot);
+        when(presenceDocument.get()).thenReturn(futureSnapshot);
 
-        boolean isLoggedIn = userService.isUserLoggedIn(userId);
+        boolean isLoggedIn = userService.isUserLoggedIn(userId).join();
 
         assertFalse(isLoggedIn);
-        verify(firestore.collection("users")).document(userId);
+        verify(presenceCollection).document(userId);
     }
 
     @Test
     public void testIsUserLoggedIn_InterruptedException() throws Exception {
         String userId = "userId";
 
-        ApiFuture<DocumentSnapshot> futureSnapshot = mock(ApiFuture.class);
-        when(futureSnapshot.get()).thenThrow(InterruptedException.class);
-        when(userDocument.get()).thenReturn(futureSnapshot);
+        ApiFuture<DocumentSnapshot> futureSnapshot = ApiFutures.immediateFailedFuture(new InterruptedException());
+        when(presenceDocument.get()).thenReturn(futureSnapshot);
 
-        boolean isLoggedIn = userService.isUserLoggedIn(userId);
+        boolean isLoggedIn = userService.isUserLoggedIn(userId).join();
 
         assertFalse(isLoggedIn);
-        verify(firestore.collection("users")).document(userId);
+        verify(presenceCollection).document(userId);
     }
 
     @Test
     public void testIsUserLoggedIn_ExecutionException() throws Exception {
         String userId = "userId";
 
-        ApiFuture<DocumentSnapshot> futureSnapshot = mock(ApiFuture.class);
-        when(futureSnapshot.get()).thenThrow(ExecutionException.class);
-        when(userDocument.get()).thenReturn(futureSnapshot);
+        ApiFuture<DocumentSnapshot> futureSnapshot = ApiFutures.immediateFailedFuture(new ExecutionException(new RuntimeException()));
+        when(presenceDocument.get()).thenReturn(futureSnapshot);
 
-        boolean isLoggedIn = userService.isUserLoggedIn(userId);
+        boolean isLoggedIn = userService.isUserLoggedIn(userId).join();
 
         assertFalse(isLoggedIn);
-        verify(firestore.collection("users")).document(userId);
+        verify(presenceCollection).document(userId);
     }
 
     @Test
@@ -159,7 +178,7 @@ public class UserServiceTest {
         when(query.get()).thenReturn(futureSnapshot);
         when(querySnapshot.isEmpty()).thenReturn(true);
 
-        boolean isUnique = userService.isDisplayNameUnique(displayName);
+        boolean isUnique = userService.isDisplayNameUnique(displayName).join();
 
         assertTrue(isUnique);
         verify(usersCollection).whereEqualTo("displayName", displayName);
@@ -181,7 +200,7 @@ public class UserServiceTest {
         when(query.get()).thenReturn(futureSnapshot);
         when(querySnapshot.isEmpty()).thenReturn(false);
 
-        boolean isUnique = userService.isDisplayNameUnique(displayName);
+        boolean isUnique = userService.isDisplayNameUnique(displayName).join();
 
         assertFalse(isUnique);
         verify(firestore.collection("users")).whereEqualTo("displayName", displayName);
@@ -193,14 +212,13 @@ public class UserServiceTest {
 
         Query query = mock(Query.class);
         CollectionReference usersCollection = mock(CollectionReference.class);
-        ApiFuture<QuerySnapshot> futureSnapshot = mock(ApiFuture.class);
+        ApiFuture<QuerySnapshot> futureSnapshot = ApiFutures.immediateFailedFuture(new InterruptedException());
         when(firestore.collection("users")).thenReturn(usersCollection);
         when(usersCollection.whereEqualTo("displayName", displayName)).thenReturn(query);
         when(query.limit(1)).thenReturn(query);
         when(query.get()).thenReturn(futureSnapshot);
-        when(futureSnapshot.get()).thenThrow(InterruptedException.class);
 
-        boolean isUnique = userService.isDisplayNameUnique(displayName);
+        boolean isUnique = userService.isDisplayNameUnique(displayName).join();
 
         assertFalse(isUnique);
         verify(firestore.collection("users")).whereEqualTo("displayName", displayName);
@@ -212,14 +230,13 @@ public class UserServiceTest {
 
         Query query = mock(Query.class);
         CollectionReference usersCollection = mock(CollectionReference.class);
-        ApiFuture<QuerySnapshot> futureSnapshot = mock(ApiFuture.class);
+        ApiFuture<QuerySnapshot> futureSnapshot = ApiFutures.immediateFailedFuture(new ExecutionException(new RuntimeException()));
         when(firestore.collection("users")).thenReturn(usersCollection);
         when(usersCollection.whereEqualTo("displayName", displayName)).thenReturn(query);
         when(query.limit(1)).thenReturn(query);
         when(query.get()).thenReturn(futureSnapshot);
-        when(futureSnapshot.get()).thenThrow(ExecutionException.class);
 
-        boolean isUnique = userService.isDisplayNameUnique(displayName);
+        boolean isUnique = userService.isDisplayNameUnique(displayName).join();
 
         assertFalse(isUnique);
         verify(firestore.collection("users")).whereEqualTo("displayName", displayName);
@@ -241,7 +258,7 @@ public class UserServiceTest {
         when(query.get()).thenReturn(futureSnapshot);
         when(querySnapshot.isEmpty()).thenReturn(true);
 
-        boolean isUnique = userService.isEmailUnique(email);
+        boolean isUnique = userService.isEmailUnique(email).join();
 
         assertTrue(isUnique);
         verify(usersCollection).whereEqualTo("email", email);
@@ -263,7 +280,7 @@ public class UserServiceTest {
         when(query.get()).thenReturn(futureSnapshot);
         when(querySnapshot.isEmpty()).thenReturn(false);
 
-        boolean isUnique = userService.isEmailUnique(email);
+        boolean isUnique = userService.isEmailUnique(email).join();
 
         assertFalse(isUnique);
         verify(firestore.collection("users")).whereEqualTo("email", email);
@@ -275,14 +292,13 @@ public class UserServiceTest {
 
         Query query = mock(Query.class);
         CollectionReference usersCollection = mock(CollectionReference.class);
-        ApiFuture<QuerySnapshot> futureSnapshot = mock(ApiFuture.class);
+        ApiFuture<QuerySnapshot> futureSnapshot = ApiFutures.immediateFailedFuture(new InterruptedException());
         when(firestore.collection("users")).thenReturn(usersCollection);
         when(usersCollection.whereEqualTo("email", email)).thenReturn(query);
         when(query.limit(1)).thenReturn(query);
         when(query.get()).thenReturn(futureSnapshot);
-        when(futureSnapshot.get()).thenThrow(InterruptedException.class);
 
-        boolean isUnique = userService.isEmailUnique(email);
+        boolean isUnique = userService.isEmailUnique(email).join();
 
         assertFalse(isUnique);
         verify(firestore.collection("users")).whereEqualTo("email", email);
@@ -294,14 +310,13 @@ public class UserServiceTest {
 
         Query query = mock(Query.class);
         CollectionReference usersCollection = mock(CollectionReference.class);
-        ApiFuture<QuerySnapshot> futureSnapshot = mock(ApiFuture.class);
+        ApiFuture<QuerySnapshot> futureSnapshot = ApiFutures.immediateFailedFuture(new ExecutionException(new RuntimeException()));
         when(firestore.collection("users")).thenReturn(usersCollection);
         when(usersCollection.whereEqualTo("email", email)).thenReturn(query);
         when(query.limit(1)).thenReturn(query);
         when(query.get()).thenReturn(futureSnapshot);
-        when(futureSnapshot.get()).thenThrow(ExecutionException.class);
 
-        boolean isUnique = userService.isEmailUnique(email);
+        boolean isUnique = userService.isEmailUnique(email).join();
 
         assertFalse(isUnique);
         verify(firestore.collection("users")).whereEqualTo("email", email);
@@ -338,4 +353,59 @@ public class UserServiceTest {
     public void testIsValidPassword_InvalidPasswordTooShort() {
         assertFalse(userService.isValidPassword("P1a!"));
     }
+
+    private Transaction mockReservationTransaction(boolean displayNameReserved, boolean emailReserved) {
+        CollectionReference reservations = mock(CollectionReference.class);
+        DocumentReference reservationDocument = mock(DocumentReference.class);
+        when(firestore.collection("displayNameReservations")).thenReturn(reservations);
+        when(firestore.collection("emailReservations")).thenReturn(reservations);
+        when(reservations.document(anyString())).thenReturn(reservationDocument);
+        when(query.limit(1)).thenReturn(query);
+
+        DocumentSnapshot displayNameReservation = mock(DocumentSnapshot.class);
+        DocumentSnapshot emailReservation = mock(DocumentSnapshot.class);
+        when(displayNameReservation.exists()).thenReturn(displayNameReserved);
+        when(emailReservation.exists()).thenReturn(emailReserved);
+        QuerySnapshot noUsers = mock(QuerySnapshot.class);
+        when(noUsers.isEmpty()).thenReturn(true);
+
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getAll(any(DocumentReference.class), any(DocumentReference.class)))
+                .thenReturn(ApiFutures.immediateFuture(List.of(displayNameReservation, emailReservation)));
+        when(transaction.get(any(Query.class))).thenReturn(ApiFutures.immediateFuture(noUsers));
+        when(firestore.runTransaction(any())).thenAnswer(invocation ->
+                ApiFutures.immediateFuture(invocation.<Transaction.Function<?>>getArgument(0).updateCallback(transaction)));
+        return transaction;
+    }
+
+    @Test
+    public void testReserveRegistration_CreatesReservationsAndUserTogether() {
+        Transaction transaction = mockReservationTransaction(false, false);
+
+        RegistrationResult result = userService.reserveRegistration("uid", "Test User", "test@example.com").join();
+
+        assertEquals(RegistrationResult.RESERVED, result);
+        verify(transaction, times(2)).create(any(DocumentReference.class), anyMap());
+        verify(transaction).create(eq(userDocument), any(User.class));
+        verify(userDocument, never()).set(any());
+    }
+
+    @Test
+    public void testReserveRegistration_DisplayNameAlreadyReserved() {
+        Transaction transaction = mockReservationTransaction(true, false);
+
+        RegistrationResult result = userService.reserveRegistration("uid", "Test User", "test@example.com").join();
+
+        assertEquals(RegistrationResult.DISPLAY_NAME_TAKEN, result);
+        verify(transaction, never()).create(any(DocumentReference.class), any(Object.class));
+    }
+
+    @Test
+    public void testReserveRegistration_EmailAlreadyReserved() {
+        mockReservationTransaction(false, true);
+
+        RegistrationResult result = userService.reserveRegistration("uid", "Test User", "test@example.com").join();
+
+        assertEquals(RegistrationResult.EMAIL_TAKEN, result);
+    }
 }
@@ -0,0 +1,84 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImportRecordReaderTest {
+
+    @Test
+    public void next_ReadsCsvColumnsByHeaderName() throws IOException {
+        ImportRecordReader reader = new ImportRecordReader(new StringReader("""
+                displayName,email,householdId
+                "Smith, Jo",jo@example.com,
+                
+                "Say \"\"hi\"\"",hi@example.com,household1
+                """), true);
+
+        ImportRecord first = reader.next();
+        assertEquals(1, first.position());
+        assertEquals("Smith, Jo", first.displayName());
+        assertEquals("jo@example.com", first.email());
+        assertNull(first.householdId());
+        assertNull(first.uid());
+
+        ImportRecord second = reader.next();
+        assertEquals(2, second.position());
+        assertEquals("Say \"hi\"", second.displayName());
+        assertEquals("household1", second.householdId());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void next_ReadsNdjson() throws IOException {
+        ImportRecordReader reader = new ImportRecordReader(new StringReader("""
+                {"uid":"u1","email":"a@example.com","displayName":"A","passwordHash":"aGFzaA=="}
+                not json
+                [1, 2]
+                """), false);
+
+        ImportRecord first = reader.next();
+        assertEquals("u1", first.uid());
+        assertEquals("aGFzaA==", first.passwordHash());
+        assertNull(first.problem());
+        assertNotNull(reader.next().problem());
+        ImportRecord third = reader.next();
+        assertEquals(3, third.position());
+        assertNotNull(third.problem());
+    }
+
+    @Test
+    public void next_UnterminatedQuoteIsAProblemForThatRecordOnly() throws IOException {
+        ImportRecordReader reader = new ImportRecordReader(new StringReader("email,displayName\n\"a@example.com,A\nb@example.com,B\n"), true);
+
+        assertNotNull(reader.next().problem());
+        assertEquals("b@example.com", reader.next().email());
+    }
+
+    @Test
+    public void next_CsvHeaderMustNameTheRequiredColumns() {
+        ImportRecordReader reader = new ImportRecordReader(new StringReader("mail,name\na@example.com,A\n"), true);
+
+        assertThrows(IllegalArgumentException.class, reader::next);
+    }
+
+    @Test
+    public void skip_PassesOverRecordsAlreadyImported() throws IOException {
+        ImportRecordReader reader = new ImportRecordReader(new StringReader("email,displayName\na@x,A\nb@x,B\nc@x,C\n"), true);
+
+        reader.skip(2);
+
+        ImportRecord next = reader.next();
+        assertEquals(3, next.position());
+        assertEquals("c@x", next.email());
+    }
+
+    @Test
+    public void fields_SplitsOnCommasOutsideQuotes() {
+        assertEquals(List.of("a", "b,c", "", "d\"e"), ImportRecordReader.fields("a,\"b,c\",,\"d\"\"e\""));
+    }
+}
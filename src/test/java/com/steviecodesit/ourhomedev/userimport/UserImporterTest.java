@@ -0,0 +1,222 @@
+package com.steviecodesit.ourhomedev.userimport;
+
+import com.google.api.core.ApiFutures;
+import com.google.firebase.auth.ErrorInfo;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.GetUsersResult;
+import com.google.firebase.auth.UserImportResult;
+import com.google.firebase.auth.UserRecord;
+import com.steviecodesit.ourhomedev.async.SimulatedLatency;
+import com.steviecodesit.ourhomedev.auth.IdTokenVerifier;
+import com.steviecodesit.ourhomedev.household.Household;
+import com.steviecodesit.ourhomedev.household.HouseholdMembership;
+import com.steviecodesit.ourhomedev.household.HouseholdMembershipStatus;
+import com.steviecodesit.ourhomedev.household.HouseholdRole;
+import com.steviecodesit.ourhomedev.household.InMemoryHouseholdRepository;
+import com.steviecodesit.ourhomedev.metrics.DownstreamMetrics;
+import com.steviecodesit.ourhomedev.user.InMemoryUserRepository;
+import com.steviecodesit.ourhomedev.user.PresenceTracker;
+import com.steviecodesit.ourhomedev.user.RegistrationResult;
+import com.steviecodesit.ourhomedev.user.User;
+import com.steviecodesit.ourhomedev.user.UserSearchIndex;
+import com.steviecodesit.ourhomedev.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class UserImporterTest {
+
+    private FirebaseAuth firebaseAuth;
+    private UserImportResult importResult;
+    private InMemoryUserRepository userRepository;
+    private InMemoryHouseholdRepository householdRepository;
+    private UserService userService;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void setUp() {
+        SimulatedLatency noLatency = new SimulatedLatency(0, 0);
+        userRepository = new InMemoryUserRepository(noLatency);
+        householdRepository = new InMemoryHouseholdRepository(noLatency, userRepository);
+        userService = new UserService(userRepository, new IdTokenVerifier(null, 1, new DownstreamMetrics(new SimpleMeterRegistry()), new SimpleMeterRegistry()), new UserSearchIndex(),
+                new PresenceTracker(userRepository, new SimpleMeterRegistry(), 1000, 1000, 60));
+
+        firebaseAuth = mock(FirebaseAuth.class);
+        importResult = mock(UserImportResult.class);
+        when(importResult.getErrors()).thenReturn(List.of());
+        when(firebaseAuth.importUsersAsync(anyList())).thenReturn(ApiFutures.immediateFuture(importResult));
+        authHasAccounts();
+
+        HouseholdMembership owner = HouseholdMembership.builder().householdId("household1").userId("owner")
+                .householdRole(HouseholdRole.OWNER).memberStatus(HouseholdMembershipStatus.ACCEPTED).build();
+        Household household = new Household();
+        household.setId("household1");
+        household.setMembers(new ArrayList<>(List.of(owner)));
+        householdRepository.create(household, owner).join();
+    }
+
+    private UserImporter importer(int batchSize) {
+        return new UserImporter(firebaseAuth, userService, userRepository, householdRepository, new DownstreamMetrics(new SimpleMeterRegistry()),
+                new SimpleMeterRegistry(), batchSize, "NONE");
+    }
+
+    // Firebase Auth answers getUsers with these accounts
+    private void authHasAccounts(String... uids) {
+        Set<UserRecord> accounts = Arrays.stream(uids).map(uid -> {
+            UserRecord account = mock(UserRecord.class);
+            when(account.getUid()).thenReturn(uid);
+            return account;
+        }).collect(Collectors.toSet());
+        GetUsersResult found = mock(GetUsersResult.class);
+        when(found.getUsers()).thenReturn(accounts);
+        when(firebaseAuth.getUsersAsync(anyCollection())).thenReturn(ApiFutures.immediateFuture(found));
+    }
+
+    private static ImportRecord record(long position, String uid, String email, String displayName, String householdId) {
+        return new ImportRecord(position, uid, email, displayName, null, householdId, null);
+    }
+
+    @Test
+    public void importBatch_CreatesUsersInOneAuthCall() {
+        List<UserImporter.Result> results = importer(1000).importBatch(List.of(
+                record(1, "u1", "a@example.com", "A", null),
+                record(2, "u2", "b@example.com", "B", "household1"))).join();
+
+        assertEquals(List.of(UserImporter.Outcome.IMPORTED, UserImporter.Outcome.IMPORTED), results.stream().map(UserImporter.Result::outcome).toList());
+        verify(firebaseAuth, times(1)).importUsersAsync(anyList());
+        User imported = userRepository.findById("u1").join().orElseThrow();
+        assertFalse(userRepository.findLoggedIn("u1").join());
+        assertNull(imported.getHouseholdMembership());
+
+        Household household = householdRepository.findById("household1").join().orElseThrow();
+        assertEquals(HouseholdMembershipStatus.ACCEPTED, household.findMember("u2").orElseThrow().getMemberStatus());
+        assertEquals("household1", userRepository.findById("u2").join().orElseThrow().getHouseholdMembership().getHouseholdId());
+    }
+
+    @Test
+    public void importBatch_BadRecordsFailOnTheirOwn() {
+        userRepository.reserveRegistration("existing", User.builder().email("taken@example.com").displayName("Taken").build()).join();
+
+        List<UserImporter.Result> results = importer(1000).importBatch(List.of(
+                record(1, null, "taken@example.com", "Someone", null),
+                record(2, null, null, "No email", null),
+                record(3, null, "c@example.com", "C", "no-such-household"),
+                ImportRecord.unreadable(4, "Unterminated quoted field"),
+                new ImportRecord(5, null, "d@example.com", "D", "aGFzaA==", null, null),
+                record(6, null, "e@example.com", "E", null))).join();
+
+        assertEquals(List.of(UserImporter.Outcome.FAILED, UserImporter.Outcome.FAILED, UserImporter.Outcome.FAILED, UserImporter.Outcome.FAILED,
+                UserImporter.Outcome.FAILED, UserImporter.Outcome.IMPORTED), results.stream().map(UserImporter.Result::outcome).toList());
+        assertTrue(results.subList(0, 5).stream().allMatch(result -> result.reason() != null));
+        assertTrue(userRepository.existsByEmail("e@example.com").join());
+    }
+
+    @Test
+    public void importBatch_AccountsAuthRejectsAreReleased() {
+        ErrorInfo error = mock(ErrorInfo.class);
+        when(error.getIndex()).thenReturn(1);
+        when(error.getReason()).thenReturn("EMAIL_EXISTS");
+        when(importResult.getErrors()).thenReturn(List.of(error));
+
+        List<UserImporter.Result> results = importer(1000).importBatch(List.of(
+                record(1, "u1", "a@example.com", "A", null),
+                record(2, "u2", "b@example.com", "B", "household1"))).join();
+
+        assertEquals(UserImporter.Outcome.IMPORTED, results.get(0).outcome());
+        assertEquals(UserImporter.Outcome.FAILED, results.get(1).outcome());
+        assertTrue(userRepository.findById("u2").join().isEmpty());
+        assertFalse(householdRepository.findById("household1").join().orElseThrow().isMember("u2"));
+        // Released, so the name and email can be registered again
+        assertEquals(RegistrationResult.RESERVED, userRepository.reserveRegistration("u3", User.builder().email("b@example.com").displayName("B").build()).join());
+    }
+
+    @Test
+    public void importBatch_RecordsFromAnInterruptedRunAreRecognised() {
+        importer(1000).importBatch(List.of(record(1, "u1", "a@example.com", "A", null), record(2, null, "b@example.com", "B", null))).join();
+        authHasAccounts("u1", UserImporter.derivedUid("b@example.com"));
+
+        List<UserImporter.Result> results = importer(1000)
+                .importBatch(List.of(record(1, "u1", "a@example.com", "A", null), record(2, null, "B@example.com", "B", null))).join();
+
+        assertEquals(List.of(UserImporter.Outcome.ALREADY_IMPORTED, UserImporter.Outcome.ALREADY_IMPORTED), results.stream().map(UserImporter.Result::outcome).toList());
+        verify(firebaseAuth, times(1)).importUsersAsync(anyList());
+    }
+
+    @Test
+    public void importBatch_UsersReservedWithoutAnAccountAreCreatedNow() {
+        // An earlier run stopped after reserving these users, before importUsers
+        String derived = UserImporter.derivedUid("b@example.com");
+        userService.reserveRegistrations(Map.of(
+                "u1", User.builder().email("a@example.com").displayName("A").build(),
+                derived, User.builder().email("b@example.com").displayName("B").build())).join();
+
+        List<UserImporter.Result> results = importer(1000).importBatch(List.of(
+                record(1, "u1", "a@example.com", "A", null),
+                record(2, null, "b@example.com", "B", "household1"))).join();
+
+        assertEquals(List.of(UserImporter.Outcome.IMPORTED, UserImporter.Outcome.IMPORTED), results.stream().map(UserImporter.Result::outcome).toList());
+        verify(firebaseAuth).importUsersAsync(argThat(accounts -> accounts.size() == 2));
+        assertTrue(householdRepository.findById("household1").join().orElseThrow().isMember(derived));
+    }
+
+    @Test
+    public void importFile_ResumesAfterTheCheckpoint() throws IOException {
+        Path input = directory.resolve("residents.csv");
+        Files.writeString(input, """
+                uid,email,displayName
+                u1,a@example.com,A
+                u2,b@example.com,B
+                u3,c@example.com,C
+                u4,d@example.com,D
+                u5,e@example.com,E
+                """);
+        // An earlier run got through the first two records
+        Files.writeString(directory.resolve("residents.csv.checkpoint"), "2");
+
+        UserImporter.Report report = importer(2).importFile(input);
+
+        assertEquals(new UserImporter.Report(5, 3, 0, 0), report);
+        assertEquals("5", Files.readString(directory.resolve("residents.csv.checkpoint")));
+        assertTrue(userRepository.findById("u1").join().isEmpty());
+        assertTrue(userRepository.findById("u5").join().isPresent());
+        verify(firebaseAuth, times(2)).importUsersAsync(anyList());
+
+        // Nothing is left to do
+        assertEquals(new UserImporter.Report(5, 0, 0, 0), importer(2).importFile(input));
+    }
+
+    @Test
+    public void importFile_FailuresAreWrittenBesideTheInput() throws IOException {
+        Path input = directory.resolve("residents.ndjson");
+        Files.writeString(input, """
+                {"email":"a@example.com","displayName":"A"}
+                {"email":"a@example.com","displayName":"A again"}
+                """);
+
+        UserImporter.Report report = importer(1000).importFile(input);
+
+        assertEquals(new UserImporter.Report(2, 1, 0, 1), report);
+        List<String> errors = Files.readAllLines(directory.resolve("residents.ndjson.errors"));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("\"position\":2"));
+    }
+}